@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor.benchmarks;
+
+import com.trello.victor.Converter;
+import com.trello.victor.Density;
+import com.trello.victor.SVGResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a full rasterization: parsing the SVG, rendering it and encoding the PNG.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ConverterBenchmark {
+
+    @Param({"ICON", "PATH_HEAVY", "GRADIENT_FILTER", "EMBEDDED_RASTER"})
+    public Corpus corpus;
+
+    @Param({"LDPI", "MDPI", "HDPI", "XHDPI", "XXHDPI", "XXXHDPI"})
+    public Density density;
+
+    private File svgFile;
+
+    private File pngFile;
+
+    private Converter converter;
+
+    @Setup
+    public void setup() throws IOException {
+        svgFile = corpus.create();
+        pngFile = File.createTempFile("benchmark", ".png");
+        converter = new Converter();
+    }
+
+    @TearDown
+    public void tearDown() {
+        svgFile.delete();
+        pngFile.delete();
+    }
+
+    @Benchmark
+    public boolean transcode() {
+        // A fresh resource each time, so that parsing is measured too
+        return converter.transcode(new SVGResource(svgFile, 72), density, pngFile);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor.benchmarks;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Generates the SVGs the benchmarks run over.
+ *
+ * Every kind is generated from a fixed seed, so runs (and baselines) are comparable.
+ */
+public enum Corpus {
+
+    /** A handful of simple paths, like most app icons. */
+    ICON {
+        @Override
+        void writeBody(PrintWriter writer, Random random) {
+            for (int i = 0; i < 5; i++) {
+                writePath(writer, random, "#" + color(random));
+            }
+        }
+    },
+
+    /** Thousands of curves, like a detailed illustration. */
+    PATH_HEAVY {
+        @Override
+        void writeBody(PrintWriter writer, Random random) {
+            for (int i = 0; i < 2000; i++) {
+                writePath(writer, random, "#" + color(random));
+            }
+        }
+    },
+
+    /** Gradient fills and blur/shadow filters, which are expensive to rasterize. */
+    GRADIENT_FILTER {
+        @Override
+        void writeBody(PrintWriter writer, Random random) {
+            writer.println("<defs>");
+            for (int i = 0; i < 10; i++) {
+                writer.printf(Locale.US, "<linearGradient id=\"linear%d\" x1=\"0\" y1=\"0\" x2=\"1\" y2=\"1\">"
+                        + "<stop offset=\"0\" stop-color=\"#%s\"/><stop offset=\"1\" stop-color=\"#%s\" stop-opacity=\"0.5\"/>"
+                        + "</linearGradient>%n", i, color(random), color(random));
+                writer.printf(Locale.US, "<radialGradient id=\"radial%d\" cx=\"0.5\" cy=\"0.5\" r=\"0.5\">"
+                        + "<stop offset=\"0\" stop-color=\"#%s\"/><stop offset=\"1\" stop-color=\"#%s\"/>"
+                        + "</radialGradient>%n", i, color(random), color(random));
+                writer.printf(Locale.US, "<filter id=\"shadow%d\"><feGaussianBlur in=\"SourceAlpha\" stdDeviation=\"%.1f\"/>"
+                        + "<feOffset dx=\"1\" dy=\"1\" result=\"blur\"/>"
+                        + "<feMerge><feMergeNode in=\"blur\"/><feMergeNode in=\"SourceGraphic\"/></feMerge>"
+                        + "</filter>%n", i, 0.5f + random.nextFloat() * 2);
+            }
+            writer.println("</defs>");
+            for (int i = 0; i < 50; i++) {
+                String fill = (i % 2 == 0 ? "url(#linear" : "url(#radial") + (i % 10) + ")";
+                writer.printf(Locale.US, "<g filter=\"url(#shadow%d)\">%n", i % 10);
+                writePath(writer, random, fill);
+                writer.println("</g>");
+            }
+        }
+    },
+
+    /** A PNG embedded as a data URI, scaled and drawn under a few paths. */
+    EMBEDDED_RASTER {
+        @Override
+        void writeBody(PrintWriter writer, Random random) throws IOException {
+            BufferedImage image = new BufferedImage(128, 128, BufferedImage.TYPE_INT_ARGB);
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, random.nextInt());
+                }
+            }
+            ByteArrayOutputStream png = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", png);
+
+            writer.printf("<image x=\"0\" y=\"0\" width=\"%d\" height=\"%d\" xlink:href=\"data:image/png;base64,%s\"/>%n",
+                    SIZE, SIZE, Base64.getEncoder().encodeToString(png.toByteArray()));
+            for (int i = 0; i < 5; i++) {
+                writePath(writer, random, "#" + color(random));
+            }
+        }
+    };
+
+    /** The size, in pixels, of every generated SVG. */
+    static final int SIZE = 48;
+
+    abstract void writeBody(PrintWriter writer, Random random) throws IOException;
+
+    /**
+     * Writes this kind of SVG to a new temporary file.
+     */
+    File create() throws IOException {
+        File file = File.createTempFile("benchmark-" + name().toLowerCase(Locale.US), ".svg");
+        Random random = new Random(ordinal());
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            writer.printf("<svg xmlns=\"http://www.w3.org/2000/svg\" xmlns:xlink=\"http://www.w3.org/1999/xlink\" "
+                    + "width=\"%d\" height=\"%d\" viewBox=\"0 0 %d %d\">%n", SIZE, SIZE, SIZE, SIZE);
+            writeBody(writer, random);
+            writer.println("</svg>");
+        }
+        return file;
+    }
+
+    private static void writePath(PrintWriter writer, Random random, String fill) {
+        writer.printf(Locale.US, "<path fill=\"%s\" d=\"M%.2f %.2fC%.2f %.2f %.2f %.2f %.2f %.2fS%.2f %.2f %.2f %.2fz\"/>%n",
+                fill, coordinate(random), coordinate(random),
+                coordinate(random), coordinate(random), coordinate(random), coordinate(random),
+                coordinate(random), coordinate(random), coordinate(random), coordinate(random),
+                coordinate(random), coordinate(random));
+    }
+
+    private static float coordinate(Random random) {
+        return random.nextFloat() * SIZE;
+    }
+
+    private static String color(Random random) {
+        return String.format("%06x", random.nextInt(0x1000000));
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor.benchmarks;
+
+import com.trello.victor.Converter;
+import com.trello.victor.Density;
+import com.trello.victor.SVGResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares rendering every density directly against rendering XXXHDPI once
+ * and downscaling the rest from it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DownscaleBenchmark {
+
+    @Param({"ICON", "PATH_HEAVY", "GRADIENT_FILTER", "EMBEDDED_RASTER"})
+    public Corpus corpus;
+
+    private File svgFile;
+
+    private final Map<Density, File> destinations = new EnumMap<>(Density.class);
+
+    private Converter converter;
+
+    @Setup
+    public void setup() throws IOException {
+        svgFile = corpus.create();
+        for (Density density : Density.values()) {
+            destinations.put(density, File.createTempFile("benchmark-" + density, ".png"));
+        }
+        converter = new Converter();
+    }
+
+    @TearDown
+    public void tearDown() {
+        svgFile.delete();
+        for (File destination : destinations.values()) {
+            destination.delete();
+        }
+    }
+
+    @Benchmark
+    public int renderEveryDensity() {
+        return converter.transcode(new SVGResource(svgFile, 72), destinations);
+    }
+
+    @Benchmark
+    public int downscaleFromXxxhdpi() {
+        return converter.transcode(new SVGResource(svgFile, 72), destinations, Density.XXXHDPI);
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor.benchmarks;
+
+import com.trello.victor.Converter;
+import com.trello.victor.Density;
+import com.trello.victor.SVGResource;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Writes a CSV comparing PNGs downscaled from XXXHDPI against PNGs rendered
+ * directly, for every corpus kind and density, so that the quality cost of
+ * downscaleFromDensity can be weighed against its speed.
+ *
+ * Differences are per color channel, from 0 to 255. PSNR is in decibels;
+ * higher is closer, and identical images are reported as infinite.
+ */
+public class DownscaleQualityReport {
+
+    public static void main(String[] args) throws IOException {
+        File output = new File(args.length > 0 ? args[0] : "downscale.csv");
+        output.getAbsoluteFile().getParentFile().mkdirs();
+
+        try (PrintWriter writer = new PrintWriter(output, "UTF-8")) {
+            writer.println("corpus,density,maxDifference,meanDifference,psnr");
+            for (Corpus corpus : Corpus.values()) {
+                File svgFile = corpus.create();
+                try {
+                    Map<Density, BufferedImage> direct = render(svgFile, null);
+                    Map<Density, BufferedImage> downscaled = render(svgFile, Density.XXXHDPI);
+                    for (Density density : Density.values()) {
+                        writer.println(compare(corpus, density, direct.get(density), downscaled.get(density)));
+                    }
+                }
+                finally {
+                    svgFile.delete();
+                }
+            }
+        }
+
+        System.out.println("Wrote " + output);
+    }
+
+    private static Map<Density, BufferedImage> render(File svgFile, Density downscaleFrom) throws IOException {
+        Map<Density, File> destinations = new EnumMap<>(Density.class);
+        for (Density density : Density.values()) {
+            destinations.put(density, File.createTempFile("report-" + density, ".png"));
+        }
+
+        try {
+            new Converter().transcode(new SVGResource(svgFile, 72), destinations, downscaleFrom);
+
+            Map<Density, BufferedImage> images = new EnumMap<>(Density.class);
+            for (Map.Entry<Density, File> entry : destinations.entrySet()) {
+                images.put(entry.getKey(), ImageIO.read(entry.getValue()));
+            }
+            return images;
+        }
+        finally {
+            for (File destination : destinations.values()) {
+                destination.delete();
+            }
+        }
+    }
+
+    private static String compare(Corpus corpus, Density density, BufferedImage expected, BufferedImage actual) {
+        int max = 0;
+        long total = 0;
+        double squared = 0;
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                int a = expected.getRGB(x, y);
+                int b = actual.getRGB(x, y);
+                for (int shift = 0; shift < 32; shift += 8) {
+                    int difference = Math.abs(((a >>> shift) & 0xFF) - ((b >>> shift) & 0xFF));
+                    max = Math.max(max, difference);
+                    total += difference;
+                    squared += difference * difference;
+                }
+            }
+        }
+
+        long channels = (long) expected.getWidth() * expected.getHeight() * 4;
+        double meanSquared = squared / channels;
+        double psnr = meanSquared == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / meanSquared);
+        return String.format(Locale.US, "%s,%s,%d,%.3f,%.2f",
+                corpus, density, max, total / (double) channels, psnr);
+    }
+}
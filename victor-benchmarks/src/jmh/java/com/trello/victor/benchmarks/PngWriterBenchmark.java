@@ -0,0 +1,95 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor.benchmarks;
+
+import com.trello.victor.Converter;
+import com.trello.victor.Density;
+import com.trello.victor.SVGResource;
+import org.apache.batik.ext.awt.image.codec.imageio.ImageIOPNGImageWriter;
+import org.apache.batik.ext.awt.image.codec.imageio.PNGImageWriterParams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures encoding an already-rendered image with the Image I/O PNG writer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PngWriterBenchmark {
+
+    @Param({"ICON", "PATH_HEAVY", "GRADIENT_FILTER", "EMBEDDED_RASTER"})
+    public Corpus corpus;
+
+    @Param({"LDPI", "MDPI", "HDPI", "XHDPI", "XXHDPI", "XXXHDPI"})
+    public Density density;
+
+    /**
+     * The deflater level; -1 for the writer's default.
+     */
+    @Param({"-1", "9"})
+    public int compressionLevel;
+
+    private final ImageIOPNGImageWriter writer = new ImageIOPNGImageWriter();
+
+    private BufferedImage image;
+
+    private PNGImageWriterParams params;
+
+    @Setup
+    public void setup() throws IOException {
+        File svgFile = corpus.create();
+        File pngFile = File.createTempFile("benchmark", ".png");
+        try {
+            new Converter().transcode(new SVGResource(svgFile, 72), density, pngFile);
+            image = ImageIO.read(pngFile);
+        }
+        finally {
+            svgFile.delete();
+            pngFile.delete();
+        }
+
+        params = new PNGImageWriterParams();
+        params.setCompressionLevel(compressionLevel);
+    }
+
+    @Benchmark
+    public int writeImage() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writer.writeImage(image, out, params);
+        return out.size();
+    }
+}
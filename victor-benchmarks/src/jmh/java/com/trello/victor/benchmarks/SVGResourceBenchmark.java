@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor.benchmarks;
+
+import com.trello.victor.SVGResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares reading an SVG's size from its root element against parsing the
+ * whole document (which is what reading the size used to cost).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SVGResourceBenchmark {
+
+    /**
+     * Roughly an icon, a detailed illustration and a multi-megabyte illustration.
+     */
+    @Param({"10", "1000", "50000"})
+    public int pathCount;
+
+    private File svgFile;
+
+    @Setup
+    public void createSvg() throws IOException {
+        svgFile = File.createTempFile("benchmark", ".svg");
+
+        Random random = new Random(pathCount);
+        try (PrintWriter writer = new PrintWriter(svgFile, "UTF-8")) {
+            writer.println("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"24pt\" height=\"24pt\" viewBox=\"0 0 24 24\">");
+            for (int i = 0; i < pathCount; i++) {
+                writer.printf("<path d=\"M%.3f %.3fL%.3f %.3fL%.3f %.3fz\"/>%n",
+                        random.nextFloat() * 24, random.nextFloat() * 24,
+                        random.nextFloat() * 24, random.nextFloat() * 24,
+                        random.nextFloat() * 24, random.nextFloat() * 24);
+            }
+            writer.println("</svg>");
+        }
+    }
+
+    @TearDown
+    public void deleteSvg() {
+        svgFile.delete();
+    }
+
+    @Benchmark
+    public int sniffSize() {
+        return new SVGResource(svgFile, 72).getWidth();
+    }
+
+    @Benchmark
+    public Object parseDocument() {
+        return new SVGResource(svgFile, 72).getDocument();
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trello.victor.cli;
+
+import com.trello.victor.BatchRasterizer;
+import com.trello.victor.Density;
+import com.trello.victor.OutputFormat;
+import com.trello.victor.SvgWatcher;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Rasterizes directories of SVGs from the command line, with the same renderer and
+ * render cache as the Gradle plugin; see {@link BatchRasterizer} for the details.
+ *
+ * Progress goes to stderr as SVGs finish, and a summary to stdout at the end. Exits with
+ * 1 if any SVG failed, and 2 if the arguments don't make sense. With --watch, it then keeps
+ * rasterizing SVGs as they are saved, until it is stopped.
+ */
+public class VictorCli {
+
+    private static final String USAGE = String.join("\n",
+            "Usage: victor [options] <input dir>...",
+            "",
+            "  -o, --out <dir>              where to write PNGs (required)",
+            "  -i, --include <glob>         SVGs to rasterize, relative to each input dir; repeatable",
+            "                               (default: **/*.svg)",
+            "  -l, --layout <layout>        android: drawable-<density>/<name>.png (default)",
+            "                               mirror: <density>/<path in input dir>.png",
+            "  -d, --densities <list>       comma-separated, e.g. mdpi,xhdpi (default: all)",
+            "      --dpi <dpi>              DPI for SVGs sized in absolute units (default: 72)",
+            "  -f, --format <format>        png (default) or webp",
+            "      --webp-quality <quality> encode lossy WebPs at this quality, 0-100 (default: lossless)",
+            "      --compression <level>    PNG deflater level, 0-9 (default: the standard encoder)",
+            "      --optimize               write indexed PNGs where they're smaller, pixel for pixel",
+            "      --max-quantization-error <rms>",
+            "                               with --optimize, also quantize PNGs with more than 256",
+            "                               colors if colors stay this close, 0-255 (default: never)",
+            "  -j, --threads <count>        SVGs to rasterize at once (default: number of processors)",
+            "      --cache-dir <dir>        render cache, shared with the Gradle plugin",
+            "                               (default: <gradle user home>/caches/victor)",
+            "      --cache-max-size-mb <mb> how big the render cache may grow (default: 512)",
+            "      --no-cache               always render",
+            "      --report <dir>           write timings for every PNG as JSON and CSV",
+            "      --slowest <count>        how many of the slowest SVGs to list (default: 10)",
+            "  -w, --watch                  keep rasterizing SVGs as they change, until stopped",
+            "  -q, --quiet                  only print the summary",
+            "  -h, --help                   print this and exit");
+
+    private final PrintStream out;
+
+    private final PrintStream err;
+
+    private boolean quiet;
+
+    private boolean watch;
+
+    private File reportDir;
+
+    private int slowest = 10;
+
+    private int lastPercent = -1;
+
+    VictorCli(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(new VictorCli(System.out, System.err).run(args));
+    }
+
+    /**
+     * @return the exit code
+     */
+    int run(String[] args) {
+        BatchRasterizer rasterizer;
+        try {
+            rasterizer = parse(args);
+        }
+        catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println();
+            err.println(USAGE);
+            return 2;
+        }
+
+        if (rasterizer == null) {
+            out.println(USAGE);
+            return 0;
+        }
+
+        BatchRasterizer.Result result;
+        SvgWatcher watcher;
+        try {
+            // Start watching first, so that nothing saved during the first run is missed
+            watcher = watch ? rasterizer.watch() : null;
+            result = rasterizer.run();
+        }
+        catch (IllegalArgumentException | UnsupportedOperationException | IOException e) {
+            err.println(e.getMessage());
+            return 2;
+        }
+
+        printSummary(result);
+        if (watcher == null) {
+            return result.getFailed().isEmpty() ? 0 : 1;
+        }
+
+        rasterizer.setListener(null);
+        out.println("Watching " + watcher.getWatchedDirectoryCount() + " directories for changes; press Ctrl-C to stop");
+        watcher.run();
+        return 0;
+    }
+
+    /**
+     * @return the configured rasterizer, or null if only help was asked for
+     */
+    BatchRasterizer parse(String[] args) {
+        BatchRasterizer rasterizer = new BatchRasterizer();
+        List<File> inputDirs = new ArrayList<>();
+        List<String> includes = new ArrayList<>();
+        boolean cache = true;
+        String gradleUserHome = System.getenv("GRADLE_USER_HOME");
+        rasterizer.setCacheDir(gradleUserHome != null ?
+                new File(gradleUserHome, "caches/victor") :
+                new File(System.getProperty("user.home"), ".gradle/caches/victor"));
+
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "-h":
+                case "--help":
+                    return null;
+                case "-o":
+                case "--out":
+                    rasterizer.setOutputDir(new File(value(args, ++i, arg)));
+                    break;
+                case "-i":
+                case "--include":
+                    includes.add(value(args, ++i, arg));
+                    break;
+                case "-l":
+                case "--layout":
+                    rasterizer.setLayout(parseLayout(value(args, ++i, arg)));
+                    break;
+                case "-d":
+                case "--densities":
+                    rasterizer.setDensities(parseDensities(value(args, ++i, arg)));
+                    break;
+                case "--dpi":
+                    rasterizer.setBaseDpi(intValue(args, ++i, arg, 1, Integer.MAX_VALUE));
+                    break;
+                case "-f":
+                case "--format":
+                    rasterizer.setOutputFormat(OutputFormat.forName(value(args, ++i, arg)));
+                    break;
+                case "--webp-quality":
+                    rasterizer.setWebpQuality(intValue(args, ++i, arg, 0, 100));
+                    break;
+                case "--compression":
+                    rasterizer.setPngCompressionLevel(intValue(args, ++i, arg, 0, 9));
+                    break;
+                case "--optimize":
+                    rasterizer.setOptimizePngs(true);
+                    break;
+                case "--max-quantization-error":
+                    rasterizer.setPngQuantizationMaxError(doubleValue(args, ++i, arg, 0, 255));
+                    break;
+                case "-j":
+                case "--threads":
+                    rasterizer.setParallelism(intValue(args, ++i, arg, 1, Short.MAX_VALUE));
+                    break;
+                case "--cache-dir":
+                    rasterizer.setCacheDir(new File(value(args, ++i, arg)));
+                    break;
+                case "--cache-max-size-mb":
+                    rasterizer.setCacheMaxSize(intValue(args, ++i, arg, 0, Integer.MAX_VALUE) * 1024L * 1024L);
+                    break;
+                case "--no-cache":
+                    cache = false;
+                    break;
+                case "--report":
+                    reportDir = new File(value(args, ++i, arg));
+                    break;
+                case "--slowest":
+                    slowest = intValue(args, ++i, arg, 0, Integer.MAX_VALUE);
+                    break;
+                case "-w":
+                case "--watch":
+                    watch = true;
+                    break;
+                case "-q":
+                case "--quiet":
+                    quiet = true;
+                    break;
+                default:
+                    if (arg.startsWith("-")) {
+                        throw new IllegalArgumentException("Unknown option " + arg);
+                    }
+                    inputDirs.add(new File(arg));
+            }
+        }
+
+        if (inputDirs.isEmpty()) {
+            throw new IllegalArgumentException("No input directories given");
+        }
+        if (rasterizer.getOutputDir() == null) {
+            throw new IllegalArgumentException("No output directory given; use --out");
+        }
+
+        rasterizer.setInputDirs(inputDirs);
+        if (!includes.isEmpty()) {
+            rasterizer.setIncludes(includes);
+        }
+        if (!cache) {
+            rasterizer.setCacheDir(null);
+        }
+        rasterizer.setListener(this::onRasterized);
+        return rasterizer;
+    }
+
+    private synchronized void onRasterized(File svg, boolean failed, int completed, int total) {
+        if (failed) {
+            err.println("Failed: " + svg);
+        }
+        if (quiet) {
+            return;
+        }
+
+        // Without a terminal to redraw a line in, print one line per percent at most
+        int percent = completed * 100 / total;
+        if (System.console() != null) {
+            err.print(String.format(Locale.US, "\r[%d/%d] %d%%", completed, total, percent));
+            if (completed == total) {
+                err.println();
+            }
+        }
+        else if (percent != lastPercent) {
+            err.println(String.format(Locale.US, "[%d/%d] %d%%", completed, total, percent));
+        }
+        lastPercent = percent;
+    }
+
+    private void printSummary(BatchRasterizer.Result result) {
+        out.println(String.format(Locale.US, "Rasterized %d SVGs to %d PNGs in %.1f s: %d changed, %d from cache, %d failed",
+                result.getSvgs(), result.getOutputs(), result.getElapsedNanos() / 1e9, result.getChanged(),
+                result.getCacheHits(), result.getFailed().size()));
+
+        for (String line : result.getReport().describeSlowest(slowest)) {
+            out.println(line);
+        }
+        for (String line : result.getReport().describeSavings()) {
+            out.println(line);
+        }
+
+        if (reportDir != null && !result.getReport().getMetrics().isEmpty()) {
+            result.getReport().writeTo(reportDir, "victor-report");
+            out.println("Wrote timings to " + reportDir);
+        }
+    }
+
+    private static BatchRasterizer.Layout parseLayout(String value) {
+        try {
+            return BatchRasterizer.Layout.valueOf(value.toUpperCase(Locale.US));
+        }
+        catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown layout '" + value + "'; must be 'android' or 'mirror'");
+        }
+    }
+
+    private static List<Density> parseDensities(String value) {
+        List<Density> densities = new ArrayList<>();
+        for (String name : value.split(",")) {
+            try {
+                densities.add(Density.valueOf(name.trim().toUpperCase(Locale.US)));
+            }
+            catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown density '" + name.trim() + "'");
+            }
+        }
+        return densities;
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[index];
+    }
+
+    private static int intValue(String[] args, int index, String option, int min, int max) {
+        String value = value(args, index, option);
+        try {
+            int number = Integer.parseInt(value);
+            if (number >= min && number <= max) {
+                return number;
+            }
+        }
+        catch (NumberFormatException ignored) {
+            // Reported below, along with numbers out of range
+        }
+        throw new IllegalArgumentException(option + " must be a number from " + min + " to " + max + ", not '" + value + "'");
+    }
+
+    private static double doubleValue(String[] args, int index, String option, double min, double max) {
+        String value = value(args, index, option);
+        try {
+            double number = Double.parseDouble(value);
+            if (number >= min && number <= max) {
+                return number;
+            }
+        }
+        catch (NumberFormatException ignored) {
+            // Reported below, along with numbers out of range
+        }
+        throw new IllegalArgumentException(option + " must be a number from " + min + " to " + max + ", not '" + value + "'");
+    }
+}
@@ -0,0 +1,391 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trello.victor
+
+import org.slf4j.LoggerFactory
+
+import java.nio.file.FileSystems
+import java.nio.file.Path
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveAction
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Rasterizes whole directories of SVGs outside of a Gradle build, for icon pipelines
+ * that have thousands of SVGs and no Android project to put them in.
+ *
+ * This uses the same {@link Converter} and {@link RenderCache} as the plugin, so pointing
+ * it at the plugin's cache directory reuses PNGs that builds have already rendered (and
+ * the other way around), and a rerun over an unchanged set of SVGs only restores them.
+ *
+ * SVGs are spread over a fork/join pool, which splits the list in halves until each
+ * task is a single SVG; idle threads steal work from busy ones, so a few very large SVGs
+ * don't hold up everything queued behind them. Every density of an SVG is rendered from a
+ * single parse, on one thread.
+ */
+class BatchRasterizer {
+
+    /**
+     * Where outputs go, relative to the output directory.
+     */
+    enum Layout {
+        /** `drawable-<density>/<name>.<extension>`, ready to use as Android resources. */
+        ANDROID,
+        /** `<density>/<path relative to its input directory>.<extension>`, keeping the input's directory structure. */
+        MIRROR
+    }
+
+    /**
+     * Hears about every SVG as it is finished, from whichever thread finished it.
+     */
+    interface Listener {
+        /**
+         * @param svg the SVG that was just rasterized
+         * @param failed whether any of its densities could not be rasterized
+         * @param completed how many SVGs have been finished so far, including this one
+         * @param total how many SVGs there are
+         */
+        void onRasterized(File svg, boolean failed, int completed, int total)
+    }
+
+    /**
+     * What a run did.
+     */
+    static class Result {
+        /** How many SVGs were found. */
+        int svgs
+        /** How many outputs (SVG/density pairs) there were. */
+        int outputs
+        /** How many outputs were written or changed. */
+        int changed
+        /** How many outputs were restored from the render cache. */
+        int cacheHits
+        /** SVGs that could not be rasterized at every density. */
+        List<File> failed = []
+        /** Timings for every output. */
+        RasterizeReport report = new RasterizeReport()
+        /** How long the run took, in nanoseconds. */
+        long elapsedNanos
+    }
+
+    /**
+     * Directories to look for SVGs in.
+     */
+    List<File> inputDirs = []
+
+    /**
+     * Glob patterns (as in {@link java.nio.file.FileSystem#getPathMatcher}) that SVGs must
+     * match, relative to their input directory. Patterns that start with a `**` directory
+     * also match files at the top of the input directory.
+     */
+    List<String> includes = ['**/*.svg']
+
+    File outputDir
+
+    Layout layout = Layout.ANDROID
+
+    List<Density> densities = Density.values() as List<Density>
+
+    /**
+     * The DPI for SVGs sized in absolute units.
+     */
+    int baseDpi = 72
+
+    /**
+     * The format to rasterize to.
+     */
+    OutputFormat outputFormat = OutputFormat.PNG
+
+    /**
+     * The quality (0-100) to encode lossy WebPs at; null for lossless WebPs.
+     */
+    Integer webpQuality
+
+    /**
+     * The deflater level (0-9) to encode PNGs with; null for the default encoder.
+     */
+    Integer pngCompressionLevel
+
+    /**
+     * Whether to write PNGs that fit in a palette as indexed PNGs, when that's smaller.
+     */
+    boolean optimizePngs
+
+    /**
+     * How far colors may be off when quantizing PNGs to a palette; null never quantizes.
+     */
+    Double pngQuantizationMaxError
+
+    /**
+     * How many SVGs to rasterize at once.
+     */
+    int parallelism = Runtime.runtime.availableProcessors()
+
+    /**
+     * Where to cache rendered PNGs; null to always render. The plugin's default is
+     * `<gradle user home>/caches/victor`.
+     */
+    File cacheDir
+
+    long cacheMaxSize = 512L * 1024L * 1024L
+
+    Listener listener
+
+    RenderEngine engine = RenderEngine.shared
+
+    /**
+     * @return every SVG in the input directories that matches the includes, in path order
+     * @throws IllegalArgumentException if an input directory doesn't exist, or if two SVGs
+     * would write to the same output
+     */
+    List<File> findSvgs() {
+        List<File> svgs = []
+        inputDirs.each { File inputDir ->
+            if (!inputDir.isDirectory()) {
+                throw new IllegalArgumentException("Input directory $inputDir does not exist")
+            }
+
+            inputDir.eachFileRecurse { File file ->
+                if (file.isFile() && matches(file)) {
+                    svgs.add file
+                }
+            }
+        }
+        svgs.sort { it.path }
+
+        Map<String, List<File>> byOutput = svgs.groupBy { outputPath(it, Density.MDPI) }
+        List<String> clashes = byOutput.findAll { it.value.size() > 1 }.collect { it.value*.path.join(', ') }
+        if (!clashes.empty) {
+            throw new IllegalArgumentException("SVGs would overwrite each other's outputs: ${clashes.join('; ')}")
+        }
+
+        return svgs
+    }
+
+    /**
+     * @return whether a file in one of the input directories matches the includes
+     */
+    boolean matches(File file) {
+        File inputDir = inputDirFor(file)
+        if (inputDir == null) {
+            return false
+        }
+
+        Path relative = inputDir.toPath().relativize(file.toPath())
+        return includes.any { String pattern ->
+            List<String> globs = [pattern]
+            if (pattern.startsWith('**/')) {
+                globs.add pattern.substring(3)
+            }
+            return globs.any { FileSystems.default.getPathMatcher("glob:$it").matches(relative) }
+        }
+    }
+
+    /**
+     * Rasterizes every SVG found at every density. SVGs that fail are logged and
+     * listed in the result, and don't stop the rest.
+     */
+    Result run() {
+        checkSettings()
+        List<File> svgs = findSvgs()
+        Result result = rasterize(svgs)
+
+        if (cacheDir != null) {
+            new RenderCache(cacheDir, cacheMaxSize).evict()
+        }
+        return result
+    }
+
+    /**
+     * Rasterizes some SVGs at every density. A single SVG is rasterized on the calling thread.
+     */
+    Result rasterize(List<File> svgs) {
+        checkSettings()
+        long start = System.nanoTime()
+        RenderCache cache = cacheDir != null ? new RenderCache(cacheDir, cacheMaxSize) : null
+
+        Result result = new Result(svgs: svgs.size(), outputs: svgs.size() * densities.size())
+        AtomicInteger changed = new AtomicInteger()
+        AtomicInteger completed = new AtomicInteger()
+        Queue<RasterizeMetric> metrics = new ConcurrentLinkedQueue<>()
+        Queue<File> failed = new ConcurrentLinkedQueue<>()
+
+        Closure rasterizeOne = { File svg ->
+            boolean svgFailed = false
+            try {
+                Map<Density, File> destinations = densities.collectEntries { Density density ->
+                    File destination = new File(outputDir, outputPath(svg, density))
+                    destination.parentFile.mkdirs()
+                    return [(density): destination]
+                }
+
+                Converter converter = engine.createConverter(cache)
+                converter.outputFormat = outputFormat
+                converter.webpQuality = webpQuality
+                converter.pngCompressionLevel = pngCompressionLevel
+                converter.optimizePngs = optimizePngs
+                converter.pngQuantizationMaxError = pngQuantizationMaxError
+                changed.addAndGet(converter.transcode(engine.createResource(svg, baseDpi), destinations))
+                metrics.addAll(converter.metrics)
+
+                // The converter logs and skips whatever it can't rasterize
+                svgFailed = converter.metrics.size() < destinations.size()
+            }
+            catch (Exception e) {
+                LoggerFactory.getLogger(BatchRasterizer).error("Could not rasterize $svg", e)
+                svgFailed = true
+            }
+
+            if (svgFailed) {
+                failed.add svg
+            }
+            listener?.onRasterized(svg, svgFailed, completed.incrementAndGet(), svgs.size())
+        }
+
+        if (svgs.size() == 1) {
+            rasterizeOne(svgs[0])
+        }
+        else if (!svgs.empty) {
+            ForkJoinPool pool = new ForkJoinPool(parallelism)
+            try {
+                pool.invoke(new RasterizeRange(svgs, 0, svgs.size(), rasterizeOne))
+            }
+            finally {
+                pool.shutdown()
+            }
+        }
+
+        result.changed = changed.get()
+        result.cacheHits = cache?.hits ?: 0
+        result.failed.addAll(failed.toList().sort { it.path })
+        result.report.addAll(metrics)
+        result.elapsedNanos = System.nanoTime() - start
+        return result
+    }
+
+    /**
+     * Deletes every density of an SVG's output.
+     */
+    void deleteOutputs(File svg) {
+        densities.each { Density density ->
+            new File(outputDir, outputPath(svg, density)).delete()
+        }
+    }
+
+    /**
+     * Starts watching the input directories, to rasterize SVGs again as soon as they change
+     * and delete the outputs of those that are deleted. The work is done on whichever thread
+     * runs the watcher, which keeps the same warm transcoder throughout.
+     *
+     * @return the watcher, for the caller to run and eventually close
+     */
+    SvgWatcher watch() throws IOException {
+        checkSettings()
+        return new SvgWatcher(inputDirs, { File file -> matches(file) } as FileFilter, new SvgWatcher.Listener() {
+            @Override
+            void onChanged(File file) {
+                Result result = rasterize([file])
+                if (result.failed.empty) {
+                    LoggerFactory.getLogger(BatchRasterizer).info(String.format(Locale.US, 'Rasterized %s in %d ms',
+                            file.name, TimeUnit.NANOSECONDS.toMillis(result.elapsedNanos)))
+                }
+            }
+
+            @Override
+            void onDeleted(File file) {
+                deleteOutputs(file)
+                LoggerFactory.getLogger(BatchRasterizer).info("Deleted the outputs of $file.name")
+            }
+        })
+    }
+
+    /**
+     * @return where an SVG's output for a density goes, relative to the output directory
+     */
+    String outputPath(File svg, Density density) {
+        String densityName = density.name().toLowerCase()
+        switch (layout) {
+            case Layout.ANDROID:
+                return "drawable-$densityName/${outputName(svg.name)}"
+            case Layout.MIRROR:
+                String relative = inputDirFor(svg).toPath().relativize(svg.toPath()).toString().replace(File.separatorChar, '/' as char)
+                int nameStart = relative.lastIndexOf('/') + 1
+                return "$densityName/${relative.substring(0, nameStart)}${outputName(relative.substring(nameStart))}"
+            default:
+                throw new IllegalStateException("Unknown layout $layout")
+        }
+    }
+
+    private void checkSettings() {
+        if (outputDir == null) {
+            throw new IllegalArgumentException('No output directory set')
+        }
+        if (densities.empty) {
+            throw new IllegalArgumentException('No densities to rasterize')
+        }
+        if (webpQuality != null && (webpQuality < 0 || webpQuality > 100)) {
+            throw new IllegalArgumentException("WebP quality must be from 0 to 100, not $webpQuality")
+        }
+        Converter.checkSupported(outputFormat, pngCompressionLevel)
+    }
+
+    private File inputDirFor(File file) {
+        return inputDirs.find { file.path.startsWith(it.path + File.separator) }
+    }
+
+    private String outputName(String svgName) {
+        int suffixStart = svgName.lastIndexOf '.'
+        return "${suffixStart == -1 ? svgName : svgName.substring(0, suffixStart)}.$outputFormat.extension"
+    }
+
+    /**
+     * Rasterizes a range of SVGs, splitting it in half until there's only one.
+     */
+    private static class RasterizeRange extends RecursiveAction {
+
+        private final List<File> svgs
+
+        private final int from
+
+        private final int to
+
+        private final Closure rasterize
+
+        RasterizeRange(List<File> svgs, int from, int to, Closure rasterize) {
+            this.svgs = svgs
+            this.from = from
+            this.to = to
+            this.rasterize = rasterize
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= 1) {
+                if (to > from) {
+                    rasterize.call(svgs[from])
+                }
+                return
+            }
+
+            int middle = (from + to) >>> 1
+            invokeAll(new RasterizeRange(svgs, from, middle, rasterize), new RasterizeRange(svgs, middle, to, rasterize))
+        }
+    }
+}
@@ -16,23 +16,156 @@
 
 package com.trello.victor
 
-import org.apache.batik.transcoder.Transcoder
+import groovy.transform.PackageScope
+import org.apache.batik.bridge.BridgeContext
+import org.apache.batik.bridge.ViewBox
+import org.apache.batik.ext.awt.image.GraphicsUtil
+import org.apache.batik.ext.awt.image.codec.imageio.ImageIOPNGImageWriter
+import org.apache.batik.ext.awt.image.codec.imageio.ImageIOWebPImageWriter
+import org.apache.batik.ext.awt.image.codec.imageio.PNGImageWriterParams
+import org.apache.batik.ext.awt.image.codec.imageio.WebPImageWriterParams
+import org.apache.batik.gvt.CanvasGraphicsNode
+import org.apache.batik.gvt.CompositeGraphicsNode
+import org.apache.batik.gvt.GraphicsNode
+import org.apache.batik.gvt.renderer.ConcreteImageRendererFactory
+import org.apache.batik.gvt.renderer.ImageRenderer
 import org.apache.batik.transcoder.TranscoderException
-import org.apache.batik.transcoder.TranscoderInput
 import org.apache.batik.transcoder.TranscoderOutput
-import org.apache.batik.transcoder.image.ImageTranscoder
 import org.apache.batik.transcoder.image.PNGTranscoder
-import org.gradle.api.logging.Logging
+import org.apache.batik.util.SVGConstants
+import org.slf4j.LoggerFactory
+import org.w3c.dom.svg.SVGSVGElement
+
+import javax.annotation.Nullable
+import java.awt.Graphics2D
+import java.awt.geom.AffineTransform
+import java.awt.geom.Rectangle2D
+import java.awt.image.BufferedImage
+import java.awt.image.RenderedImage
 
 /**
- * Converts SVGs to PNGs.
+ * Converts SVGs to PNGs (or WebPs).
  *
  * This is split out into its own class to make it easier to test (since it doesn't require
  * any of the Task architecture).
+ *
+ * Rather than handing each density to the transcoder (which would parse the SVG and build
+ * its GVT tree every time), the tree is built once per SVGResource and painted at each
+ * density. The painting and encoding mirror what PNGTranscoder does, so the output is the same.
+ *
+ * Very large outputs are painted a strip at a time as the PNG encoder reads them, rather
+ * than into one full-size image, and every render first waits for its share of the
+ * {@link MemoryBudget}.
+ *
+ * Images are painted into arrays from a {@link RasterPool} and with one renderer, both reused
+ * from render to render, so that rendering thousands of SVGs doesn't allocate thousands of
+ * images (and a renderer's off-screen image for each) that the GC then has to collect.
  */
 class Converter {
 
-    private Transcoder transcoder = new PNGTranscoder()
+    private PNGTranscoder transcoder
+
+    private RasterPool rasterPool
+
+    // Reused for every render; created when first needed, and dropped once it has
+    // painted too large an image to keep
+    private ImageRenderer renderer
+
+    // The most pixels the renderer has painted at once, which is about how much memory it holds on to
+    private long rendererPixels
+
+    private static final ImageIOPNGImageWriter PNG_WRITER = new ImageIOPNGImageWriter()
+
+    private static final ImageIOWebPImageWriter WEBP_WRITER = new ImageIOWebPImageWriter()
+
+    private RenderCache cache
+
+    /**
+     * Outputs with more pixels than this (4096x4096) are painted in strips.
+     *
+     * This is not configurable because antialiasing comes out very slightly
+     * differently along the edges of strips, so it affects the output.
+     */
+    static final long TILED_RENDERING_PIXELS = 4096L * 4096L
+
+    /**
+     * About how many pixels each strip of a tiled output has.
+     */
+    static final long STRIP_PIXELS = 1L << 22
+
+    // Lowered by tests, to tile outputs that are small enough to check against a full render
+    @PackageScope
+    long tiledRenderingPixels = TILED_RENDERING_PIXELS
+
+    /**
+     * Limits how much raster memory renders may use at once; null for no limit.
+     */
+    MemoryBudget memoryBudget
+
+    /**
+     * The format to write rasterized images in.
+     */
+    OutputFormat outputFormat = OutputFormat.PNG
+
+    /**
+     * The quality (0-100) to encode lossy WebPs at; null for lossless WebPs.
+     */
+    Integer webpQuality
+
+    /**
+     * The deflater level (0-9) to encode PNGs with; null to use the transcoder's own encoder.
+     * Needs Java 9 or later (see {@link #checkSupported}).
+     */
+    Integer pngCompressionLevel
+
+    /**
+     * Whether to write PNGs that fit in a palette as indexed PNGs, whenever that comes out
+     * smaller; see {@link PngPalette}.
+     */
+    boolean optimizePngs
+
+    /**
+     * How far colors may be off when quantizing PNGs with more than 256 colors down to a
+     * palette, when optimizing; null only uses a palette for PNGs that fit one as they are.
+     */
+    Double pngQuantizationMaxError
+
+    /**
+     * Metrics for everything this converter has transcoded, in order.
+     */
+    final List<RasterizeMetric> metrics = []
+
+    /**
+     * @param cache where to look up and store rendered PNGs; null to always render
+     * @param transcoder the transcoder to render with, which must not be used by
+     * another thread at the same time; see {@link RenderEngine}
+     * @param rasterPool where to take images to paint into from, which must not be
+     * used by another thread at the same time either
+     */
+    Converter(RenderCache cache = null, PNGTranscoder transcoder = new PNGTranscoder(),
+              RasterPool rasterPool = new RasterPool()) {
+        this.cache = cache
+        this.transcoder = transcoder
+        this.rasterPool = rasterPool
+    }
+
+    /**
+     * Fails if outputs can't be encoded as asked here: WebPs on a platform the bundled
+     * libwebp doesn't cover, or PNGs at a chosen deflater level on Java 8, whose PNG
+     * writer would quietly use its default level instead.
+     *
+     * @throws UnsupportedOperationException saying why
+     */
+    static void checkSupported(OutputFormat format, @Nullable Integer pngCompressionLevel) {
+        if (format == OutputFormat.WEBP) {
+            ImageIOWebPImageWriter.checkSupported()
+        }
+        else if (pngCompressionLevel != null && !ImageIOPNGImageWriter.canSetCompressionLevel()) {
+            String javaVersion = System.getProperty('java.specification.version')
+            throw new UnsupportedOperationException("Setting a PNG compression level needs Java 9 or later; "
+                    + "the PNG writer of Java $javaVersion always uses its default level")
+        }
+    }
 
     /**
      * Transcodes an SVGResource into a PNG.
@@ -40,35 +173,377 @@ class Converter {
      * @param svgResource the input SVG
      * @param density the density to output the PNG; determines scaling
      * @param destination the output destination
+     * @return true if the destination changed
+     */
+    boolean transcode(SVGResource svgResource, Density density, File destination) {
+        return transcode(svgResource, [(density): destination]) > 0
+    }
+
+    /**
+     * Transcodes an SVGResource into a PNG for each density, from a single parse of the SVG.
+     *
+     * Destinations that already hold exactly the PNG that would be written are left alone.
+     *
+     * @param svgResource the input SVG
+     * @param destinations the output destination for each density
+     * @param downscaleFrom if set, densities smaller than this are downscaled from a single
+     * render at this density, instead of each being rendered from scratch
+     * @return the number of destinations that changed
+     * @throws UnsupportedOperationException if the outputs can't be encoded as asked here
+     * (see {@link #checkSupported})
      */
-    void transcode(SVGResource svgResource, Density density, File destination) {
+    int transcode(SVGResource svgResource, Map<Density, File> destinations, Density downscaleFrom = null) {
+        checkSupported(outputFormat, pngCompressionLevel)
+        int changed = 0
+
+        // Anything in the cache doesn't need the SVG to be parsed at all; SVGs that
+        // reference other files have no content hash, and are never cached
+        Map<Density, String> cacheKeys = [:]
+        String contentHash = cache != null && svgResource.file.isFile() ?
+                RenderCache.contentHash(svgResource.file) : null
+        if (contentHash != null) {
+            destinations = destinations.findAll { Density density, File destination ->
+                String key = cache.key(contentHash, density, svgResource.dpi, encodingFor(density, downscaleFrom))
+                cacheKeys[density] = key
+
+                RenderCache.Restored restored = cache.restore(key, destination)
+                if (restored == RenderCache.Restored.WRITTEN) {
+                    changed++
+                }
+                if (restored != RenderCache.Restored.MISS) {
+                    metrics.add new RasterizeMetric(svg: svgResource.file.path, density: density, cached: true,
+                            bytes: destination.length())
+                }
+                return restored == RenderCache.Restored.MISS
+            }
+
+            if (destinations.isEmpty()) {
+                return changed
+            }
+        }
+
+        long parseStart = System.nanoTime()
         if (!svgResource.canBeRead) {
-            Logging.getLogger(this.class)
+            LoggerFactory.getLogger(this.class)
                     .warn("Cannot convert SVGResource $svgResource.file.name; file cannot be parsed")
-            return
+            return changed
         }
 
-        int outWidth = Math.round(svgResource.width * density.multiplier)
-        int outHeight = Math.round(svgResource.height * density.multiplier)
-        transcoder.addTranscodingHint(ImageTranscoder.KEY_WIDTH, new Float(outWidth))
-        transcoder.addTranscodingHint(ImageTranscoder.KEY_HEIGHT, new Float(outHeight))
+        GraphicsNode root = svgResource.buildGraphicsNode(transcoder.userAgent)
+        if (root == null) {
+            return changed
+        }
+        long parseNanos = System.nanoTime() - parseStart
+
+        // Rendered the first time a density needs it, so its cost shows up in that density's metrics
+        BufferedImage downscaleSource = null
+
+        destinations.each { Density density, File destination ->
+            int outWidth = Math.round(svgResource.width * density.multiplier)
+            int outHeight = Math.round(svgResource.height * density.multiplier)
+
+            boolean downscaled = downscaleFrom != null && density.multiplier <= downscaleFrom.multiplier
+            // The WebP encoder needs the whole image at once
+            boolean tiled = !downscaled && outputFormat == OutputFormat.PNG &&
+                    (long) outWidth * outHeight > tiledRenderingPixels
+            int stripHeight = StripedImage.stripHeightFor(outWidth, STRIP_PIXELS)
+
+            // The memory this render needs, held only while it runs (see MemoryBudget)
+            long footprint = downscaleSource != null ?
+                    MemoryBudget.imageBytes(downscaleSource.width, downscaleSource.height) : 0
+            if (downscaled) {
+                if (downscaleSource == null) {
+                    footprint += renderBytes(Math.round(svgResource.width * downscaleFrom.multiplier),
+                            Math.round(svgResource.height * downscaleFrom.multiplier))
+                }
+                if (density != downscaleFrom) {
+                    footprint += MemoryBudget.imageBytes(outWidth, outHeight)
+                }
+            }
+            else {
+                footprint += renderBytes(outWidth, tiled ? Math.min(stripHeight, outHeight) : outHeight)
+            }
+            if (outputFormat == OutputFormat.PNG && optimizePngs && !tiled) {
+                // The indexed copy, at a byte per pixel
+                footprint += (long) outWidth * outHeight
+            }
+            long reserved = memoryBudget != null ? memoryBudget.acquire(footprint) : 0
 
-        String svgURI = svgResource.file.toURI().toString()
-        TranscoderInput input = new TranscoderInput(svgURI)
+            RenderedImage image = null
+            BufferedImage strip = null
+            try {
+                long renderStart = System.nanoTime()
+                long paintNanos = 0
+                if (downscaled) {
+                    if (downscaleSource == null) {
+                        downscaleSource = render(svgResource, root,
+                                Math.round(svgResource.width * downscaleFrom.multiplier),
+                                Math.round(svgResource.height * downscaleFrom.multiplier))
+                    }
 
-        OutputStream outStream = new FileOutputStream(destination)
-        TranscoderOutput output = new TranscoderOutput(outStream)
+                    if (density == downscaleFrom) {
+                        image = downscaleSource
+                    }
+                    else {
+                        BufferedImage downscaledImage = rasterPool.acquire(outWidth, outHeight)
+                        Downscaler.downscale(downscaleSource, downscaledImage)
+                        image = downscaledImage
+                    }
+                }
+                else if (tiled) {
+                    // Strips are painted as the encoder reads them, so time them from inside
+                    AffineTransform transform = prepare(svgResource, root, outWidth, outHeight)
+                    image = new StripedImage(outWidth, outHeight, stripHeight, { int y, int rows ->
+                        long paintStart = System.nanoTime()
+                        // The encoder is done with the previous strip, so the next one can reuse its pixels
+                        rasterPool.release(strip)
+                        strip = paint(root, transform, outWidth, rows, y)
+                        paintNanos += System.nanoTime() - paintStart
+                        return strip
+                    } as StripedImage.StripPainter)
+                }
+                else {
+                    image = render(svgResource, root, outWidth, outHeight)
+                }
+                long encodeStart = System.nanoTime()
+                byte[] encoded
+                long unoptimizedBytes = 0
+                if (outputFormat == OutputFormat.WEBP) {
+                    encoded = encodeWebp(image)
+                }
+                else {
+                    encoded = encodePng(image)
+                    if (optimizePngs) {
+                        unoptimizedBytes = encoded.length
+                        encoded = optimizePng(image, encoded)
+                    }
+                }
+                long encodeEnd = System.nanoTime()
 
-        try {
-            transcoder.transcode(input, output)
+                metrics.add new RasterizeMetric(svg: svgResource.file.path, density: density,
+                        parseNanos: parseNanos, renderNanos: encodeStart - renderStart + paintNanos,
+                        encodeNanos: encodeEnd - encodeStart - paintNanos, bytes: encoded.length,
+                        unoptimizedBytes: unoptimizedBytes, width: image.width, height: image.height)
+
+                if (StableOutput.write(destination, encoded)) {
+                    changed++
+                }
+            }
+            catch (Exception e) {
+                LoggerFactory.getLogger(this.class).error("Could not transcode $svgResource.file.name", e)
+                destination.delete()
+                return
+            }
+            finally {
+                if (image instanceof BufferedImage && !image.is(downscaleSource)) {
+                    rasterPool.release((BufferedImage) image)
+                }
+                rasterPool.release(strip)
+                memoryBudget?.release(reserved)
+            }
+
+            if (cacheKeys.containsKey(density)) {
+                cache.store(cacheKeys[density], destination)
+            }
         }
-        catch (TranscoderException e) {
-            Logging.getLogger(this.class).error('Could not transcode $svgResource.file.name', e)
-            destination.delete()
+
+        rasterPool.release(downscaleSource)
+        releaseRenderer()
+        return changed
+    }
+
+    /**
+     * Paints the GVT tree into an image of the given size, the same way ImageTranscoder does.
+     */
+    private BufferedImage render(SVGResource svgResource, GraphicsNode root, float width, float height) {
+        AffineTransform transform = prepare(svgResource, root, width, height)
+        return paint(root, transform, width, height, 0)
+    }
+
+    /**
+     * Fits the tree to the given size, the same way ImageTranscoder does.
+     *
+     * @return the transform to paint the tree with
+     */
+    private static AffineTransform prepare(SVGResource svgResource, GraphicsNode root, float width, float height) {
+        BridgeContext bridgeContext = svgResource.renderContext
+        SVGSVGElement svgElement = svgResource.document.rootElement
+
+        AffineTransform transform
+        String viewBox = svgElement.getAttributeNS(null, SVGConstants.SVG_VIEW_BOX_ATTRIBUTE)
+        if (viewBox) {
+            String aspectRatio = svgElement.getAttributeNS(null, SVGConstants.SVG_PRESERVE_ASPECT_RATIO_ATTRIBUTE)
+            transform = ViewBox.getPreserveAspectRatioTransform(svgElement, viewBox, aspectRatio, width, height,
+                    bridgeContext)
+        }
+        else {
+            float docWidth = (float) bridgeContext.documentSize.width
+            float docHeight = (float) bridgeContext.documentSize.height
+            float scale = Math.min(width / docWidth, height / docHeight)
+            transform = AffineTransform.getScaleInstance(scale, scale)
+        }
+
+        CanvasGraphicsNode canvas = getCanvasGraphicsNode(root)
+        if (canvas != null) {
+            canvas.viewingTransform = transform
+            transform = new AffineTransform()
+        }
+        return transform
+    }
+
+    /**
+     * Paints rows of the prepared tree, starting at row y, into an image of their own from the pool.
+     */
+    private BufferedImage paint(GraphicsNode root, AffineTransform transform, float width, float height, int y) {
+        AffineTransform stripTransform = AffineTransform.getTranslateInstance(0, -y)
+        stripTransform.concatenate(transform)
+
+        int w = (int) (width + 0.5)
+        int h = (int) (height + 0.5)
+
+        if (renderer == null) {
+            renderer = new ConcreteImageRendererFactory().createStaticImageRenderer()
+        }
+        rendererPixels = Math.max(rendererPixels, (long) w * h)
+
+        renderer.updateOffScreen(w, h)
+        renderer.transform = stripTransform
+        renderer.tree = root
+        // A fresh renderer starts out transparent; a reused one still holds whatever it painted last
+        renderer.clearOffScreen()
+        renderer.repaint(stripTransform.createInverse().createTransformedShape(
+                new Rectangle2D.Float(0, 0, width, height)))
+        BufferedImage rendered = renderer.offScreen
+
+        // The same kind of image the transcoder creates
+        BufferedImage image = rasterPool.acquire(w, h)
+        Graphics2D g2d = GraphicsUtil.createGraphics(image)
+        if (rendered != null) {
+            g2d.drawRenderedImage(rendered, new AffineTransform())
+        }
+        g2d.dispose()
+
+        return image
+    }
+
+    /**
+     * Lets go of the tree just painted, so that it can be collected before the next SVG is
+     * rendered, and of the renderer itself if its off-screen image is too large to keep.
+     */
+    private void releaseRenderer() {
+        if (renderer == null) {
             return
         }
 
-        outStream.flush()
-        outStream.close()
+        renderer.tree = null
+        if (!rasterPool.canRetain(rendererPixels)) {
+            renderer.dispose()
+            renderer = null
+            rendererPixels = 0
+        }
+    }
+
+    /**
+     * @return the memory needed to paint an image of the given size: Batik's own
+     * off-screen image, plus the copy that gets encoded
+     */
+    private static long renderBytes(long width, long height) {
+        return MemoryBudget.imageBytes(width, height) * 2
+    }
+
+    /**
+     * Describes how images are encoded, for telling apart cached outputs.
+     */
+    String getEncoding() {
+        if (outputFormat == OutputFormat.WEBP) {
+            return webpQuality != null ? "webp-q$webpQuality" : 'webp-lossless'
+        }
+
+        String encoding = pngCompressionLevel != null ? "png-$pngCompressionLevel" : 'png'
+        if (optimizePngs) {
+            encoding += pngQuantizationMaxError ? "/palette-$pngQuantizationMaxError" : '/palette'
+        }
+        return encoding
+    }
+
+    /**
+     * Describes how a density's image is produced and encoded, for telling apart cached outputs.
+     */
+    String encodingFor(Density density, Density downscaleFrom) {
+        if (downscaleFrom == null || density.multiplier >= downscaleFrom.multiplier) {
+            // Rendered directly, the same as without downscaling
+            return encoding
+        }
+        return "$encoding/from-${downscaleFrom.name().toLowerCase()}"
+    }
+
+    private byte[] encodePng(RenderedImage image) throws TranscoderException {
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream()
+        if (pngCompressionLevel != null || !(image instanceof BufferedImage)) {
+            // The pooled Image I/O writer is the one that lets us pick the deflater level, and
+            // the transcoder only takes whole images
+            PNG_WRITER.writeImage(image, outStream, createWriterParams())
+        }
+        else {
+            transcoder.writeImage((BufferedImage) image, new TranscoderOutput(outStream))
+        }
+        return outStream.toByteArray()
+    }
+
+    private byte[] encodeWebp(RenderedImage image) {
+        ImageIOWebPImageWriter.checkSupported()
+
+        WebPImageWriterParams params = new WebPImageWriterParams()
+        if (webpQuality != null) {
+            params.lossless = false
+            params.quality = webpQuality / 100f
+        }
+
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream()
+        WEBP_WRITER.writeImage(image, outStream, params)
+        return outStream.toByteArray()
+    }
+
+    /**
+     * @return the image as an indexed PNG, if it fits in a palette and that comes out smaller
+     * than the PNG it has already been encoded to; otherwise that PNG
+     */
+    private byte[] optimizePng(RenderedImage image, byte[] png) {
+        // Striped images are too large to hold whole, and are hardly ever flat-colored anyway
+        if (!(image instanceof BufferedImage)) {
+            return png
+        }
+
+        BufferedImage indexed = PngPalette.toIndexed((BufferedImage) image, pngQuantizationMaxError ?: 0d)
+        if (indexed == null) {
+            return png
+        }
+
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream()
+        PNG_WRITER.writeImage(indexed, outStream, createWriterParams())
+        return outStream.size() < png.length ? outStream.toByteArray() : png
+    }
+
+    private PNGImageWriterParams createWriterParams() {
+        PNGImageWriterParams params = new PNGImageWriterParams()
+        if (pngCompressionLevel != null) {
+            params.compressionLevel = pngCompressionLevel
+        }
+        // The same resolution the transcoder writes
+        params.resolution = (int) (25.4 / transcoder.userAgent.pixelUnitToMillimeter + 0.5)
+        return params
+    }
+
+    private static CanvasGraphicsNode getCanvasGraphicsNode(GraphicsNode node) {
+        if (!(node instanceof CompositeGraphicsNode)) {
+            return null
+        }
+
+        List children = ((CompositeGraphicsNode) node).children
+        if (children.empty || !(children[0] instanceof CanvasGraphicsNode)) {
+            return null
+        }
+
+        return (CanvasGraphicsNode) children[0]
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import groovy.transform.CompileStatic
+
+import java.awt.image.BufferedImage
+
+/**
+ * Shrinks images by area averaging: each output pixel is the average of the
+ * source pixels it covers, weighted by how much of each it covers.
+ *
+ * Averaging happens on premultiplied colors, so transparent pixels don't
+ * bleed their (invisible) color into the edges of shapes. Unlike Lanczos and
+ * other windowed filters, area averaging never rings around sharp edges, and
+ * is exact for the integer ratios between most densities (e.g. XXXHDPI to XHDPI).
+ */
+@CompileStatic
+class Downscaler {
+
+    private static final float ALPHA_SCALE = (float) (1d / 255d)
+
+    /**
+     * Downscales the source into the destination, which must be no larger than the source.
+     */
+    static void downscale(BufferedImage source, BufferedImage destination) {
+        int srcWidth = source.width
+        int srcHeight = source.height
+        int dstWidth = destination.width
+        int dstHeight = destination.height
+        if (dstWidth > srcWidth || dstHeight > srcHeight) {
+            throw new IllegalArgumentException("Cannot downscale ${srcWidth}x${srcHeight} to ${dstWidth}x${dstHeight}")
+        }
+
+        int[] pixels = source.getRGB(0, 0, srcWidth, srcHeight, null, 0, srcWidth)
+
+        // Premultiplied ARGB, four floats per pixel
+        float[] premultiplied = new float[pixels.length * 4]
+        for (int i = 0; i < pixels.length; i++) {
+            int argb = pixels[i]
+            float alpha = (argb >>> 24) * ALPHA_SCALE
+            premultiplied[i * 4] = alpha
+            premultiplied[i * 4 + 1] = ((argb >> 16) & 0xFF) * alpha
+            premultiplied[i * 4 + 2] = ((argb >> 8) & 0xFF) * alpha
+            premultiplied[i * 4 + 3] = (argb & 0xFF) * alpha
+        }
+
+        // Separable: shrink the rows first, then the columns
+        float[] rows = new float[dstWidth * srcHeight * 4]
+        Coverage horizontal = new Coverage(srcWidth, dstWidth)
+        for (int y = 0; y < srcHeight; y++) {
+            horizontal.apply(premultiplied, y * srcWidth * 4, 4, rows, y * dstWidth * 4, 4)
+        }
+
+        float[] scaled = new float[dstWidth * dstHeight * 4]
+        Coverage vertical = new Coverage(srcHeight, dstHeight)
+        for (int x = 0; x < dstWidth; x++) {
+            vertical.apply(rows, x * 4, dstWidth * 4, scaled, x * 4, dstWidth * 4)
+        }
+
+        int[] out = new int[dstWidth * dstHeight]
+        for (int i = 0; i < out.length; i++) {
+            float alpha = scaled[i * 4]
+            int a = clamp(Math.round(alpha * 255f))
+            if (a == 0) {
+                out[i] = 0
+                continue
+            }
+
+            float unpremultiply = (float) (1d / alpha)
+            int r = clamp(Math.round(scaled[i * 4 + 1] * unpremultiply))
+            int g = clamp(Math.round(scaled[i * 4 + 2] * unpremultiply))
+            int b = clamp(Math.round(scaled[i * 4 + 3] * unpremultiply))
+            out[i] = (a << 24) | (r << 16) | (g << 8) | b
+        }
+
+        destination.setRGB(0, 0, dstWidth, dstHeight, out, 0, dstWidth)
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value)
+    }
+
+    /**
+     * Precomputed weights for shrinking one dimension, shared by every row (or column).
+     */
+    private static final class Coverage {
+
+        private final int dstSize
+
+        // For each output pixel: the first source pixel it covers, and how much of each it covers
+        private final int[] firsts
+        private final float[][] weights
+
+        Coverage(int srcSize, int dstSize) {
+            this.dstSize = dstSize
+            firsts = new int[dstSize]
+            weights = new float[dstSize][]
+
+            double scale = srcSize / (double) dstSize
+            for (int i = 0; i < dstSize; i++) {
+                double start = i * scale
+                double end = Math.min(srcSize, (i + 1) * scale)
+                int first = (int) Math.floor(start)
+                int last = Math.min(srcSize - 1, (int) Math.ceil(end) - 1)
+
+                firsts[i] = first
+                weights[i] = new float[last - first + 1]
+                for (int j = first; j <= last; j++) {
+                    double covered = Math.min(end, j + 1d) - Math.max(start, (double) j)
+                    weights[i][j - first] = (float) (covered / scale)
+                }
+            }
+        }
+
+        void apply(float[] src, int srcOffset, int srcStride, float[] dst, int dstOffset, int dstStride) {
+            for (int i = 0; i < dstSize; i++) {
+                float[] pixelWeights = weights[i]
+                int srcIndex = srcOffset + firsts[i] * srcStride
+                float a = 0, r = 0, g = 0, b = 0
+                for (int j = 0; j < pixelWeights.length; j++) {
+                    float weight = pixelWeights[j]
+                    a += src[srcIndex] * weight
+                    r += src[srcIndex + 1] * weight
+                    g += src[srcIndex + 2] * weight
+                    b += src[srcIndex + 3] * weight
+                    srcIndex += srcStride
+                }
+
+                int dstIndex = dstOffset + i * dstStride
+                dst[dstIndex] = a
+                dst[dstIndex + 1] = r
+                dst[dstIndex + 2] = g
+                dst[dstIndex + 3] = b
+            }
+        }
+    }
+}
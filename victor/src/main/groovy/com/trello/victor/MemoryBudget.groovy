@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+/**
+ * Limits how much raster memory rendering may use at once, so that large SVGs
+ * rendered in parallel don't run the JVM out of heap.
+ *
+ * Each render asks for the bytes it estimates it needs before it starts, and
+ * waits until that much of the budget is free. Requests are admitted in the
+ * order they were made, so a large render can't be starved by a stream of
+ * small ones. A request larger than the whole budget is admitted once nothing
+ * else is running, so that it runs alone rather than never.
+ *
+ * To keep that from deadlocking, never hold one reservation while asking for another.
+ */
+class MemoryBudget {
+
+    static final int BYTES_PER_PIXEL = 4
+
+    private long capacityBytes
+
+    private long reservedBytes = 0
+
+    private long nextTicket = 0
+
+    private long admittedTicket = 0
+
+    MemoryBudget(long capacityBytes = defaultCapacity()) {
+        this.capacityBytes = capacityBytes
+    }
+
+    /**
+     * @return half of the heap this JVM may grow to
+     */
+    static long defaultCapacity() {
+        return (long) (Runtime.runtime.maxMemory() / 2)
+    }
+
+    /**
+     * @return the bytes needed to hold an ARGB image of the given size
+     */
+    static long imageBytes(long width, long height) {
+        return width * height * BYTES_PER_PIXEL
+    }
+
+    synchronized long getCapacityBytes() {
+        return capacityBytes
+    }
+
+    /**
+     * Changes the size of the budget. Renders already admitted keep their reservations.
+     */
+    synchronized void setCapacityBytes(long capacityBytes) {
+        this.capacityBytes = capacityBytes
+        notifyAll()
+    }
+
+    synchronized long getReservedBytes() {
+        return reservedBytes
+    }
+
+    /**
+     * Waits until the bytes can be reserved, then reserves them.
+     *
+     * @return the amount actually reserved, to pass to {@link #release}
+     */
+    synchronized long acquire(long bytes) {
+        long ticket = nextTicket++
+        boolean interrupted = false
+        while (ticket != admittedTicket || !fits(bytes)) {
+            try {
+                wait()
+            }
+            catch (InterruptedException ignored) {
+                // Giving up our place would stall everyone queued behind it
+                interrupted = true
+            }
+        }
+
+        long reserved = Math.min(bytes, capacityBytes)
+        reservedBytes += reserved
+        admittedTicket++
+        notifyAll()
+
+        if (interrupted) {
+            Thread.currentThread().interrupt()
+        }
+        return reserved
+    }
+
+    /**
+     * Returns reserved bytes to the budget.
+     */
+    synchronized void release(long reserved) {
+        reservedBytes -= reserved
+        notifyAll()
+    }
+
+    /**
+     * Reserves the bytes around the work, releasing them however it finishes.
+     */
+    def <T> T withReservation(long bytes, Closure<T> work) {
+        long reserved = acquire(bytes)
+        try {
+            return work.call()
+        }
+        finally {
+            release(reserved)
+        }
+    }
+
+    private boolean fits(long bytes) {
+        return reservedBytes == 0 || reservedBytes + Math.min(bytes, capacityBytes) <= capacityBytes
+    }
+}
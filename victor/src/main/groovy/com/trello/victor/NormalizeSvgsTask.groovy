@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.gradle.api.DefaultTask
+import org.gradle.api.GradleException
+import org.gradle.api.file.ConfigurableFileCollection
+import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.OutputDirectory
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.SkipWhenEmpty
+import org.gradle.api.tasks.TaskAction
+
+/**
+ * Task that writes a canonical copy of each SVG (see {@link SvgNormalizer}).
+ *
+ * The rasterize task fingerprints these copies instead of the SVGs themselves,
+ * so re-exporting an SVG with only cosmetic changes leaves its copy, and
+ * therefore the rasterize task, untouched. Copies that haven't changed are
+ * never rewritten.
+ *
+ * Sprite sheets (see {@link SvgSprite}) are split here: each of their icons gets
+ * a copy of its own, so editing one icon only converts that icon again.
+ */
+abstract class NormalizeSvgsTask extends DefaultTask {
+
+    /**
+     * The input SVGs; the task is skipped when there are none.
+     */
+    @InputFiles
+    @SkipWhenEmpty
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    abstract ConfigurableFileCollection getSources()
+
+    /**
+     * Where to write the canonical copies, each under the name of its SVG.
+     */
+    @OutputDirectory
+    File outputDir
+
+    @TaskAction
+    def normalize() {
+        outputDir.mkdirs()
+
+        // Where two source sets have an SVG of the same name, the last one wins
+        Map<String, File> svgsByName = sources.files.collectEntries { File svgFile -> [(svgFile.name): svgFile] }
+
+        // The SVG each copy comes from, to catch sprite icons named like another SVG
+        Map<String, String> origins = [:]
+        svgsByName.values().each { File svgFile ->
+            if (SvgSprite.isSprite(svgFile)) {
+                splitSprite(svgFile, origins)
+                return
+            }
+
+            addOrigin(svgFile.name, svgFile, origins)
+
+            // SVGs that can't be normalized are fingerprinted as they are
+            byte[] canonical = SvgNormalizer.normalize(svgFile)
+            if (canonical == null) {
+                logger.info("Could not normalize $svgFile.name; using it as is")
+                canonical = svgFile.bytes
+            }
+            StableOutput.write(new File(outputDir, svgFile.name), canonical)
+        }
+
+        outputDir.listFiles()?.each { File file ->
+            if (!origins.containsKey(file.name)) {
+                file.delete()
+            }
+        }
+    }
+
+    /**
+     * Writes a canonical copy of each icon in a sprite sheet.
+     */
+    void splitSprite(File spriteFile, Map<String, String> origins) {
+        Map<String, byte[]> icons
+        try {
+            icons = SvgSprite.split(spriteFile)
+        }
+        catch (IOException e) {
+            logger.warn("Could not split sprite sheet $spriteFile.name: $e.message")
+            return
+        }
+
+        icons.each { String name, byte[] canonical ->
+            addOrigin(name, spriteFile, origins)
+            StableOutput.write(new File(outputDir, name), canonical)
+        }
+        logger.info("Split ${icons.size()} icons out of $spriteFile.name")
+    }
+
+    /**
+     * Records which SVG a copy comes from, failing if another SVG already makes a drawable of that name.
+     */
+    static void addOrigin(String name, File svgFile, Map<String, String> origins) {
+        String other = origins.put(name, svgFile.name)
+        if (other != null) {
+            throw new GradleException("$svgFile.name and $other both make a drawable out of $name")
+        }
+    }
+}
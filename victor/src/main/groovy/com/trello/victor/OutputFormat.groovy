@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+/**
+ * The image formats SVGs can be rasterized to.
+ */
+enum OutputFormat {
+
+    PNG('png'),
+    WEBP('webp');
+
+    /** The file extension of outputs in this format. */
+    final String extension
+
+    OutputFormat(String extension) {
+        this.extension = extension
+    }
+
+    /**
+     * @param name the name of a format, as configured (e.g. 'webp')
+     * @throws IllegalArgumentException if there is no format by that name
+     */
+    static OutputFormat forName(String name) {
+        OutputFormat format = values().find { it.extension.equalsIgnoreCase(name) }
+        if (format == null) {
+            throw new IllegalArgumentException(
+                    "Unknown output format '$name'; must be one of ${values()*.extension.join(', ')}")
+        }
+        return format
+    }
+}
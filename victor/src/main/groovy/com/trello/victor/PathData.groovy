@@ -0,0 +1,389 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import java.awt.geom.Rectangle2D
+import java.math.RoundingMode
+
+/**
+ * Rewrites SVG/vector drawable path data as compactly as possible.
+ *
+ * Coordinates are rounded to a fixed number of decimal places, and each
+ * segment is written in whichever of its absolute or relative forms is
+ * shorter. Relative coordinates are worked out from the rounded absolute
+ * ones, so rounding errors never accumulate along a path.
+ */
+class PathData {
+
+    // How many numbers each command takes
+    private static final Map<Character, Integer> ARGUMENT_COUNTS = [
+            (('M' as char)): 2, (('L' as char)): 2, (('H' as char)): 1, (('V' as char)): 1,
+            (('C' as char)): 6, (('S' as char)): 4, (('Q' as char)): 4, (('T' as char)): 2,
+            (('A' as char)): 7, (('Z' as char)): 0
+    ]
+
+    /** The rewritten path data. */
+    final String data
+
+    /**
+     * A box containing everything the path draws (before stroking), or null if
+     * that isn't known (for paths with arcs or smooth curves).
+     */
+    final Rectangle2D bounds
+
+    private PathData(String data, Rectangle2D bounds) {
+        this.data = data
+        this.bounds = bounds
+    }
+
+    /**
+     * @param precision how many decimal places to keep
+     * @return the rewritten path data, or null if it can't be parsed
+     */
+    static PathData rewrite(String pathData, int precision) {
+        List<Segment> segments
+        try {
+            segments = parse(pathData)
+        }
+        catch (IllegalArgumentException ignored) {
+            return null
+        }
+        if (segments.empty) {
+            return null
+        }
+
+        return new Writer(precision).write(segments)
+    }
+
+    /**
+     * A single command, with its arguments as given (relative or absolute).
+     */
+    private static final class Segment {
+        final char command
+        final double[] arguments
+
+        Segment(char command, double[] arguments) {
+            this.command = command
+            this.arguments = arguments
+        }
+
+        char getType() {
+            return Character.toUpperCase(command)
+        }
+
+        boolean isRelative() {
+            return Character.isLowerCase(command)
+        }
+    }
+
+    private static List<Segment> parse(String pathData) {
+        List<Segment> segments = []
+        Tokenizer tokenizer = new Tokenizer(pathData)
+        char command = 0
+        while (tokenizer.skipSeparators()) {
+            char c = tokenizer.peek()
+            if (ARGUMENT_COUNTS.containsKey(Character.toUpperCase(c))) {
+                command = c
+                tokenizer.advance()
+                if (Character.toUpperCase(command) == ('Z' as char)) {
+                    segments.add new Segment(command, new double[0])
+                    continue
+                }
+            }
+            else if (command == (0 as char) || Character.toUpperCase(command) == ('Z' as char)) {
+                throw new IllegalArgumentException("Expected a command at ${tokenizer.position}")
+            }
+
+            char type = Character.toUpperCase(command)
+            double[] arguments = new double[ARGUMENT_COUNTS[type]]
+            for (int i = 0; i < arguments.length; i++) {
+                // Arc flags may be written without separators, e.g. "a1 1 0 011 1"
+                boolean flag = type == ('A' as char) && (i == 3 || i == 4)
+                arguments[i] = flag ? tokenizer.readFlag() : tokenizer.readNumber()
+            }
+            segments.add new Segment(command, arguments)
+
+            // Extra coordinates after a moveto are linetos
+            if (type == ('M' as char)) {
+                command = Character.isLowerCase(command) ? ('l' as char) : ('L' as char)
+            }
+        }
+        return segments
+    }
+
+    private static final class Tokenizer {
+        private final String text
+        private int position = 0
+
+        Tokenizer(String text) {
+            this.text = text
+        }
+
+        int getPosition() {
+            return position
+        }
+
+        /**
+         * @return true if there is anything left after the separators
+         */
+        boolean skipSeparators() {
+            while (position < text.length() && (Character.isWhitespace(text.charAt(position)) || text.charAt(position) == (',' as char))) {
+                position++
+            }
+            return position < text.length()
+        }
+
+        char peek() {
+            return text.charAt(position)
+        }
+
+        void advance() {
+            position++
+        }
+
+        double readFlag() {
+            skipSeparators()
+            if (position < text.length() && (peek() == ('0' as char) || peek() == ('1' as char))) {
+                return text.charAt(position++) - ('0' as char)
+            }
+            throw new IllegalArgumentException("Expected a flag at $position")
+        }
+
+        double readNumber() {
+            skipSeparators()
+            int start = position
+            if (position < text.length() && (peek() == ('-' as char) || peek() == ('+' as char))) {
+                position++
+            }
+            boolean digits = false
+            boolean dot = false
+            while (position < text.length()) {
+                char c = peek()
+                if (Character.isDigit(c)) {
+                    digits = true
+                }
+                else if (c == ('.' as char) && !dot) {
+                    dot = true
+                }
+                else {
+                    break
+                }
+                position++
+            }
+            if (!digits) {
+                throw new IllegalArgumentException("Expected a number at $start")
+            }
+            if (position < text.length() && (peek() == ('e' as char) || peek() == ('E' as char))) {
+                position++
+                if (position < text.length() && (peek() == ('-' as char) || peek() == ('+' as char))) {
+                    position++
+                }
+                while (position < text.length() && Character.isDigit(peek())) {
+                    position++
+                }
+            }
+            return Double.parseDouble(text.substring(start, position))
+        }
+    }
+
+    private static final class Writer {
+        private final int precision
+
+        private final StringBuilder out = new StringBuilder()
+        private char lastCommand = 0
+        private String lastNumber = null
+
+        private double x = 0, y = 0
+        private double startX = 0, startY = 0
+
+        private boolean boundsKnown = true
+        private double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY
+        private double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY
+
+        Writer(int precision) {
+            this.precision = precision
+        }
+
+        PathData write(List<Segment> segments) {
+            segments.each { Segment segment ->
+                char type = segment.type
+                double[] absolute = toAbsolute(segment)
+                for (int i = 0; i < absolute.length; i++) {
+                    absolute[i] = round(absolute[i])
+                }
+
+                if (type == ('Z' as char)) {
+                    append(('z' as char), [])
+                    x = startX
+                    y = startY
+                    return
+                }
+
+                List<Double> relative = []
+                for (int i = 0; i < absolute.length; i++) {
+                    relative.add round(absolute[i] - originFor(type, i))
+                }
+
+                // Paths always start absolutely, so that they can be appended to one another
+                if (out.length() == 0) {
+                    append(type, absolute as List<Double>)
+                }
+                else {
+                    String absoluteForm = candidate(type, absolute as List<Double>)
+                    String relativeForm = candidate(Character.toLowerCase(type), relative)
+                    if (relativeForm.length() < absoluteForm.length()) {
+                        append(Character.toLowerCase(type), relative)
+                    }
+                    else {
+                        append(type, absolute as List<Double>)
+                    }
+                }
+
+                track(type, absolute)
+            }
+
+            Rectangle2D bounds = boundsKnown && minX <= maxX ?
+                    new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY) : null
+            return new PathData(out.toString(), bounds)
+        }
+
+        private double[] toAbsolute(Segment segment) {
+            double[] absolute = segment.arguments.clone()
+            if (!segment.relative) {
+                return absolute
+            }
+            for (int i = 0; i < absolute.length; i++) {
+                absolute[i] += originFor(segment.type, i)
+            }
+            return absolute
+        }
+
+        /**
+         * @return what the argument is relative to, in a relative command
+         */
+        private double originFor(char type, int index) {
+            switch (type) {
+                case ('H' as char):
+                    return x
+                case ('V' as char):
+                    return y
+                case ('A' as char):
+                    // Only the end point is relative; radii, rotation and flags aren't
+                    return index == 5 ? x : (index == 6 ? y : 0)
+                default:
+                    return index % 2 == 0 ? x : y
+            }
+        }
+
+        private void track(char type, double[] absolute) {
+            switch (type) {
+                case ('H' as char):
+                    x = absolute[0]
+                    include(x, y)
+                    break
+                case ('V' as char):
+                    y = absolute[0]
+                    include(x, y)
+                    break
+                case ('A' as char):
+                case ('S' as char):
+                case ('T' as char):
+                    // The curve can reach past its explicit points
+                    boundsKnown = false
+                    x = absolute[absolute.length - 2]
+                    y = absolute[absolute.length - 1]
+                    break
+                default:
+                    // Bezier curves stay within their control points
+                    for (int i = 0; i < absolute.length; i += 2) {
+                        include(absolute[i], absolute[i + 1])
+                    }
+                    x = absolute[absolute.length - 2]
+                    y = absolute[absolute.length - 1]
+            }
+
+            if (type == ('M' as char)) {
+                startX = x
+                startY = y
+            }
+        }
+
+        private void include(double px, double py) {
+            minX = Math.min(minX, px)
+            minY = Math.min(minY, py)
+            maxX = Math.max(maxX, px)
+            maxY = Math.max(maxY, py)
+        }
+
+        /**
+         * @return what appending the command would add to the output
+         */
+        private String candidate(char command, List<Double> arguments) {
+            StringBuilder text = new StringBuilder()
+            String previous = lastNumber
+            // Repeated commands (other than movetos, whose repeats mean lineto) can be left out
+            boolean implicit = command == lastCommand && Character.toUpperCase(command) != ('M' as char)
+            if (!implicit) {
+                text.append(command)
+                previous = null
+            }
+            arguments.each { Double argument ->
+                String number = format(argument)
+                if (previous != null && needsSeparator(previous, number)) {
+                    text.append(' ')
+                }
+                text.append(number)
+                previous = number
+            }
+            return text.toString()
+        }
+
+        private void append(char command, List<Double> arguments) {
+            out.append(candidate(command, arguments))
+            lastCommand = command
+            lastNumber = arguments.empty ? null : format(arguments[-1])
+        }
+
+        private static boolean needsSeparator(String previous, String next) {
+            if (next.startsWith('-')) {
+                return false
+            }
+            // ".5.5" reads as two numbers, but "1.5" can't be split
+            return !(next.startsWith('.') && previous.contains('.'))
+        }
+
+        private double round(double value) {
+            return BigDecimal.valueOf(value).setScale(precision, RoundingMode.HALF_UP).doubleValue()
+        }
+
+        private String format(double value) {
+            BigDecimal rounded = BigDecimal.valueOf(value).setScale(precision, RoundingMode.HALF_UP).stripTrailingZeros()
+            if (rounded.signum() == 0) {
+                return '0'
+            }
+
+            String text = rounded.toPlainString()
+            if (text.startsWith('0.')) {
+                return text.substring(1)
+            }
+            if (text.startsWith('-0.')) {
+                return '-' + text.substring(2)
+            }
+            return text
+        }
+    }
+}
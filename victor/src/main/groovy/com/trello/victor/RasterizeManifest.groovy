@@ -0,0 +1,163 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+
+/**
+ * What a rasterize task produced on its last successful run, and with which settings.
+ *
+ * Gradle can't run a task incrementally once any of its settings change, so
+ * adding a density or changing the DPI would otherwise re-render everything.
+ * Comparing against the manifest instead narrows that down to the outputs
+ * that actually changed:
+ *
+ * - A density that was added is rendered for every SVG; the others are left alone.
+ * - A density that was removed only has its outputs deleted.
+ * - A new DPI only re-renders the SVGs whose size depends on it.
+ * - An SVG whose content changed, or whose outputs were changed or deleted
+ *   behind our back, is rendered again.
+ *
+ * Any other setting (and any change to Victor that changes its output, see
+ * {@link RenderCache#RENDERER_VERSION}) affects every output, so it re-renders everything.
+ */
+class RasterizeManifest {
+
+    /** The DPI relative-sized SVGs were rendered at. */
+    int baseDpi
+
+    /** The densities rendered, by name; empty for vector drawables. */
+    List<String> densities = []
+
+    /** Every other setting that affects the outputs. */
+    Map<String, Object> settings = [:]
+
+    /** The hash of each SVG's canonical content, by SVG name. */
+    Map<String, String> svgHashes = [:]
+
+    /** The length and modification time of each output, by path relative to the output directory. */
+    Map<String, String> outputStamps = [:]
+
+    /**
+     * @return the manifest in the file, or null if there isn't a readable one
+     */
+    static RasterizeManifest read(File file) {
+        if (file == null || !file.isFile()) {
+            return null
+        }
+
+        try {
+            Map json = new JsonSlurper().parse(file, 'UTF-8') as Map
+            return new RasterizeManifest(
+                    baseDpi: json.baseDpi as int,
+                    densities: json.densities as List<String>,
+                    settings: json.settings as Map<String, Object>,
+                    svgHashes: json.svgHashes as Map<String, String>,
+                    outputStamps: json.outputStamps as Map<String, String>)
+        }
+        catch (Exception ignored) {
+            // Written by an older version, or cut short; either way, start over
+            return null
+        }
+    }
+
+    void write(File file) {
+        file.parentFile.mkdirs()
+        file.setText(JsonOutput.toJson([
+                baseDpi: baseDpi,
+                densities: densities,
+                settings: settings,
+                svgHashes: svgHashes,
+                outputStamps: outputStamps
+        ]), 'UTF-8')
+    }
+
+    /**
+     * @return a stamp that changes whenever the file is written
+     */
+    static String stamp(File file) {
+        return "${file.length()}/${file.lastModified()}"
+    }
+
+    /**
+     * Records the stamp of every file in the output directory.
+     */
+    void stampOutputs(File outputDir) {
+        outputStamps = [:]
+        outputDir.eachFileRecurse { File file ->
+            if (file.isFile()) {
+                String path = outputDir.toPath().relativize(file.toPath()).toString().replace(File.separatorChar, '/' as char)
+                outputStamps[path] = stamp(file)
+            }
+        }
+    }
+
+    /**
+     * Works out what has to be rendered to go from the outputs this manifest
+     * describes to those the next one describes.
+     *
+     * @param next the manifest for this run, with its svgHashes filled in
+     * @param outputDir where the outputs are
+     * @param outputPath the path of an SVG's output for a density (null for vector
+     * drawables), relative to the output directory
+     * @param dependsOnDpi whether an SVG's size depends on the DPI, by name; only
+     * asked when the DPI changed
+     * @return the densities to render, by SVG name, with SVGs that are up to date
+     * left out; or null if every output has to be rendered again
+     */
+    Map<String, List<Density>> changesTo(RasterizeManifest next, File outputDir,
+                                         Closure<String> outputPath, Closure<Boolean> dependsOnDpi) {
+        if (next.settings != settings) {
+            return null
+        }
+
+        List<Density> targets = next.targetDensities()
+        Set<Density> rendered = targetDensities() as Set
+        boolean dpiChanged = next.baseDpi != baseDpi && !next.densities.empty
+
+        Map<String, List<Density>> changes = [:]
+        next.svgHashes.each { String name, String hash ->
+            List<Density> outOfDate
+            if (svgHashes[name] != hash || (dpiChanged && dependsOnDpi(name))) {
+                outOfDate = targets
+            }
+            else {
+                outOfDate = targets.findAll { Density density ->
+                    String path = outputPath(name, density)
+                    File output = new File(outputDir, path)
+                    return !rendered.contains(density) || !output.isFile() || outputStamps[path] != stamp(output)
+                }
+            }
+
+            if (!outOfDate.empty) {
+                changes[name] = outOfDate
+            }
+        }
+        return changes
+    }
+
+    /**
+     * @return the densities to render each SVG at, or a single null for vector drawables
+     */
+    private List<Density> targetDensities() {
+        if (densities.empty) {
+            return [null]
+        }
+        return densities.collect { Density.valueOf(it) }
+    }
+}
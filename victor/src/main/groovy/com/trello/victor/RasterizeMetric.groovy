@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+/**
+ * How long rasterizing one SVG at one density took, and what it produced.
+ *
+ * Parsing is shared by every density of an SVG, so each of its metrics
+ * carries the same parse time.
+ */
+class RasterizeMetric implements Serializable {
+
+    /** The path of the SVG. */
+    String svg
+
+    Density density
+
+    /** Whether the output was restored from the render cache instead of being rendered. */
+    boolean cached
+
+    long parseNanos
+
+    long renderNanos
+
+    long encodeNanos
+
+    /** The size of the encoded output. */
+    long bytes
+
+    /** The size the output would have been without optimizing it; 0 if it wasn't optimized. */
+    long unoptimizedBytes
+
+    /** The size, in pixels, of the rendered image. */
+    int width
+
+    int height
+
+    Map<String, Object> toMap() {
+        return [
+                svg        : svg,
+                density    : density.name(),
+                cached     : cached,
+                parseNanos : parseNanos,
+                renderNanos: renderNanos,
+                encodeNanos: encodeNanos,
+                bytes      : bytes,
+                unoptimizedBytes: unoptimizedBytes,
+                width      : width,
+                height     : height
+        ]
+    }
+
+    static RasterizeMetric fromMap(Map<String, Object> map) {
+        return new RasterizeMetric(
+                svg: map.svg,
+                density: Density.valueOf(map.density as String),
+                cached: map.cached as boolean,
+                parseNanos: map.parseNanos as long,
+                renderNanos: map.renderNanos as long,
+                encodeNanos: map.encodeNanos as long,
+                bytes: map.bytes as long,
+                unoptimizedBytes: (map.unoptimizedBytes ?: 0) as long,
+                width: map.width as int,
+                height: map.height as int)
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import groovy.json.JsonOutput
+import groovy.json.JsonSlurper
+
+/**
+ * Collects per-SVG, per-density rasterization metrics, so that the assets
+ * that dominate build time can be tracked down.
+ */
+class RasterizeReport {
+
+    private static final String CSV_HEADER = 'svg,density,cached,parseMs,renderMs,encodeMs,bytes,width,height,unoptimizedBytes'
+
+    final List<RasterizeMetric> metrics = []
+
+    void addAll(Collection<RasterizeMetric> metrics) {
+        this.metrics.addAll(metrics)
+    }
+
+    /**
+     * Writes the report as both JSON and CSV, to `name.json` and `name.csv` in the directory.
+     */
+    void writeTo(File directory, String name) {
+        directory.mkdirs()
+        writeJson(new File(directory, "${name}.json"))
+        writeCsv(new File(directory, "${name}.csv"))
+    }
+
+    void writeJson(File file) {
+        file.setText(JsonOutput.prettyPrint(JsonOutput.toJson(metrics.collect { it.toMap() })), 'UTF-8')
+    }
+
+    static RasterizeReport readJson(File file) {
+        RasterizeReport report = new RasterizeReport()
+        List<Map<String, Object>> maps = new JsonSlurper().parse(file, 'UTF-8') as List
+        report.addAll(maps.collect { RasterizeMetric.fromMap(it) })
+        return report
+    }
+
+    void writeCsv(File file) {
+        file.withWriter('UTF-8') { Writer writer ->
+            writer.write(CSV_HEADER)
+            writer.write('\n')
+            metrics.each { RasterizeMetric metric ->
+                writer.write([
+                        csvQuote(metric.svg),
+                        metric.density.name(),
+                        metric.cached,
+                        toMillis(metric.parseNanos),
+                        toMillis(metric.renderNanos),
+                        toMillis(metric.encodeNanos),
+                        metric.bytes,
+                        metric.width,
+                        metric.height,
+                        metric.unoptimizedBytes
+                ].join(','))
+                writer.write('\n')
+            }
+        }
+    }
+
+    /**
+     * Totals the time spent on each SVG, counting its (shared) parse once.
+     *
+     * @return the slowest SVGs and their total times, in nanoseconds, slowest first
+     */
+    List<Map.Entry<String, Long>> slowest(int count) {
+        Map<String, Long> totals = [:]
+        metrics.groupBy { it.svg }.each { String svg, List<RasterizeMetric> svgMetrics ->
+            long parse = svgMetrics.collect { it.parseNanos }.max()
+            long rest = svgMetrics.sum(0L) { it.renderNanos + it.encodeNanos } as long
+            totals[svg] = parse + rest
+        }
+
+        return totals.entrySet().sort { -it.value }.take(count)
+    }
+
+    /**
+     * Describes the slowest SVGs, one per line, for a quick look without opening the report.
+     *
+     * @return the lines to log; empty if there is nothing to report
+     */
+    List<String> describeSlowest(int count) {
+        List<Map.Entry<String, Long>> slowest = slowest(count)
+        if (slowest.empty) {
+            return []
+        }
+
+        return ['Slowest SVGs:'] + slowest.collect { Map.Entry<String, Long> entry ->
+            "  ${toMillis(entry.value)} ms  ${new File(entry.key).name}".toString()
+        }
+    }
+
+    /**
+     * Totals how much optimizing shrank the PNGs at each density. Only PNGs rendered in
+     * this run count; those restored from the cache were optimized when first rendered.
+     *
+     * @return the total size of the optimized PNGs and what it would have been without
+     * optimizing, for each density that had any
+     */
+    Map<Density, List<Long>> optimizedBytesByDensity() {
+        Map<Density, List<Long>> totals = new TreeMap<>()
+        metrics.findAll { it.unoptimizedBytes > 0 }.groupBy { it.density }.each { Density density, List<RasterizeMetric> optimized ->
+            totals[density] = [
+                    optimized.sum(0L) { it.bytes } as long,
+                    optimized.sum(0L) { it.unoptimizedBytes } as long
+            ]
+        }
+        return totals
+    }
+
+    /**
+     * Describes how many bytes optimizing PNGs saved at each density.
+     *
+     * @return the lines to log; empty if nothing was optimized
+     */
+    List<String> describeSavings() {
+        Map<Density, List<Long>> totals = optimizedBytesByDensity()
+        if (totals.isEmpty()) {
+            return []
+        }
+
+        long bytes = totals.values().sum(0L) { it[0] } as long
+        long unoptimized = totals.values().sum(0L) { it[1] } as long
+        return ["Optimizing PNGs saved ${unoptimized - bytes} of $unoptimized bytes:".toString()] +
+                totals.collect { Density density, List<Long> total ->
+                    "  ${density.name().toLowerCase()}: ${total[1] - total[0]} of ${total[1]} bytes".toString()
+                }
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.US, '%.3f', nanos / 1_000_000d)
+    }
+
+    private static String csvQuote(String value) {
+        return value.contains(',') || value.contains('"') ? "\"${value.replace('"', '""')}\"" : value
+    }
+}
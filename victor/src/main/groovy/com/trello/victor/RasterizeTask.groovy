@@ -16,29 +16,65 @@
 
 package com.trello.victor
 
-import com.romainpiel.svgtoandroid.Svg2Vector
+import groovy.json.JsonSlurper
 import org.gradle.api.DefaultTask
 import org.gradle.api.GradleException
-import org.gradle.api.file.FileCollection
+import org.gradle.api.file.ConfigurableFileCollection
+import org.gradle.api.file.FileType
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.CacheableTask
 import org.gradle.api.tasks.Input
 import org.gradle.api.tasks.InputFiles
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.LocalState
+import org.gradle.api.tasks.Optional
 import org.gradle.api.tasks.OutputDirectory
+import org.gradle.api.tasks.PathSensitive
+import org.gradle.api.tasks.PathSensitivity
+import org.gradle.api.tasks.SkipWhenEmpty
 import org.gradle.api.tasks.TaskAction
-import org.gradle.api.tasks.incremental.IncrementalTaskInputs
-import org.gradle.api.tasks.incremental.InputFileDetails
+import org.gradle.work.ChangeType
+import org.gradle.work.FileChange
+import org.gradle.work.InputChanges
+import org.gradle.workers.WorkQueue
+import org.gradle.workers.WorkerExecutor
 
 import javax.annotation.Nullable
+import javax.inject.Inject
+import java.nio.file.FileSystems
+import java.nio.file.Path
 
 /**
  * Task that rasterizes SVGs into PNGs.
+ *
+ * The output only depends on the SVGs' names and contents plus the settings
+ * marked as inputs, so the task can be loaded from the build cache even when
+ * the project is checked out somewhere else.
  */
-class RasterizeTask extends DefaultTask {
+@CacheableTask
+abstract class RasterizeTask extends DefaultTask {
 
     /**
      * The input SVGs.
+     *
+     * These are what gets rendered, but they are tracked through
+     * `normalizedSources` instead of directly.
+     */
+    @Internal
+    abstract ConfigurableFileCollection getSources()
+
+    /**
+     * Canonical copies of the SVGs, from {@link NormalizeSvgsTask}, so that cosmetic
+     * edits to an SVG don't make the task (or its build cache entry) out of date.
+     *
+     * Only their names matter (each SVG becomes a drawable of the same name),
+     * not where they are, which keeps the task relocatable. The task is skipped
+     * when there are none; that also makes them incremental.
      */
     @InputFiles
-    FileCollection sources
+    @SkipWhenEmpty
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    abstract ConfigurableFileCollection getNormalizedSources()
 
     /**
      * The output directory.
@@ -46,10 +82,24 @@ class RasterizeTask extends DefaultTask {
     @OutputDirectory
     File outputDir
 
+    /**
+     * Where outputs are rendered and kept from one run to the next, before being
+     * linked into `outputDir`; null renders straight into `outputDir`.
+     *
+     * Gradle empties `outputDir` before every run that isn't incremental, which
+     * would otherwise mean rendering every output again whenever a setting changes,
+     * rather than only those the manifest says are affected.
+     */
+    @LocalState
+    @Nullable
+    File renderDir
+
     /**
      * The densities to scale assets for.
+     *
+     * This is tracked through `densitiesWorkaround` instead of directly.
      */
-    @Input
+    @Internal
     List<Density> includeDensities
 
     /**
@@ -59,13 +109,16 @@ class RasterizeTask extends DefaultTask {
      * workaround to test up-to-dateness, but should never actually used
      * beyond that.
      *
+     * The names are sorted so that the same set of densities always
+     * produces the same build cache key, however it was configured.
+     *
      * References:
      * - https://discuss.gradle.org/t/custom-task-never-up-to-date-when-running-daemon/9525
      * - https://issues.gradle.org/browse/GRADLE-3018
      */
     @Input
     List<String> getDensitiesWorkaround() {
-        includeDensities.collect { it.toString() }
+        includeDensities.sort(false).collect { it.toString() }
     }
 
     /**
@@ -80,18 +133,191 @@ class RasterizeTask extends DefaultTask {
     @Input
     boolean generateVectorDrawables;
 
+    /**
+     * How many decimal places to round vector drawable path data to; null leaves
+     * drawables as svgtoandroid writes them.
+     */
+    @Input
+    @Optional
+    @Nullable
+    Integer vectorPrecision
+
+    /**
+     * The format to rasterize to: 'png' or 'webp'.
+     */
+    @Input
+    String outputFormat = 'png'
+
+    /**
+     * The quality (0-100) to encode lossy WebPs at; null for lossless WebPs.
+     */
+    @Input
+    @Optional
+    @Nullable
+    Integer webpQuality
+
+    /**
+     * The deflater level (0-9) to encode PNGs with; null for the default encoder.
+     */
+    @Input
+    @Optional
+    @Nullable
+    Integer pngCompressionLevel
+
+    /**
+     * Whether to write PNGs that fit in a palette as indexed PNGs, when that's smaller.
+     */
+    @Input
+    boolean optimizePngs
+
+    /**
+     * How far colors may be off when quantizing PNGs with more than 256 colors to a
+     * palette; null never quantizes.
+     */
+    @Input
+    @Optional
+    @Nullable
+    Double pngQuantizationMaxError
+
+    /**
+     * The density (e.g. 'xxxhdpi') to render at and then downscale smaller densities
+     * from; null renders every density directly.
+     */
+    @Input
+    @Optional
+    @Nullable
+    String downscaleFromDensity
+
+    /**
+     * Glob patterns of SVG names that are always rendered directly at every density,
+     * for icons that need crisp, pixel-snapped hairlines.
+     */
+    @Input
+    List<String> fullRenderPatterns = []
+
+    /**
+     * The maximum number of workers to rasterize with; 1 rasterizes serially.
+     */
+    @Internal
+    int maxParallelism = 1
+
+    /**
+     * How parallel workers are isolated: 'none' or 'process'.
+     */
+    @Internal
+    String workerIsolation = 'none'
+
+    /**
+     * Where to cache rendered PNGs across variants and builds; null disables the cache.
+     */
+    @Internal
+    @Nullable
+    File cacheDir
+
+    /**
+     * The size, in bytes, to trim the cache down to after rasterizing.
+     */
+    @Internal
+    long cacheMaxSize
+
+    /**
+     * Where to write the per-SVG timing report.
+     */
+    @Internal
+    File reportDir
+
+    /**
+     * How many of the slowest SVGs to list after rasterizing; 0 to list none.
+     */
+    @Internal
+    int logSlowestSvgs = 10
+
+    /**
+     * Where to keep track of what the last run produced, so that changing the
+     * densities or DPI only redoes the outputs affected; see {@link RasterizeManifest}.
+     */
+    @LocalState
+    @Nullable
+    File manifestFile
+
+    /**
+     * The warm rendering engine shared with the rest of the build.
+     */
+    @Internal
+    abstract Property<RenderEngineService> getRenderEngineService()
+
+    @Inject
+    abstract WorkerExecutor getWorkerExecutor()
+
     @TaskAction
-    def rasterize(IncrementalTaskInputs inputs) {
-        // If the whole thing isn't incremental, delete the build folder (if it exists)
-        if (!inputs.isIncremental() && outputDir.exists()) {
-            logger.debug("SVG rasterization is not incremental; deleting build folder and starting fresh!")
-            outputDir.delete()
+    def rasterize(InputChanges inputs) {
+        if (webpQuality != null && (webpQuality < 0 || webpQuality > 100)) {
+            throw new GradleException("webpQuality must be from 0 to 100, not $webpQuality")
+        }
+        try {
+            Converter.checkSupported(OutputFormat.forName(outputFormat), pngCompressionLevel)
         }
+        catch (UnsupportedOperationException e) {
+            throw new GradleException(e.message, e)
+        }
+
+        // Changes are to the canonical copies, but it's the SVGs themselves that get rendered, except
+        // for the icons of sprite sheets, which only exist as canonical copies
+        Map<String, File> svgsByName = sources.files.findAll { !SvgSprite.isSprite(it) }
+                .collectEntries { File svgFile -> [(svgFile.name): svgFile] }
+        // The collection is the normalize task's output directory; the copies are the files in it
+        Map<String, File> normalizedByName = normalizedSources.asFileTree.files
+                .collectEntries { File file -> [(file.name): file] }
+        Closure<File> svgToRender = { String name -> svgsByName[name] ?: normalizedByName[name] }
+
+        List<String> outOfDate = []
+        inputs.getFileChanges(normalizedSources).each { FileChange change ->
+            if (change.fileType == FileType.DIRECTORY) {
+                return
+            }
+
+            if (change.changeType == ChangeType.REMOVED) {
+                logger.debug("$change.file.name was removed; removing it from generated folder")
+                deleteOutputs(change.file)
+            }
+            else {
+                logger.debug("$change.file.name out of date; converting")
+                outOfDate.add change.file.name
+            }
+        }
+
+        // Only the manifest of a run that finished can be trusted, so if this one fails the next starts over
+        RasterizeManifest previous = RasterizeManifest.read(manifestFile)
+        manifestFile?.delete()
 
-        List<File> svgFiles = []
-        inputs.outOfDate { InputFileDetails change ->
-            logger.debug("$change.file.name out of date; converting")
-            svgFiles.add change.file
+        // Without a manifest, the rendered outputs may not be the ones in the output directory (which
+        // may have come from the build cache, say); start from those in the output directory instead
+        if (renderDir != null && previous == null) {
+            StableOutput.mirror(outputDir, renderDir)
+        }
+        RasterizeManifest manifest = createManifest(normalizedByName, outOfDate, previous)
+
+        // When a setting changed, Gradle asks for everything; the manifest tells what actually needs it
+        Map<String, List<Density>> outOfDateDensities = null
+        if (!inputs.isIncremental() && previous != null) {
+            outOfDateDensities = previous.changesTo(manifest, renderRoot(),
+                    { String name, Density density -> outputPath(name, density) },
+                    { String name -> svgToRender(name) == null || !SVGRootSniffer.isDpiIndependent(svgToRender(name)) })
+        }
+        if (outOfDateDensities == null) {
+            List<Density> targets = generateVectorDrawables ? [null] : includeDensities.sort(false)
+            outOfDateDensities = outOfDate.collectEntries { String name -> [(name): targets] }
+        }
+        else {
+            logger.info("Only ${outOfDateDensities.size()} of ${normalizedByName.size()} SVGs need converting again")
+        }
+
+        Map<File, List<Density>> svgFiles = [:]
+        outOfDateDensities.each { String name, List<Density> densities ->
+            File svgFile = svgToRender(name)
+            if (svgFile != null) {
+                svgFiles[svgFile] = densities
+            }
         }
 
         // Make sure all output directories exist
@@ -103,52 +329,360 @@ class RasterizeTask extends DefaultTask {
             }
         }
 
+        int changed = 0
+        RasterizeReport report = new RasterizeReport()
         if (generateVectorDrawables) {
-            svgFiles.each { File svgFile ->
-                File resDir = resourceDir()
-                File destination = new File(resDir, destinationFile(svgFile.name, 'xml'))
-                OutputStream outStream = new FileOutputStream(destination)
-                String error = Svg2Vector.parseSvgToXml(svgFile, outStream)
-                if (!error.isEmpty()) {
-                    logger.error(error)
-                    throw new GradleException(error)
+            changed = vectorize(svgFiles.keySet() as List<File>)
+        } else if (maxParallelism > 1) {
+            changed = rasterizeInParallel(svgFiles, report)
+            createCache()?.evict()
+        } else {
+            RenderCache cache = createCache()
+            RenderEngine engine = renderEngine()
+            Converter converter = engine.createConverter(cache)
+            converter.outputFormat = OutputFormat.forName(outputFormat)
+            converter.webpQuality = webpQuality
+            converter.pngCompressionLevel = pngCompressionLevel
+            converter.optimizePngs = optimizePngs
+            converter.pngQuantizationMaxError = pngQuantizationMaxError
+            svgFiles.each { File svgFile, List<Density> densities ->
+                SVGResource svgResource = engine.createResource(svgFile, baseDpi)
+
+                Map<Density, File> destinations = densities.collectEntries { Density density ->
+                    [(density): new File(resourceDir(density), destinationFile(svgFile.name, rasterExtension()))]
+                }
+                changed += converter.transcode(svgResource, destinations, downscaleFor(svgFile))
+                destinations.values().each { File destination ->
+                    logger.info("Converted $svgFile to $destination")
                 }
+            }
+            report.addAll(converter.metrics)
+
+            if (cache != null) {
+                logger.info("Render cache: $cache.hits hits, $cache.misses misses")
+                cache.evict()
+            }
+        }
 
-                outStream.flush()
-                outStream.close()
+        // Rather than starting from an empty folder when the whole thing isn't incremental (which
+        // would touch every output), only remove outputs that no longer belong to any input
+        if (!inputs.isIncremental()) {
+            deleteStaleOutputs()
+        }
 
-                logger.info("Converted $svgFile to $destination")
+        if (!svgFiles.isEmpty()) {
+            int total = svgFiles.values().sum { List<Density> densities -> densities.size() } as int
+            logger.lifecycle("Converted ${svgFiles.size()} SVGs; $changed of $total outputs changed")
+        }
+
+        if (!report.metrics.empty) {
+            if (reportDir != null) {
+                report.writeTo(reportDir, name)
+                logger.info("Wrote rasterization report to $reportDir")
+            }
+            report.describeSlowest(logSlowestSvgs).each { logger.lifecycle(it) }
+            report.describeSavings().each { logger.lifecycle(it) }
+        }
+
+        if (renderDir != null) {
+            StableOutput.mirror(renderDir, outputDir)
+        }
+
+        if (manifestFile != null) {
+            manifest.stampOutputs(renderRoot())
+            manifest.write(manifestFile)
+        }
+    }
+
+    /**
+     * Describes this run's settings and SVGs. Only SVGs that are out of date are
+     * hashed again; the rest keep their hashes from the previous manifest.
+     */
+    RasterizeManifest createManifest(Map<String, File> normalizedByName, List<String> outOfDate,
+                                     @Nullable RasterizeManifest previous) {
+        RasterizeManifest manifest = new RasterizeManifest(
+                baseDpi: baseDpi,
+                densities: generateVectorDrawables ? [] : densitiesWorkaround,
+                settings: [
+                        generateVectorDrawables: generateVectorDrawables,
+                        vectorPrecision: vectorPrecision,
+                        outputFormat: outputFormat,
+                        webpQuality: webpQuality,
+                        pngCompressionLevel: pngCompressionLevel,
+                        optimizePngs: optimizePngs,
+                        pngQuantizationMaxError: pngQuantizationMaxError,
+                        downscaleFromDensity: downscaleFromDensity,
+                        fullRenderPatterns: fullRenderPatterns,
+                        rendererVersion: RenderCache.RENDERER_VERSION
+                ])
+
+        Set<String> changed = outOfDate as Set
+        normalizedByName.each { String name, File normalized ->
+            String hash = previous?.svgHashes?.get(name)
+            manifest.svgHashes[name] = hash != null && !changed.contains(name) ? hash : RenderCache.hash(normalized)
+        }
+        return manifest
+    }
+
+    /**
+     * Converts the SVGs to vector drawables, in parallel when `maxParallelism` allows.
+     * Every SVG is attempted before failing, so that all errors are reported at once.
+     *
+     * @return the number of outputs that changed
+     */
+    int vectorize(List<File> svgFiles) {
+        Map<File, File> destinations = svgFiles.collectEntries { File svgFile ->
+            [(svgFile): new File(resourceDir(), destinationFile(svgFile.name, 'xml'))]
+        }
+
+        int changed = 0
+        List<String> errors = []
+        List<Map<String, Object>> savings = []
+        if (maxParallelism > 1 && svgFiles.size() > 1) {
+            int batchCount = Math.min(maxParallelism, svgFiles.size())
+            List<Map<File, File>> batches = (0..<batchCount).collect { [:] }
+            svgFiles.eachWithIndex { File svgFile, int index ->
+                batches[index % batchCount][svgFile] = destinations[svgFile]
+            }
+
+            List<File> resultFiles = (0..<batchCount).collect { int index ->
+                File resultFile = new File(temporaryDir, "vector-batch-${index}.json")
+                resultFile.delete()
+                return resultFile
+            }
+
+            WorkQueue workQueue = createWorkQueue()
+            batches.eachWithIndex { Map<File, File> batch, int index ->
+                // Gradle delegates the closure to the parameters, so the task's settings need `this`
+                workQueue.submit(VectorizeWorkAction) { VectorizeWorkParameters parameters ->
+                    parameters.destinations.set batch
+                    parameters.vectorPrecision.set this.vectorPrecision
+                    parameters.cacheDir.set this.cacheDir
+                    parameters.cacheMaxSize.set this.cacheMaxSize
+                    parameters.resultFile.set resultFiles[index]
+                }
+            }
+            workQueue.await()
+
+            resultFiles.each { File resultFile ->
+                Map result = new JsonSlurper().parse(resultFile, 'UTF-8') as Map
+                changed += result.changed as int
+                errors.addAll(result.errors as List<String>)
+                savings.addAll(result.savings as List<Map<String, Object>>)
             }
         } else {
-            Converter converter = new Converter()
-            svgFiles.each { File svgFile ->
-                SVGResource svgResource = new SVGResource(svgFile, baseDpi)
+            VectorConverter converter = new VectorConverter(createCache())
+            if (vectorPrecision != null) {
+                converter.optimizer = new VectorDrawableOptimizer(vectorPrecision)
+            }
+            destinations.each { File svgFile, File destination ->
+                if (converter.convert(svgFile, destination)) {
+                    changed++
+                }
+                logger.info("Converted $svgFile to $destination")
+            }
+            errors.addAll(converter.errors)
+            savings.addAll(converter.savings)
+        }
 
-                includeDensities.each { Density density ->
-                    File destination = new File(resourceDir(density), destinationFile(svgFile.name, 'png'))
-                    converter.transcode(svgResource, density, destination)
-                    logger.info("Converted $svgFile to $destination")
+        createCache()?.evict()
+        reportSavings(savings)
+
+        if (!errors.empty) {
+            errors.each { String error -> logger.error(error) }
+            throw new GradleException("Could not convert ${errors.size()} of ${svgFiles.size()} SVGs to vector drawables:\n"
+                    + errors.join('\n'))
+        }
+        return changed
+    }
+
+    /**
+     * Logs and writes out how much optimizing shrank each vector drawable.
+     */
+    void reportSavings(List<Map<String, Object>> savings) {
+        if (savings.empty) {
+            return
+        }
+
+        savings.each { Map<String, Object> saving ->
+            logger.info("Optimized $saving.svg: $saving.originalBytes -> $saving.optimizedBytes bytes")
+        }
+
+        long original = savings.sum(0L) { it.originalBytes as long } as long
+        long optimized = savings.sum(0L) { it.optimizedBytes as long } as long
+        logger.lifecycle("Optimized ${savings.size()} vector drawables; saved ${original - optimized} of $original bytes")
+
+        if (reportDir != null) {
+            reportDir.mkdirs()
+            new File(reportDir, "${name}-vectors.csv").withWriter('UTF-8') { Writer writer ->
+                writer.write('svg,originalBytes,optimizedBytes,savedBytes\n')
+                savings.each { Map<String, Object> saving ->
+                    long saved = (saving.originalBytes as long) - (saving.optimizedBytes as long)
+                    writer.write("$saving.svg,$saving.originalBytes,$saving.optimizedBytes,$saved\n")
                 }
             }
         }
+    }
+
+    /**
+     * Splits the SVGs into at most `maxParallelism` batches and hands each batch
+     * to a Gradle worker. Every density of an SVG goes into the same batch, so
+     * that the SVG only has to be parsed once.
+     *
+     * @param svgFiles the densities to render each SVG at
+     * @param report collects the workers' metrics
+     * @return the number of outputs that changed
+     */
+    int rasterizeInParallel(Map<File, List<Density>> svgFiles, RasterizeReport report) {
+        if (svgFiles.isEmpty()) {
+            return 0
+        }
+
+        int batchCount = Math.min(maxParallelism, svgFiles.size())
+        List<List<RasterizeUnit>> batches = (0..<batchCount).collect { [] }
+        svgFiles.keySet().eachWithIndex { File svgFile, int index ->
+            Density downscaleFrom = downscaleFor(svgFile)
+            svgFiles[svgFile].each { Density density ->
+                File destination = new File(resourceDir(density), destinationFile(svgFile.name, rasterExtension()))
+                batches[index % batchCount].add new RasterizeUnit(svgFile, density, destination, downscaleFrom)
+            }
+        }
+
+        // Workers can't return anything, so each one reports back through files
+        List<File> resultFiles = (0..<batchCount).collect { int index ->
+            File resultFile = new File(temporaryDir, "batch-${index}.txt")
+            resultFile.delete()
+            return resultFile
+        }
+        List<File> metricsFiles = (0..<batchCount).collect { int index ->
+            File metricsFile = new File(temporaryDir, "batch-${index}.json")
+            metricsFile.delete()
+            return metricsFile
+        }
+
+        // Workers without isolation render with the build's engine, so its memory budget has to be sized first
+        renderEngine()
+
+        WorkQueue workQueue = createWorkQueue()
+        batches.eachWithIndex { List<RasterizeUnit> batch, int index ->
+            // Gradle delegates the closure to the parameters, so the task's settings need `this`
+            workQueue.submit(RasterizeWorkAction) { RasterizeWorkParameters parameters ->
+                parameters.units.set batch
+                parameters.baseDpi.set this.baseDpi
+                parameters.outputFormat.set this.outputFormat
+                parameters.webpQuality.set this.webpQuality
+                parameters.pngCompressionLevel.set this.pngCompressionLevel
+                parameters.optimizePngs.set this.optimizePngs
+                parameters.pngQuantizationMaxError.set this.pngQuantizationMaxError
+                parameters.cacheDir.set this.cacheDir
+                parameters.cacheMaxSize.set this.cacheMaxSize
+                parameters.resultFile.set resultFiles[index]
+                parameters.metricsFile.set metricsFiles[index]
+            }
+        }
+        workQueue.await()
+
+        metricsFiles.each { File metricsFile ->
+            report.addAll(RasterizeReport.readJson(metricsFile).metrics)
+        }
+
+        return resultFiles.sum { File resultFile -> resultFile.text.trim().toInteger() } as int
+    }
+
+    /**
+     * Deletes everything that was generated for an SVG.
+     */
+    void deleteOutputs(File svgFile) {
+        if (generateVectorDrawables) {
+            new File(resourceDir(), destinationFile(svgFile.name, 'xml')).delete()
+        } else {
+            includeDensities.each { Density density ->
+                new File(resourceDir(density), destinationFile(svgFile.name, rasterExtension())).delete()
+            }
+        }
+    }
 
-        inputs.removed { change ->
-            logger.debug("$change.file.name was removed; removing it from generated folder")
+    /**
+     * Deletes any output that doesn't correspond to a current input (for instance, those of
+     * SVGs removed while there was no incremental state, or of densities no longer included).
+     * The canonical copies are what tell, since sprite sheets have one for each of their icons.
+     */
+    void deleteStaleOutputs() {
+        Set<File> copies = normalizedSources.asFileTree.files
+        Map<File, Set<String>> expected = [:]
+        if (generateVectorDrawables) {
+            expected[resourceDir()] = copies.collect { destinationFile(it.name, 'xml') } as Set
+        } else {
+            Set<String> names = copies.collect { destinationFile(it.name, rasterExtension()) } as Set
+            includeDensities.each { Density density ->
+                expected[resourceDir(density)] = names
+            }
+        }
+
+        renderRoot().listFiles()?.each { File resDir ->
+            Set<String> names = expected[resDir]
+            if (names == null) {
+                logger.debug("$resDir.name is no longer generated; deleting it")
+                resDir.deleteDir()
+                return
+            }
 
-            if (generateVectorDrawables) {
-                File resDir = resourceDir()
-                File file = new File(resDir, destinationFile(inputFileDetails.file.name, 'xml'))
-                file.delete()
-            } else {
-                includeDensities.each { Density density ->
-                    File resDir = resourceDir(density)
-                    File file = new File(resDir, destinationFile(inputFileDetails.file.name, 'png'))
+            resDir.listFiles()?.each { File file ->
+                if (!names.contains(file.name)) {
+                    logger.debug("$file.name no longer has an SVG; deleting it")
                     file.delete()
                 }
             }
         }
     }
 
+    /**
+     * @return the density to downscale the SVG's smaller densities from, or null to render them all directly
+     */
+    @Nullable
+    Density downscaleFor(File svgFile) {
+        return downscaleFor(svgFile, downscaleFromDensity, fullRenderPatterns)
+    }
+
+    /**
+     * @return the density to downscale the SVG's smaller densities from, or null to render them all directly
+     */
+    @Nullable
+    static Density downscaleFor(File svgFile, @Nullable String downscaleFromDensity, List<String> fullRenderPatterns) {
+        if (downscaleFromDensity == null) {
+            return null
+        }
+
+        Path name = svgFile.toPath().fileName
+        boolean fullRender = fullRenderPatterns.any { String pattern ->
+            FileSystems.default.getPathMatcher("glob:$pattern").matches(name)
+        }
+        return fullRender ? null : Density.valueOf(downscaleFromDensity.toUpperCase())
+    }
+
+    /**
+     * @return the engine to render with on this JVM
+     */
+    RenderEngine renderEngine() {
+        return renderEngineService.present ? renderEngineService.get().engine : RenderEngine.shared
+    }
+
+    @Nullable
+    RenderCache createCache() {
+        return cacheDir != null ? new RenderCache(cacheDir, cacheMaxSize) : null
+    }
+
+    WorkQueue createWorkQueue() {
+        switch (workerIsolation) {
+            case 'none':
+                return workerExecutor.noIsolation()
+            case 'process':
+                return workerExecutor.processIsolation()
+            default:
+                throw new GradleException("Unknown workerIsolation '$workerIsolation'; must be 'none' or 'process'")
+        }
+    }
+
     void createOutput(@Nullable Density density = null) {
         File resDir = resourceDir(density)
         resDir.mkdirs()
@@ -156,7 +690,29 @@ class RasterizeTask extends DefaultTask {
 
     File resourceDir(@Nullable Density density = null) {
         String suffix = density? "-${density.name().toLowerCase()}" : ""
-        return new File(outputDir, "/drawable${suffix}")
+        return new File(renderRoot(), "/drawable${suffix}")
+    }
+
+    /**
+     * @return the directory outputs are rendered into
+     */
+    File renderRoot() {
+        return renderDir ?: outputDir
+    }
+
+    /**
+     * @return the path of an SVG's output for a density (null for vector drawables),
+     * relative to the output directory
+     */
+    String outputPath(String svgName, @Nullable Density density) {
+        return "${resourceDir(density).name}/${destinationFile(svgName, generateVectorDrawables ? 'xml' : rasterExtension())}"
+    }
+
+    /**
+     * @return the file extension of rasterized outputs
+     */
+    String rasterExtension() {
+        return OutputFormat.forName(outputFormat).extension
     }
 
     String destinationFile(String name, String suffix) {
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+/**
+ * A single SVG rasterized at a single density.
+ *
+ * This is Serializable so that it can be handed off to Gradle workers,
+ * including workers running in a separate process.
+ */
+class RasterizeUnit implements Serializable {
+
+    private static final long serialVersionUID = 2L
+
+    File source
+
+    Density density
+
+    File destination
+
+    /**
+     * The density to downscale from, or null to render this density directly.
+     */
+    Density downscaleFrom
+
+    RasterizeUnit(File source, Density density, File destination, Density downscaleFrom = null) {
+        this.source = source
+        this.density = density
+        this.destination = destination
+        this.downscaleFrom = downscaleFrom
+    }
+}
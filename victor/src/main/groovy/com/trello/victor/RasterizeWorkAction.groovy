@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.gradle.api.logging.Logging
+import org.gradle.workers.WorkAction
+
+/**
+ * Rasterizes a batch of SVGs on a Gradle worker.
+ *
+ * Each batch gets its own Converter, rendering with its thread's transcoder
+ * from the shared {@link RenderEngine}, since transcoders are not thread-safe.
+ * Work within a batch is done in order, so the output is the same as
+ * converting serially.
+ */
+abstract class RasterizeWorkAction implements WorkAction<RasterizeWorkParameters> {
+
+    @Override
+    void execute() {
+        File cacheDir = parameters.cacheDir.getOrNull()
+        RenderCache cache = cacheDir != null ? new RenderCache(cacheDir, parameters.cacheMaxSize.get()) : null
+        // Worker threads and processes are reused across builds, so the shared engine stays warm. Without
+        // isolation, it's the build's engine, memory budget and all; a worker process keeps to half its heap
+        RenderEngine engine = RenderEngine.shared
+        Converter converter = engine.createConverter(cache)
+        converter.outputFormat = OutputFormat.forName(parameters.outputFormat.getOrElse('png'))
+        converter.webpQuality = parameters.webpQuality.getOrNull()
+        converter.pngCompressionLevel = parameters.pngCompressionLevel.getOrNull()
+        converter.optimizePngs = parameters.optimizePngs.getOrElse(false)
+        converter.pngQuantizationMaxError = parameters.pngQuantizationMaxError.getOrNull()
+        int baseDpi = parameters.baseDpi.get()
+
+        int changed = 0
+
+        // Render every density of an SVG from a single parse
+        Map<File, List<RasterizeUnit>> unitsBySource = parameters.units.get().groupBy { it.source }
+        unitsBySource.each { File source, List<RasterizeUnit> units ->
+            SVGResource svgResource = engine.createResource(source, baseDpi)
+            changed += converter.transcode(svgResource, units.collectEntries { [(it.density): it.destination] },
+                    units[0].downscaleFrom)
+
+            units.each { RasterizeUnit unit ->
+                Logging.getLogger(this.class).info("Converted $unit.source to $unit.destination")
+            }
+        }
+
+        if (cache != null) {
+            Logging.getLogger(this.class).info("Render cache: $cache.hits hits, $cache.misses misses")
+        }
+
+        parameters.resultFile.get().text = changed.toString()
+
+        RasterizeReport report = new RasterizeReport()
+        report.addAll(converter.metrics)
+        report.writeJson(parameters.metricsFile.get())
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.gradle.api.provider.ListProperty
+import org.gradle.api.provider.Property
+import org.gradle.workers.WorkParameters
+
+/**
+ * Parameters for a single batch of rasterization work.
+ */
+interface RasterizeWorkParameters extends WorkParameters {
+
+    /**
+     * The SVG/density pairs to convert in this batch.
+     */
+    ListProperty<RasterizeUnit> getUnits()
+
+    /**
+     * The DPI to use for relative-sized SVGs.
+     */
+    Property<Integer> getBaseDpi()
+
+    /**
+     * The deflater level to encode PNGs with; unset for the default encoder.
+     */
+    Property<Integer> getPngCompressionLevel()
+
+    /**
+     * The format to rasterize to, by name; see {@link OutputFormat#forName}.
+     */
+    Property<String> getOutputFormat()
+
+    /**
+     * The quality (0-100) to encode lossy WebPs at; unset for lossless WebPs.
+     */
+    Property<Integer> getWebpQuality()
+
+    /**
+     * Whether to write PNGs that fit in a palette as indexed PNGs.
+     */
+    Property<Boolean> getOptimizePngs()
+
+    /**
+     * How far colors may be off when quantizing PNGs to a palette; unset to never quantize.
+     */
+    Property<Double> getPngQuantizationMaxError()
+
+    /**
+     * Where to cache rendered PNGs; unset to disable the cache.
+     */
+    Property<File> getCacheDir()
+
+    /**
+     * The size, in bytes, of the cache.
+     */
+    Property<Long> getCacheMaxSize()
+
+    /**
+     * Where to write the number of outputs this batch changed.
+     */
+    Property<File> getResultFile()
+
+    /**
+     * Where to write the batch's rasterization metrics, as a JSON report.
+     */
+    Property<File> getMetricsFile()
+}
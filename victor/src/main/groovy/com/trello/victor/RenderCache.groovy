@@ -0,0 +1,329 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.apache.batik.Version
+import org.slf4j.LoggerFactory
+
+import javax.annotation.Nullable
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.security.MessageDigest
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.regex.Pattern
+
+/**
+ * An on-disk cache of rendered outputs, keyed by the content of the SVG and
+ * everything else that affects how it is rendered.
+ *
+ * Since the key doesn't include the SVG's path, the cache can be shared by
+ * every variant of a project (and across branches, and across projects).
+ * Entries are restored by hard-linking where possible, falling back to a copy.
+ * SVGs that reference other files aren't cached at all, since those files can
+ * change without the SVG changing, and `clean` doesn't clear the cache.
+ *
+ * The cache is kept under a size cap by evicting the least recently used
+ * entries. Recency is tracked through a `.used` file next to each entry,
+ * whose modification time is refreshed at most once a day. Touching the entry
+ * itself would also touch every output hard-linked to it, which would make
+ * those outputs look changed to the rasterize task's manifest.
+ *
+ * So that evicting doesn't mean walking the whole cache after every task, the
+ * size of the cache is kept in a `size` file, written whenever the cache is
+ * walked, plus a `stored` file that every entry stored since adds its length
+ * to. The cache is only walked again once the two add up to more than the
+ * cap, or once a day, to take in entries that were deleted some other way.
+ */
+class RenderCache {
+
+    /**
+     * Bump this whenever a change to Victor would change the output for the same input.
+     */
+    static final String RENDERER_VERSION = "victor-3/batik-${Version.version}"
+
+    // Where an href, url() or @import points outside the SVG: anywhere but a fragment of
+    // the SVG itself or inline data
+    private static final Pattern EXTERNAL_REFERENCE =
+            ~/(?i)(?:\bhref\s*+=\s*+["']|url\(\s*+(?:["']|&quot;)?|@import\s*+(?:["']|&quot;)?)\s*+(?!#|data:)/
+
+    /**
+     * What happened when restoring an output from the cache.
+     */
+    enum Restored {
+        /** Nothing was cached for the key. */
+        MISS,
+        /** The output already matched the cached entry, so it was left alone. */
+        UNCHANGED,
+        /** The output was replaced with the cached entry. */
+        WRITTEN
+    }
+
+    private static final long TOUCH_INTERVAL = TimeUnit.DAYS.toMillis(1)
+
+    private static final long WALK_INTERVAL = TimeUnit.DAYS.toMillis(1)
+
+    private static final String USED_SUFFIX = '.used'
+
+    private final File directory
+
+    private final long maxSizeBytes
+
+    private final AtomicInteger hits = new AtomicInteger()
+
+    private final AtomicInteger misses = new AtomicInteger()
+
+    /**
+     * @param directory where to keep the cached entries
+     * @param maxSizeBytes the size to trim the cache down to on {@link #evict()}
+     */
+    RenderCache(File directory, long maxSizeBytes) {
+        this.directory = directory
+        this.maxSizeBytes = maxSizeBytes
+    }
+
+    int getHits() {
+        return hits.get()
+    }
+
+    int getMisses() {
+        return misses.get()
+    }
+
+    /**
+     * Hashes the content of a file, for use in {@link #key}.
+     */
+    static String hash(File file) {
+        MessageDigest digest = MessageDigest.getInstance('SHA-256')
+        file.withInputStream { InputStream inputStream ->
+            byte[] buffer = new byte[8192]
+            int read
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read)
+            }
+        }
+        return digest.digest().encodeHex().toString()
+    }
+
+    /**
+     * Hashes what an SVG renders, ignoring cosmetic differences (see {@link SvgNormalizer}),
+     * for use in {@link #key}. Falls back to the raw content if the SVG can't be normalized.
+     *
+     * @return the hash, or null if the SVG references other files (images, other SVGs,
+     * stylesheets), whose content the hash can't cover; don't cache those SVGs
+     */
+    @Nullable
+    static String contentHash(File svgFile) {
+        byte[] canonical = SvgNormalizer.normalize(svgFile)
+        byte[] content = canonical ?: svgFile.bytes
+        if (new String(content, 'UTF-8') =~ EXTERNAL_REFERENCE) {
+            return null
+        }
+        return MessageDigest.getInstance('SHA-256').digest(content).encodeHex().toString()
+    }
+
+    /**
+     * Builds the cache key for a rendered output.
+     *
+     * @param contentHash the hash of the SVG's content, from {@link #contentHash}
+     * @param density the density being rendered
+     * @param baseDpi the DPI used for relative-sized SVGs
+     * @param encoding how the output is encoded, see {@link Converter#getEncoding()}
+     */
+    String key(String contentHash, Density density, int baseDpi, String encoding) {
+        String parts = "$contentHash|${density.name()}|$baseDpi|$encoding|$RENDERER_VERSION"
+        return MessageDigest.getInstance('SHA-256').digest(parts.getBytes('UTF-8')).encodeHex().toString()
+    }
+
+    /**
+     * Builds the cache key for an output that doesn't depend on density, such as a vector drawable.
+     *
+     * @param contentHash the hash of the SVG's content, from {@link #contentHash}
+     * @param encoding what the output is and how it is encoded
+     */
+    String key(String contentHash, String encoding) {
+        String parts = "$contentHash|$encoding|$RENDERER_VERSION"
+        return MessageDigest.getInstance('SHA-256').digest(parts.getBytes('UTF-8')).encodeHex().toString()
+    }
+
+    /**
+     * Restores a cached output to the destination, if there is one.
+     */
+    Restored restore(String key, File destination) {
+        File entry = entryFile(key)
+        if (!entry.isFile()) {
+            misses.incrementAndGet()
+            return Restored.MISS
+        }
+
+        try {
+            long now = System.currentTimeMillis()
+            if (now - lastUsed(entry) > TOUCH_INTERVAL) {
+                File used = usedFile(entry)
+                if (!used.createNewFile()) {
+                    used.setLastModified(now)
+                }
+            }
+
+            if (!StableOutput.link(entry, destination)) {
+                hits.incrementAndGet()
+                return Restored.UNCHANGED
+            }
+        }
+        catch (IOException e) {
+            // Evicted by someone else in the meantime, most likely
+            LoggerFactory.getLogger(this.class).debug("Could not restore $destination.name from render cache", e)
+            misses.incrementAndGet()
+            return Restored.MISS
+        }
+
+        hits.incrementAndGet()
+        return Restored.WRITTEN
+    }
+
+    /**
+     * Stores a freshly rendered output in the cache.
+     */
+    void store(String key, File output) {
+        File entry = entryFile(key)
+        try {
+            entry.parentFile.mkdirs()
+
+            // Write to a temporary file first, so that nobody can restore a half-written entry
+            File temp = File.createTempFile('entry', '.tmp', entry.parentFile)
+            Files.copy(output.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING)
+            try {
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.ATOMIC_MOVE)
+            }
+            catch (AtomicMoveNotSupportedException ignored) {
+                Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING)
+            }
+
+            // Appends this short are written in one go, so other builds storing entries
+            // at the same time can't garble them
+            Files.write(new File(directory, 'stored').toPath(), "${entry.length()}\n".getBytes('UTF-8'),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)
+        }
+        catch (IOException e) {
+            LoggerFactory.getLogger(this.class).warn("Could not store $output.name in render cache", e)
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache fits in its size cap. The
+     * cache is only walked when it may have outgrown the cap, or hasn't been for a day.
+     */
+    void evict() {
+        if (!directory.isDirectory()) {
+            return
+        }
+
+        Long size = knownSize()
+        if (size != null && size <= maxSizeBytes) {
+            return
+        }
+
+        // Entries stored while walking may go uncounted until the next walk; the size is only a guide
+        new File(directory, 'stored').delete()
+        new File(directory, 'size').text = trim().toString()
+    }
+
+    /**
+     * @return the size of the cache as of the last walk plus what was stored since, or null if
+     * it's time to walk the cache again
+     */
+    @Nullable
+    private Long knownSize() {
+        File sizeFile = new File(directory, 'size')
+        if (!sizeFile.isFile() || System.currentTimeMillis() - sizeFile.lastModified() > WALK_INTERVAL) {
+            return null
+        }
+
+        try {
+            long size = sizeFile.text.trim().toLong()
+            File storedFile = new File(directory, 'stored')
+            if (storedFile.isFile()) {
+                storedFile.eachLine('UTF-8') { String line -> size += line.toLong() }
+            }
+            return size
+        }
+        catch (IOException | NumberFormatException ignored) {
+            return null
+        }
+    }
+
+    /**
+     * Walks the cache, deleting the least recently used entries until it fits in its size cap.
+     *
+     * @return the size of the cache afterwards
+     */
+    private long trim() {
+        List<File> entries = []
+        directory.eachDir { File dir ->
+            dir.eachFile { File file ->
+                if (!file.isFile()) {
+                    return
+                }
+
+                if (!file.name.endsWith(USED_SUFFIX)) {
+                    entries.add file
+                }
+                else if (!new File(dir, file.name - USED_SUFFIX).exists()) {
+                    file.delete()
+                }
+            }
+        }
+
+        long size = entries.sum(0L) { File file -> file.length() } as long
+        if (size <= maxSizeBytes) {
+            return size
+        }
+
+        Map<File, Long> lastUsed = entries.collectEntries { File file -> [(file): lastUsed(file)] }
+        entries.sort { File file -> lastUsed[file] }
+        for (File file : entries) {
+            if (size <= maxSizeBytes) {
+                break
+            }
+
+            long length = file.length()
+            if (file.delete()) {
+                usedFile(file).delete()
+                size -= length
+            }
+        }
+        return size
+    }
+
+    /**
+     * @return when the entry was last stored or restored, to the day
+     */
+    private static long lastUsed(File entry) {
+        return Math.max(entry.lastModified(), usedFile(entry).lastModified())
+    }
+
+    private static File usedFile(File entry) {
+        return new File(entry.parentFile, entry.name + USED_SUFFIX)
+    }
+
+    private File entryFile(String key) {
+        // Fan out into subdirectories so that no single directory gets too large
+        return new File(directory, "${key.substring(0, 2)}/$key")
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory
+import org.apache.batik.transcoder.image.PNGTranscoder
+import org.apache.batik.util.XMLResourceDescriptor
+
+/**
+ * The long-lived parts of rendering, kept around for as long as the JVM is.
+ *
+ * Inside the Gradle daemon (or a reused worker process) the shared engine
+ * outlives any single build, so an edit-and-rebuild loop renders with parsers
+ * and transcoders that are already set up, and with Batik, AWT and the JIT
+ * already warmed up by the previous build. Image I/O writers are pooled in
+ * the same way by ImageIOImageWriter itself.
+ *
+ * Batik's parsers and transcoders aren't thread-safe, so each thread gets
+ * its own, along with a {@link RasterPool} of image memory to paint into.
+ * That keeps a thread's buffers warm across builds too. Every converter
+ * shares the engine's {@link MemoryBudget}, so that parallel renders from
+ * every task in the build stay within it together.
+ */
+class RenderEngine {
+
+    private static final RenderEngine SHARED = new RenderEngine()
+
+    private final ThreadLocal<SAXSVGDocumentFactory> documentFactories = new ThreadLocal<SAXSVGDocumentFactory>() {
+        @Override
+        protected SAXSVGDocumentFactory initialValue() {
+            return new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName())
+        }
+    }
+
+    private final ThreadLocal<PNGTranscoder> transcoders = new ThreadLocal<PNGTranscoder>() {
+        @Override
+        protected PNGTranscoder initialValue() {
+            return new PNGTranscoder()
+        }
+    }
+
+    private final ThreadLocal<RasterPool> rasterPools = new ThreadLocal<RasterPool>() {
+        @Override
+        protected RasterPool initialValue() {
+            return new RasterPool()
+        }
+    }
+
+    /**
+     * Limits the raster memory used by every converter this engine creates.
+     */
+    final MemoryBudget memoryBudget = new MemoryBudget()
+
+    /**
+     * The engine shared by every task (and every build) in this JVM.
+     */
+    static RenderEngine getShared() {
+        return SHARED
+    }
+
+    /**
+     * @return a resource that parses with this thread's document factory
+     */
+    SVGResource createResource(File file, int dpi) {
+        return new SVGResource(file, dpi, documentFactories.get())
+    }
+
+    /**
+     * @return a converter that renders with this thread's transcoder and raster pool;
+     *         only use it on this thread
+     */
+    Converter createConverter(RenderCache cache = null) {
+        Converter converter = new Converter(cache, transcoders.get(), rasterPools.get())
+        converter.memoryBudget = memoryBudget
+        return converter
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.gradle.api.Project
+import org.gradle.api.provider.Property
+import org.gradle.api.provider.Provider
+import org.gradle.api.services.BuildService
+import org.gradle.api.services.BuildServiceParameters
+
+/**
+ * Shares the daemon-wide {@link RenderEngine} with every rasterize task of a build.
+ *
+ * The engine's {@link MemoryBudget} is daemon-wide as well, so it is sized here, once
+ * per build, rather than by each task that renders.
+ */
+abstract class RenderEngineService implements BuildService<Params> {
+
+    interface Params extends BuildServiceParameters {
+
+        /**
+         * How many bytes of raster memory renders may use at once; unset for half of the heap.
+         */
+        Property<Long> getMemoryBudget()
+    }
+
+    /**
+     * Registers the build's service, if no project has yet, with its memory budget taken from
+     * the build-wide `victor.renderMemoryBudgetMb` property.
+     */
+    static Provider<RenderEngineService> register(Project project) {
+        return project.gradle.sharedServices.registerIfAbsent('victorRenderEngine', RenderEngineService) { spec ->
+            spec.parameters.memoryBudget.set project.providers.gradleProperty('victor.renderMemoryBudgetMb')
+                    .map { String megabytes -> megabytes.toLong() * 1024L * 1024L }
+        }
+    }
+
+    RenderEngineService() {
+        engine.memoryBudget.capacityBytes = parameters.memoryBudget.getOrElse(MemoryBudget.defaultCapacity())
+    }
+
+    RenderEngine getEngine() {
+        return RenderEngine.shared
+    }
+}
@@ -17,22 +17,37 @@
 package com.trello.victor
 
 import org.apache.batik.anim.dom.SAXSVGDocumentFactory
+import org.apache.batik.anim.dom.SVGOMDocument
 import org.apache.batik.bridge.BridgeContext
+import org.apache.batik.bridge.BridgeException
+import org.apache.batik.bridge.GVTBuilder
 import org.apache.batik.bridge.UnitProcessor
 import org.apache.batik.bridge.UserAgent
 import org.apache.batik.bridge.UserAgentAdapter
+import org.apache.batik.bridge.svg12.SVG12BridgeContext
+import org.apache.batik.gvt.GraphicsNode
 import org.apache.batik.util.XMLResourceDescriptor
-import org.gradle.api.logging.Logging
+import org.slf4j.LoggerFactory
 import org.w3c.dom.svg.SVGDocument
 import org.w3c.dom.svg.SVGSVGElement
 
 /**
  * Automatically calculates the width and height of an SVG file.
+ *
+ * The file isn't read until it's needed (so that cached outputs don't pay for
+ * reading it). The size is normally sniffed from the root element alone; the
+ * full document is only parsed once the SVG is rendered, or when the size
+ * can't be worked out without it. Once parsed, the document is kept around
+ * so that it can be rendered at every density without parsing the file again.
  */
 class SVGResource {
 
     private File file
 
+    private int dpi
+
+    private boolean loaded = false
+
     // Basic way to tell if we could read the file or not
     private boolean canBeRead = false
 
@@ -40,10 +55,58 @@ class SVGResource {
     private int width
     private int height
 
+    // The parsed document, shared by every render; null until it is needed
+    private SVGDocument document
+
+    // The GVT tree, built the first time the SVG is rendered
+    private BridgeContext renderContext
+    private GraphicsNode graphicsNode
+
+    // Parses the document; null to create a new factory for each parse
+    private SAXSVGDocumentFactory documentFactory
+
     SVGResource(File file, int dpi) {
+        this(file, dpi, null)
+    }
+
+    /**
+     * @param documentFactory the factory to parse with, which must not be used by
+     * another thread at the same time; see {@link RenderEngine}
+     */
+    SVGResource(File file, int dpi, SAXSVGDocumentFactory documentFactory) {
         this.file = file
+        this.dpi = dpi
+        this.documentFactory = documentFactory
+    }
+
+    File getFile() {
+        return file
+    }
+
+    int getDpi() {
+        return dpi
+    }
+
+    boolean getCanBeRead() {
+        load()
+        return canBeRead
+    }
+
+    int getWidth() {
+        load()
+        return width
+    }
+
+    int getHeight() {
+        load()
+        return height
+    }
 
-        readSvgInfo(dpi)
+    private void load() {
+        if (!loaded) {
+            loaded = true
+            readSvgInfo(dpi)
+        }
     }
 
     private void readSvgInfo(int dpi) {
@@ -51,29 +114,98 @@ class SVGResource {
             return
         }
 
-        String parser = XMLResourceDescriptor.getXMLParserClassName()
-        SAXSVGDocumentFactory factory = new SAXSVGDocumentFactory(parser)
-        SVGDocument document
-        try {
-            document = (SVGDocument) factory.createDocument(file.toURI().toString())
+        UserAgent userAgent = new DensityUserAgent(dpi)
+        float[] size = SVGRootSniffer.sniffSize(file, userAgent.pixelUnitToMillimeter)
+        if (size != null) {
+            width = size[0]
+            height = size[1]
+            canBeRead = true
+            return
         }
-        catch (IOException e) {
-            Logging.getLogger(this.class).error("Could not read SVG resource $file.name", e)
+
+        // Fall back to reading the size from the full document
+        SVGDocument document = parseDocument()
+        if (document == null) {
             return
         }
 
         SVGSVGElement svgElement = document.getRootElement()
 
-        UserAgent userAgent = new DensityUserAgent(dpi)
         BridgeContext bridgeContext = new BridgeContext(userAgent)
         org.apache.batik.parser.UnitProcessor.Context context = UnitProcessor.createContext(bridgeContext, svgElement)
 
         width = UnitProcessor.svgHorizontalLengthToUserSpace(svgElement.width.baseVal.valueAsString, '', context)
         height = UnitProcessor.svgVerticalLengthToUserSpace(svgElement.height.baseVal.valueAsString, '', context)
 
+        this.document = document
         canBeRead = true
     }
 
+    private SVGDocument parseDocument() {
+        SAXSVGDocumentFactory factory = documentFactory
+        if (factory == null) {
+            factory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName())
+        }
+        try {
+            return (SVGDocument) factory.createDocument(file.toURI().toString())
+        }
+        catch (IOException e) {
+            LoggerFactory.getLogger(this.class).error("Could not read SVG resource $file.name", e)
+            return null
+        }
+    }
+
+    /**
+     * The parsed document, parsing it if that hasn't happened yet.
+     *
+     * @return the document, or null if the SVG cannot be parsed
+     */
+    SVGDocument getDocument() {
+        load()
+        if (document == null && canBeRead) {
+            document = parseDocument()
+            canBeRead = document != null
+        }
+        return document
+    }
+
+    /**
+     * The bridge context the GVT tree was built with, or null if it has not been built yet.
+     */
+    BridgeContext getRenderContext() {
+        return renderContext
+    }
+
+    /**
+     * Builds the GVT tree for this SVG, or returns the one that was built before.
+     *
+     * @param userAgent the user agent to render with; only used the first time this is called
+     * @return the root of the GVT tree, or null if the SVG cannot be rendered
+     */
+    GraphicsNode buildGraphicsNode(UserAgent userAgent) {
+        if (graphicsNode != null) {
+            return graphicsNode
+        }
+
+        if (!getCanBeRead() || getDocument() == null) {
+            return null
+        }
+
+        SVGOMDocument svgDocument = (SVGOMDocument) document
+        BridgeContext bridgeContext = svgDocument.isSVG12() ? new SVG12BridgeContext(userAgent) : new BridgeContext(userAgent)
+        try {
+            graphicsNode = new GVTBuilder().build(bridgeContext, svgDocument)
+        }
+        catch (BridgeException e) {
+            LoggerFactory.getLogger(this.class).error("Could not render SVG resource $file.name", e)
+            canBeRead = false
+            return null
+        }
+
+        renderContext = bridgeContext
+        return graphicsNode
+    }
+
     private static final class DensityUserAgent extends UserAgentAdapter {
 
         private float pixelUnitToMillimeter
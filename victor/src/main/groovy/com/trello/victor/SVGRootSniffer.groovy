@@ -0,0 +1,165 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.apache.batik.bridge.UnitProcessor
+import org.w3c.dom.Element
+
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLStreamConstants
+import javax.xml.stream.XMLStreamReader
+
+/**
+ * Reads the size of an SVG from its root element without parsing the rest of the file.
+ *
+ * Lengths are resolved by Batik's own UnitProcessor, so the results are the same as
+ * reading them from a full DOM. Anything that needs more than the root element to
+ * resolve (percentages, font-relative units, entities) is left to the DOM.
+ */
+class SVGRootSniffer {
+
+    private static final XMLInputFactory FACTORY = createFactory()
+
+    // A length in user units (pixels), which don't depend on the DPI
+    private static final String PIXEL_LENGTH = /[+-]?(\d+\.?\d*|\.\d+)([eE][+-]?\d+)?(px)?/
+
+    /**
+     * @param file the SVG to read
+     * @param pixelUnitToMillimeter the size of a pixel, for resolving absolute units
+     * @return the width and height of the SVG, or null if they can't be determined
+     * from the root element alone
+     */
+    static float[] sniffSize(File file, float pixelUnitToMillimeter) {
+        String[] size = readSizeAttributes(file)
+        if (size == null) {
+            return null
+        }
+
+        try {
+            RootContext context = new RootContext(pixelUnitToMillimeter)
+            return [
+                    UnitProcessor.svgHorizontalLengthToUserSpace(size[0], 'width', context),
+                    UnitProcessor.svgVerticalLengthToUserSpace(size[1], 'height', context)
+            ] as float[]
+        }
+        catch (Exception ignored) {
+            // A unit we can't resolve from the root element alone
+            return null
+        }
+    }
+
+    /**
+     * Whether the SVG's size is the same at every DPI, which is only the case when
+     * its width and height are both plain numbers or pixel lengths.
+     *
+     * @param file the SVG to read
+     * @return false if the size depends on the DPI, or if that can't be told from the root element alone
+     */
+    static boolean isDpiIndependent(File file) {
+        String[] size = readSizeAttributes(file)
+        return size != null && size.every { it.trim() ==~ PIXEL_LENGTH }
+    }
+
+    /**
+     * @return the root element's width and height attributes, or null if it doesn't have both
+     */
+    private static String[] readSizeAttributes(File file) {
+        XMLStreamReader reader = null
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(file))
+        try {
+            reader = FACTORY.createXMLStreamReader(inputStream)
+            while (reader.hasNext()) {
+                if (reader.next() == XMLStreamConstants.START_ELEMENT) {
+                    break
+                }
+            }
+
+            if (!reader.isStartElement() || reader.localName != 'svg') {
+                return null
+            }
+
+            String width = reader.getAttributeValue(null, 'width')
+            String height = reader.getAttributeValue(null, 'height')
+            if (width == null || height == null) {
+                return null
+            }
+            return [width, height] as String[]
+        }
+        catch (Exception ignored) {
+            // Malformed XML, an entity we don't expand...
+            return null
+        }
+        finally {
+            reader?.close()
+            inputStream.close()
+        }
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory()
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false)
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+        return factory
+    }
+
+    /**
+     * Resolves only units that don't depend on the rest of the document.
+     */
+    private static final class RootContext implements org.apache.batik.parser.UnitProcessor.Context {
+
+        private float pixelUnitToMillimeter
+
+        private RootContext(float pixelUnitToMillimeter) {
+            this.pixelUnitToMillimeter = pixelUnitToMillimeter
+        }
+
+        @Override
+        Element getElement() {
+            return null
+        }
+
+        @Override
+        float getPixelUnitToMillimeter() {
+            return pixelUnitToMillimeter
+        }
+
+        @Override
+        float getPixelToMM() {
+            return pixelUnitToMillimeter
+        }
+
+        @Override
+        float getFontSize() {
+            throw new UnsupportedOperationException('Font-relative sizes need the full document')
+        }
+
+        @Override
+        float getXHeight() {
+            throw new UnsupportedOperationException('Font-relative sizes need the full document')
+        }
+
+        @Override
+        float getViewportWidth() {
+            throw new UnsupportedOperationException('Percentage sizes need the full document')
+        }
+
+        @Override
+        float getViewportHeight() {
+            throw new UnsupportedOperationException('Percentage sizes need the full document')
+        }
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+/**
+ * Writes outputs only when their content actually changes.
+ *
+ * Leaving unchanged files alone keeps their timestamps, so the resource merging
+ * and aapt2 compilation downstream of us have less to redo.
+ */
+class StableOutput {
+
+    /**
+     * Writes the bytes to the destination, unless it already holds exactly those bytes.
+     *
+     * @return true if the destination was written
+     */
+    static boolean write(File destination, byte[] bytes) {
+        if (matches(destination, bytes)) {
+            return false
+        }
+
+        // The destination may be hard-linked to a cache entry; replace it rather than writing through it
+        Files.deleteIfExists(destination.toPath())
+        destination.bytes = bytes
+        return true
+    }
+
+    /**
+     * Makes the destination hold the same bytes as the source, hard-linking to the source
+     * where possible and copying it otherwise, unless it already holds exactly those bytes.
+     *
+     * @return true if the destination was written
+     */
+    static boolean link(File source, File destination) throws IOException {
+        if (matches(destination, source)) {
+            return false
+        }
+
+        // Never write through an existing file; it may itself be a link to something else
+        Files.deleteIfExists(destination.toPath())
+        try {
+            Files.createLink(destination.toPath(), source.toPath())
+        }
+        catch (IOException | UnsupportedOperationException ignored) {
+            Files.copy(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING)
+        }
+        return true
+    }
+
+    /**
+     * Makes one directory hold exactly the files another does, at the same paths, linking
+     * each one as {@link #link} does. Files that already match are left alone, and anything
+     * the source doesn't have is deleted.
+     */
+    static void mirror(File source, File destination) throws IOException {
+        destination.mkdirs()
+
+        Set<String> names = (source.list() ?: []) as Set
+        destination.listFiles()?.each { File file ->
+            if (!names.contains(file.name)) {
+                file.isDirectory() ? file.deleteDir() : file.delete()
+            }
+        }
+
+        source.listFiles()?.each { File file ->
+            File target = new File(destination, file.name)
+            if (file.isDirectory()) {
+                if (target.isFile()) {
+                    target.delete()
+                }
+                mirror(file, target)
+            }
+            else {
+                if (target.isDirectory()) {
+                    target.deleteDir()
+                }
+                link(file, target)
+            }
+        }
+    }
+
+    /**
+     * @return true if the file exists and holds exactly the given bytes
+     */
+    static boolean matches(File file, byte[] bytes) {
+        // Checking the length first means most changed files are never read
+        return file.isFile() && file.length() == bytes.length && Arrays.equals(file.bytes, bytes)
+    }
+
+    /**
+     * @return true if both files exist and hold the same bytes
+     */
+    static boolean matches(File file, File other) {
+        if (!file.isFile() || !other.isFile() || file.length() != other.length()) {
+            return false
+        }
+
+        return Files.isSameFile(file.toPath(), other.toPath()) || Arrays.equals(file.bytes, other.bytes)
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import javax.xml.XMLConstants
+import javax.xml.stream.XMLInputFactory
+import javax.xml.stream.XMLResolver
+import javax.xml.stream.XMLStreamConstants
+import javax.xml.stream.XMLStreamException
+import javax.xml.stream.XMLStreamReader
+
+/**
+ * Reduces an SVG to a canonical form that only holds what affects how it renders.
+ *
+ * Design tools re-export the same artwork with new comments, metadata, editor
+ * namespaces (sketch:, inkscape:, sodipodi:...), attribute order and whitespace.
+ * None of that changes the rendered result, so none of it survives here: two SVGs
+ * that normalize to the same bytes render the same.
+ *
+ * Anything this can't be sure about (malformed XML, elements outside the SVG
+ * namespace at the root, entities it can't expand) makes it give up rather than
+ * risk treating different SVGs as the same.
+ */
+class SvgNormalizer {
+
+    static final String SVG_NAMESPACE = 'http://www.w3.org/2000/svg'
+
+    static final String XLINK_NAMESPACE = 'http://www.w3.org/1999/xlink'
+
+    // Elements that never render anything
+    private static final Set<String> NON_RENDERING_ELEMENTS = ['metadata', 'title', 'desc'] as Set
+
+    // Elements whose whitespace-only text can still matter
+    private static final Set<String> WHITESPACE_ELEMENTS = ['text', 'tspan', 'textPath', 'style'] as Set
+
+    private static final XMLInputFactory FACTORY = createFactory()
+
+    /**
+     * @return the canonical form of the SVG, or null if it can't be normalized
+     */
+    static byte[] normalize(File file) {
+        return normalizeStream(new BufferedInputStream(new FileInputStream(file)))
+    }
+
+    /**
+     * @return the canonical form of an SVG that's already in memory, or null if it can't be normalized
+     */
+    static byte[] normalize(byte[] svg) {
+        return normalizeStream(new ByteArrayInputStream(svg))
+    }
+
+    private static byte[] normalizeStream(InputStream inputStream) {
+        XMLStreamReader reader = null
+        try {
+            reader = FACTORY.createXMLStreamReader(inputStream)
+            return canonicalize(reader).getBytes('UTF-8')
+        }
+        catch (XMLStreamException | IllegalStateException ignored) {
+            return null
+        }
+        finally {
+            reader?.close()
+            inputStream.close()
+        }
+    }
+
+    private static String canonicalize(XMLStreamReader reader) {
+        StringBuilder out = new StringBuilder()
+        boolean root = true
+
+        // Depth inside an element that is being dropped, and inside whitespace-sensitive elements
+        int skipDepth = 0
+        int whitespaceDepth = 0
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (skipDepth > 0) {
+                        skipDepth++
+                        break
+                    }
+
+                    String namespace = reader.namespaceURI
+                    if (root && namespace != SVG_NAMESPACE) {
+                        throw new IllegalStateException("Root element is not an SVG element")
+                    }
+                    if (namespace != SVG_NAMESPACE || NON_RENDERING_ELEMENTS.contains(reader.localName)) {
+                        skipDepth = 1
+                        break
+                    }
+
+                    out.append('<').append(reader.localName)
+                    if (root) {
+                        out.append(" xmlns=\"$SVG_NAMESPACE\" xmlns:xlink=\"$XLINK_NAMESPACE\"")
+                        root = false
+                    }
+                    attributes(reader).each { String name, String value ->
+                        out.append(' ').append(name).append('="').append(escape(value, true)).append('"')
+                    }
+                    out.append('>')
+
+                    if (WHITESPACE_ELEMENTS.contains(reader.localName)) {
+                        whitespaceDepth++
+                    }
+                    break
+
+                case XMLStreamConstants.END_ELEMENT:
+                    if (skipDepth > 0) {
+                        skipDepth--
+                        break
+                    }
+
+                    out.append('</').append(reader.localName).append('>')
+                    if (WHITESPACE_ELEMENTS.contains(reader.localName)) {
+                        whitespaceDepth--
+                    }
+                    break
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (skipDepth > 0) {
+                        break
+                    }
+
+                    String text = reader.text
+                    if (whitespaceDepth > 0 || !text.trim().isEmpty()) {
+                        out.append(escape(text, false))
+                    }
+                    break
+
+                case XMLStreamConstants.ENTITY_REFERENCE:
+                    throw new IllegalStateException("Unexpanded entity $reader.localName")
+
+                default:
+                    // Comments, processing instructions and the DTD don't render
+                    break
+            }
+        }
+
+        return out.toString()
+    }
+
+    /**
+     * @return the attributes that can affect rendering, sorted by name
+     */
+    private static SortedMap<String, String> attributes(XMLStreamReader reader) {
+        SortedMap<String, String> attributes = new TreeMap<>()
+        for (int i = 0; i < reader.attributeCount; i++) {
+            String namespace = reader.getAttributeNamespace(i) ?: ''
+            String name
+            switch (namespace) {
+                case '':
+                    name = reader.getAttributeLocalName(i)
+                    break
+                case XLINK_NAMESPACE:
+                    name = "xlink:${reader.getAttributeLocalName(i)}"
+                    break
+                case XMLConstants.XML_NS_URI:
+                    name = "xml:${reader.getAttributeLocalName(i)}"
+                    break
+                default:
+                    // Editor-specific attributes
+                    continue
+            }
+            attributes[name] = reader.getAttributeValue(i)
+        }
+        return attributes
+    }
+
+    private static String escape(String text, boolean attribute) {
+        String escaped = text.replace('&', '&amp;').replace('<', '&lt;').replace('>', '&gt;').replace('\r', '&#13;')
+        if (attribute) {
+            // Keep whitespace that was escaped in the original from being normalized away when read back
+            escaped = escaped.replace('"', '&quot;').replace('\n', '&#10;').replace('\t', '&#9;')
+        }
+        return escaped
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory()
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true)
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true)
+        // Exporters declare entities in the internal subset, so expand those, but never fetch anything
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, true)
+        factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true)
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false)
+        factory.setXMLResolver({ String publicId, String systemId, String baseUri, String namespace ->
+            return new ByteArrayInputStream(new byte[0])
+        } as XMLResolver)
+        return factory
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import groovy.transform.CompileStatic
+import org.slf4j.LoggerFactory
+import org.w3c.dom.Attr
+import org.w3c.dom.Document
+import org.w3c.dom.Element
+import org.w3c.dom.NamedNodeMap
+import org.w3c.dom.Node
+import org.xml.sax.EntityResolver
+import org.xml.sax.ErrorHandler
+import org.xml.sax.InputSource
+import org.xml.sax.SAXParseException
+
+import javax.xml.XMLConstants
+import javax.xml.parsers.DocumentBuilder
+import javax.xml.parsers.DocumentBuilderFactory
+import javax.xml.transform.OutputKeys
+import javax.xml.transform.Transformer
+import javax.xml.transform.TransformerFactory
+import javax.xml.transform.dom.DOMSource
+import javax.xml.transform.stream.StreamResult
+import java.util.regex.Matcher
+import java.util.regex.Pattern
+
+/**
+ * Splits an SVG sprite sheet into a standalone SVG for each icon in it.
+ *
+ * Sprite sheets are SVGs named `<name>.sprite.svg`. Their icons are every `<symbol>` with
+ * an id, plus every `<g>` with an id directly inside the root or its top-level `<defs>`. Each
+ * icon becomes the drawable `<name>_<id>`, with the id lowercased and anything but letters,
+ * digits and underscores replaced by underscores.
+ *
+ * A symbol keeps its own viewBox (and width and height, if it has them); groups, which have
+ * none, use the sheet's. Each icon only takes along what it references from the rest of the
+ * sheet (gradients, clip paths, other symbols...) plus the sheet's stylesheets, so editing
+ * one icon leaves the others, and their canonical forms, exactly as they were.
+ *
+ * The sheet is parsed once, however many icons it has. This is compiled statically because
+ * it walks every node of the sheet, over many DOM classes, which dynamic Groovy is slow at.
+ */
+@CompileStatic
+class SvgSprite {
+
+    static final String SUFFIX = '.sprite.svg'
+
+    private static final String XMLNS_NAMESPACE = XMLConstants.XMLNS_ATTRIBUTE_NS_URI
+
+    // Attributes of a symbol that describe its viewport rather than its content
+    private static final Set<String> VIEWPORT_ATTRIBUTES =
+            ['id', 'viewBox', 'preserveAspectRatio', 'width', 'height', 'x', 'y', 'refX', 'refY'] as Set
+
+    private static final Pattern URL_REFERENCE = ~/url\(\s*['"]?#([^'")\s]+)/
+
+    private static final Pattern NUMBER = ~/\s*[+-]?(\d+\.?\d*|\.\d+)([eE][+-]?\d+)?(px)?\s*/
+
+    // A viewBox holds plain numbers only, without units
+    private static final Pattern VIEW_BOX_NUMBER = ~/[+-]?(\d+\.?\d*|\.\d+)([eE][+-]?\d+)?/
+
+    /**
+     * @return whether the file is a sprite sheet, by its name
+     */
+    static boolean isSprite(File file) {
+        return isSprite(file.name)
+    }
+
+    /**
+     * @return whether a file by this name is a sprite sheet
+     */
+    static boolean isSprite(String fileName) {
+        return fileName.endsWith(SUFFIX)
+    }
+
+    /**
+     * Splits a sprite sheet into its icons, in document order.
+     *
+     * Icons that can't be sized (a group in a sheet with neither a viewBox nor a size in
+     * pixels, or an icon whose viewBox isn't four numbers) are logged and left out.
+     *
+     * @return the canonical form (see {@link SvgNormalizer}) of each icon as a standalone
+     * SVG, by the file name of that SVG (`<drawable name>.svg`)
+     * @throws IOException if the sheet can't be read or parsed
+     */
+    static Map<String, byte[]> split(File spriteFile) throws IOException {
+        DocumentBuilder builder = createBuilder()
+        Document sprite
+        try {
+            sprite = builder.parse(spriteFile)
+        }
+        catch (Exception e) {
+            throw new IOException("Could not parse sprite sheet $spriteFile.name", e)
+        }
+
+        Element root = sprite.documentElement
+        if (root.namespaceURI != SvgNormalizer.SVG_NAMESPACE || root.localName != 'svg') {
+            throw new IOException("Sprite sheet $spriteFile.name is not an SVG")
+        }
+
+        // Everything an icon might reference, in document order
+        Map<String, Element> elementsById = [:]
+        eachElement(root) { Element element ->
+            if (element.hasAttribute('id')) {
+                elementsById.putIfAbsent(element.getAttribute('id'), element)
+            }
+        }
+        Map<Element, Integer> positions = [:]
+        elementsById.values().eachWithIndex { Element element, int position -> positions[element] = position }
+        List<Element> stylesheets = []
+        eachElement(root) { Element element ->
+            if (element.namespaceURI == SvgNormalizer.SVG_NAMESPACE && element.localName == 'style') {
+                stylesheets.add element
+            }
+        }
+
+        String prefix = drawablePrefix(spriteFile.name)
+        String sheetViewBox = sheetViewBox(root)
+        Transformer transformer = createTransformer()
+        Map<String, byte[]> icons = new LinkedHashMap<>()
+        findIcons(root).each { Element icon ->
+            String id = icon.getAttribute('id')
+            String viewBox = icon.getAttribute('viewBox') ?: sheetViewBox
+            if (!viewBox) {
+                LoggerFactory.getLogger(SvgSprite).warn("Skipping $id in $spriteFile.name; it has no viewBox to size it by")
+                return
+            }
+            float[] box = parseViewBox(viewBox)
+            if (box == null) {
+                LoggerFactory.getLogger(SvgSprite).warn("Skipping $id in $spriteFile.name; " +
+                        "its viewBox \"$viewBox\" isn't four numbers with a positive width and height")
+                return
+            }
+
+            String name = "$prefix${drawableName(id)}.svg"
+            if (icons.containsKey(name)) {
+                LoggerFactory.getLogger(SvgSprite).warn("Skipping $id in $spriteFile.name; another icon is already named $name")
+                return
+            }
+
+            byte[] svg = serialize(transformer, extract(builder.newDocument(), icon, viewBox, box, elementsById, positions, stylesheets))
+            icons[name] = SvgNormalizer.normalize(svg) ?: svg
+        }
+        return icons
+    }
+
+    /**
+     * @return the symbols with ids anywhere in the sheet, and the groups with ids directly
+     * inside its root or top-level defs, in document order
+     */
+    private static List<Element> findIcons(Element root) {
+        List<Element> icons = []
+        eachElement(root) { Element element ->
+            if (element.namespaceURI != SvgNormalizer.SVG_NAMESPACE || !element.hasAttribute('id')) {
+                return
+            }
+
+            if (element.localName == 'symbol') {
+                icons.add element
+            }
+            else if (element.localName == 'g') {
+                Node parent = element.parentNode
+                boolean topLevelDefs = parent instanceof Element && ((Element) parent).localName == 'defs' &&
+                        parent.parentNode == root
+                if (parent == root || topLevelDefs) {
+                    icons.add element
+                }
+            }
+        }
+        return icons
+    }
+
+    /**
+     * Builds a standalone SVG of the icon, along with whatever it references.
+     */
+    private static Document extract(Document document, Element icon, String viewBox, float[] box,
+                                    Map<String, Element> elementsById, Map<Element, Integer> positions,
+                                    List<Element> stylesheets) {
+        Element svg = document.createElementNS(SvgNormalizer.SVG_NAMESPACE, 'svg')
+        svg.setAttributeNS(XMLNS_NAMESPACE, 'xmlns', SvgNormalizer.SVG_NAMESPACE)
+        svg.setAttributeNS(XMLNS_NAMESPACE, 'xmlns:xlink', SvgNormalizer.XLINK_NAMESPACE)
+        document.appendChild(svg)
+
+        boolean sized = icon.localName == 'symbol' && isNumber(icon.getAttribute('width')) &&
+                isNumber(icon.getAttribute('height'))
+        svg.setAttribute('width', sized ? icon.getAttribute('width') : formatNumber(box[2]))
+        svg.setAttribute('height', sized ? icon.getAttribute('height') : formatNumber(box[3]))
+        svg.setAttribute('viewBox', viewBox)
+        if (icon.hasAttribute('preserveAspectRatio')) {
+            svg.setAttribute('preserveAspectRatio', icon.getAttribute('preserveAspectRatio'))
+        }
+
+        List<Element> referenced = findReferences(icon, elementsById, positions)
+        if (!referenced.isEmpty() || !stylesheets.isEmpty()) {
+            Element defs = document.createElementNS(SvgNormalizer.SVG_NAMESPACE, 'defs')
+            (stylesheets + referenced).each { Element element ->
+                defs.appendChild(document.importNode(element, true))
+            }
+            svg.appendChild(defs)
+        }
+
+        if (icon.localName == 'symbol') {
+            // The symbol's own presentation attributes still apply to its content,
+            // through a group if it has any
+            Element group = document.createElementNS(SvgNormalizer.SVG_NAMESPACE, 'g')
+            NamedNodeMap attributes = icon.attributes
+            for (int i = 0; i < attributes.length; i++) {
+                Node attribute = attributes.item(i)
+                if (attribute.namespaceURI == XMLNS_NAMESPACE || VIEWPORT_ATTRIBUTES.contains(attribute.nodeName)) {
+                    continue
+                }
+                group.setAttributeNodeNS((Attr) document.importNode(attribute, false))
+            }
+            Element parent = group.hasAttributes() ? (Element) svg.appendChild(group) : svg
+            for (Node child = icon.firstChild; child != null; child = child.nextSibling) {
+                parent.appendChild(document.importNode(child, true))
+            }
+        }
+        else {
+            Element group = (Element) document.importNode(icon, true)
+            group.removeAttribute('id')
+            svg.appendChild(group)
+        }
+        return document
+    }
+
+    /**
+     * @return the elements outside of the icon that it references, directly or through other
+     * references, in document order
+     */
+    private static List<Element> findReferences(Element icon, Map<String, Element> elementsById,
+                                                Map<Element, Integer> positions) {
+        Set<Element> found = new HashSet<>()
+        Deque<Element> pending = new ArrayDeque<>([icon])
+        while (!pending.isEmpty()) {
+            eachElement(pending.pop()) { Element element ->
+                referencedIds(element).each { String id ->
+                    Element target = elementsById[id]
+                    if (target != null && !contains(icon, target) && !contains(target, icon) && found.add(target)) {
+                        pending.push target
+                    }
+                }
+            }
+        }
+
+        // Leave out anything that's already inside something else being taken along
+        List<Element> referenced = (found as List<Element>).findAll { Element element ->
+            !found.any { it != element && contains(it, element) }
+        }
+        return referenced.sort { Element element -> positions[element] }
+    }
+
+    private static Set<String> referencedIds(Element element) {
+        Set<String> ids = []
+        NamedNodeMap attributes = element.attributes
+        for (int i = 0; i < attributes.length; i++) {
+            Node attribute = attributes.item(i)
+            String value = attribute.nodeValue
+            if (attribute.localName == 'href' && value.startsWith('#')) {
+                ids.add value.substring(1)
+            }
+            Matcher matcher = URL_REFERENCE.matcher(value)
+            while (matcher.find()) {
+                ids.add matcher.group(1)
+            }
+        }
+        if (element.localName == 'style') {
+            Matcher matcher = URL_REFERENCE.matcher(element.textContent)
+            while (matcher.find()) {
+                ids.add matcher.group(1)
+            }
+        }
+        return ids
+    }
+
+    private static String sheetViewBox(Element root) {
+        if (root.getAttribute('viewBox')) {
+            return root.getAttribute('viewBox')
+        }
+
+        String width = root.getAttribute('width')
+        String height = root.getAttribute('height')
+        if (isNumber(width) && isNumber(height)) {
+            return "0 0 ${stripPx(width)} ${stripPx(height)}"
+        }
+        return null
+    }
+
+    /**
+     * @return the drawable name for an icon id
+     */
+    static String drawableName(String id) {
+        return id.toLowerCase(Locale.US).replaceAll(/[^a-z0-9_]/, '_')
+    }
+
+    /**
+     * @return what every drawable name from the sprite sheet starts with
+     */
+    private static String drawablePrefix(String spriteName) {
+        String base = drawableName(spriteName.substring(0, spriteName.length() - SUFFIX.length()))
+        return base ? "${base}_" : ''
+    }
+
+    /**
+     * @return the viewBox's x, y, width and height, or null unless it is exactly four
+     * numbers with a positive width and height
+     */
+    private static float[] parseViewBox(String viewBox) {
+        String[] tokens = viewBox.trim().split(/[\s,]+/)
+        if (tokens.length != 4 || !tokens.every { String token -> token ==~ VIEW_BOX_NUMBER }) {
+            return null
+        }
+
+        float[] box = tokens.collect { it as float } as float[]
+        return box[2] > 0 && box[3] > 0 ? box : null
+    }
+
+    private static boolean isNumber(String value) {
+        return value && value ==~ NUMBER
+    }
+
+    private static String stripPx(String value) {
+        return value.trim().replaceFirst(/px$/, '')
+    }
+
+    private static String formatNumber(float value) {
+        return value == Math.rint(value) ? Integer.toString((int) value) : Float.toString(value)
+    }
+
+    private static boolean contains(Node ancestor, Node node) {
+        for (Node current = node; current != null; current = current.parentNode) {
+            if (current.is(ancestor)) {
+                return true
+            }
+        }
+        return false
+    }
+
+    private static void eachElement(Element element, Closure action) {
+        action(element)
+        for (Node child = element.firstChild; child != null; child = child.nextSibling) {
+            if (child instanceof Element) {
+                eachElement((Element) child, action)
+            }
+        }
+    }
+
+    private static byte[] serialize(Transformer transformer, Document document) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream()
+        transformer.transform(new DOMSource(document), new StreamResult(out))
+        return out.toByteArray()
+    }
+
+    private static Transformer createTransformer() {
+        Transformer transformer = TransformerFactory.newInstance().newTransformer()
+        transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, 'yes')
+        transformer.setOutputProperty(OutputKeys.ENCODING, 'UTF-8')
+        return transformer
+    }
+
+    private static DocumentBuilder createBuilder() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance()
+        factory.namespaceAware = true
+        factory.expandEntityReferences = true
+        // Exporters declare entities in the internal subset, so expand those, but never fetch anything
+        factory.setFeature('http://apache.org/xml/features/nonvalidating/load-external-dtd', false)
+        // Every node gets visited anyway, so build them all up front
+        factory.setFeature('http://apache.org/xml/features/dom/defer-node-expansion', false)
+        DocumentBuilder builder = factory.newDocumentBuilder()
+        builder.entityResolver = { String publicId, String systemId ->
+            return new InputSource(new StringReader(''))
+        } as EntityResolver
+        // Errors are thrown, so there's no need for them to be printed too
+        builder.errorHandler = new ErrorHandler() {
+            @Override
+            void warning(SAXParseException exception) {
+            }
+
+            @Override
+            void error(SAXParseException exception) {
+                throw exception
+            }
+
+            @Override
+            void fatalError(SAXParseException exception) {
+                throw exception
+            }
+        }
+        return builder
+    }
+}
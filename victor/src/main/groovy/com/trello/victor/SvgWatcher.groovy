@@ -0,0 +1,243 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trello.victor
+
+import org.slf4j.LoggerFactory
+
+import java.nio.file.ClosedWatchServiceException
+import java.nio.file.FileSystems
+import java.nio.file.Path
+import java.nio.file.StandardWatchEventKinds
+import java.nio.file.WatchEvent
+import java.nio.file.WatchKey
+import java.nio.file.WatchService
+import java.util.concurrent.TimeUnit
+
+/**
+ * Watches directories of SVGs (and everything below them) for changes, so that they can be
+ * rasterized again as soon as they are saved.
+ *
+ * Events are delivered on the thread that calls {@link #run()}, one batch at a time, which
+ * lets that thread keep a warm {@link Converter} for as long as the watch goes on.
+ *
+ * Where the JDK has no native file watching (macOS, for one), it polls instead; the watcher
+ * asks it to poll as often as it allows, which is every couple of seconds.
+ */
+class SvgWatcher implements Closeable {
+
+    /**
+     * Hears about files as they change, on the thread running the watcher.
+     */
+    interface Listener {
+        /**
+         * @param file a file that was created or modified
+         */
+        void onChanged(File file)
+
+        /**
+         * @param file a file that was deleted (or moved away)
+         */
+        void onDeleted(File file)
+    }
+
+    /**
+     * Editors often save in a few steps (truncating and then writing, or writing a temporary
+     * file and renaming it over the original), so events are collected until none have come
+     * in for this long. It's well below what anyone would notice.
+     */
+    static final long SETTLE_MILLIS = 30
+
+    // How often to check whether the watcher was closed or interrupted while nothing happens
+    private static final long POLL_MILLIS = 250
+
+    private static final WatchEvent.Kind<?>[] KINDS = [
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_MODIFY,
+            StandardWatchEventKinds.ENTRY_DELETE
+    ] as WatchEvent.Kind<?>[]
+
+    private static final WatchEvent.Modifier[] MODIFIERS = createModifiers()
+
+    private final List<File> directories
+
+    private final FileFilter filter
+
+    private final Listener listener
+
+    private final WatchService watchService
+
+    private final Map<WatchKey, Path> watchedDirectories = [:]
+
+    private volatile boolean closed
+
+    /**
+     * Starts watching right away, so that nothing that changes before {@link #run()} is
+     * called gets missed. Directories that don't exist are ignored.
+     *
+     * @param directories the directories to watch, along with all of their subdirectories
+     * @param filter which files to report
+     * @param listener what to tell about them
+     */
+    SvgWatcher(List<File> directories, FileFilter filter, Listener listener) throws IOException {
+        this.directories = directories
+        this.filter = filter
+        this.listener = listener
+        watchService = FileSystems.default.newWatchService()
+        directories.findAll { it.isDirectory() }.each { File directory ->
+            register(directory)
+        }
+    }
+
+    /**
+     * @return how many directories are being watched, including subdirectories
+     */
+    int getWatchedDirectoryCount() {
+        return watchedDirectories.size()
+    }
+
+    /**
+     * Reports changes until the watcher is closed or the thread is interrupted.
+     */
+    void run() {
+        try {
+            while (!closed) {
+                WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS)
+                if (key == null) {
+                    continue
+                }
+
+                Set<Path> changed = new LinkedHashSet<>()
+                boolean overflowed = false
+                while (key != null) {
+                    overflowed |= collect(key, changed)
+                    key = watchService.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS)
+                }
+                dispatch(changed, overflowed)
+            }
+        }
+        catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt()
+        }
+        catch (ClosedWatchServiceException ignored) {
+            // Closed from another thread
+        }
+    }
+
+    @Override
+    void close() {
+        closed = true
+        watchService.close()
+    }
+
+    /**
+     * Takes the paths out of a key's events.
+     *
+     * @return true if events were lost, because too many came in at once
+     */
+    private boolean collect(WatchKey key, Set<Path> changed) {
+        boolean overflowed = false
+        Path directory = watchedDirectories[key]
+        key.pollEvents().each { WatchEvent<?> event ->
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflowed = true
+            }
+            else if (directory != null) {
+                changed.add directory.resolve(event.context() as Path)
+            }
+        }
+
+        if (!key.reset()) {
+            // The directory itself is gone
+            watchedDirectories.remove(key)
+        }
+        return overflowed
+    }
+
+    private void dispatch(Set<Path> changed, boolean overflowed) {
+        if (overflowed) {
+            // No telling what was missed, so go over everything again
+            directories.findAll { it.isDirectory() }.each { File directory ->
+                register(directory)
+                changedBelow(directory)
+            }
+            return
+        }
+
+        changed.each { Path path ->
+            File file = path.toFile()
+            if (file.isDirectory()) {
+                // Anything created along with it came in before it could be watched
+                register(file)
+                changedBelow(file)
+            }
+            else if (filter.accept(file)) {
+                notify(file, file.isFile())
+            }
+        }
+    }
+
+    private void changedBelow(File directory) {
+        directory.eachFileRecurse { File file ->
+            if (file.isFile() && filter.accept(file)) {
+                notify(file, true)
+            }
+        }
+    }
+
+    private void notify(File file, boolean exists) {
+        try {
+            if (exists) {
+                listener.onChanged(file)
+            }
+            else {
+                listener.onDeleted(file)
+            }
+        }
+        catch (Exception e) {
+            // Keep watching; the next save may well fix it
+            LoggerFactory.getLogger(SvgWatcher).error("Could not handle a change to $file", e)
+        }
+    }
+
+    private void register(File directory) {
+        Set<Path> watched = watchedDirectories.values() as Set
+        ([directory] + collectDirectories(directory)).each { File dir ->
+            Path path = dir.toPath()
+            if (!watched.contains(path)) {
+                watchedDirectories[path.register(watchService, KINDS, MODIFIERS)] = path
+            }
+        }
+    }
+
+    private static List<File> collectDirectories(File directory) {
+        List<File> subdirectories = []
+        directory.eachDirRecurse { File dir -> subdirectories.add dir }
+        return subdirectories
+    }
+
+    private static WatchEvent.Modifier[] createModifiers() {
+        // Only the JDK's polling watch service looks at this, to poll every 2 seconds instead of 10
+        try {
+            Class<?> sensitivity = Class.forName('com.sun.nio.file.SensitivityWatchEventModifier')
+            return [sensitivity.getField('HIGH').get(null)] as WatchEvent.Modifier[]
+        }
+        catch (ReflectiveOperationException ignored) {
+            return new WatchEvent.Modifier[0]
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.gradle.api.GradleException
+
+/**
+ * Works out which densities a variant needs its SVGs rasterized for.
+ *
+ * Every setting that applies to a variant can only narrow down the densities
+ * it gets: excludeDensities, the variant's entries in buildTypeDensities and
+ * flavorDensities, and (unless turned off) any densities in its resConfigs,
+ * since the Android plugin strips every other density out of the APK anyway.
+ */
+class VariantDensities {
+
+    private static final Map<String, Density> BY_QUALIFIER = Density.values().collectEntries { Density density ->
+        [(density.name().toLowerCase()): density]
+    }
+
+    /**
+     * @param victor the plugin's configuration
+     * @param variantName the variant's name, for error messages
+     * @param buildType the variant's build type
+     * @param flavors the variant's product flavors
+     * @param resourceConfigurations the variant's resConfigs
+     * @return the densities to rasterize for, in order
+     */
+    static List<Density> select(VictorPluginExtension victor, String variantName, String buildType,
+                                List<String> flavors, Collection<String> resourceConfigurations) {
+        Set<Density> densities = Density.values() as Set
+        densities.removeAll(parse(victor.excludeDensities, 'excludeDensities'))
+
+        if (victor.buildTypeDensities.containsKey(buildType)) {
+            densities.retainAll(parse(victor.buildTypeDensities[buildType], "buildTypeDensities.$buildType"))
+        }
+        flavors.each { String flavor ->
+            if (victor.flavorDensities.containsKey(flavor)) {
+                densities.retainAll(parse(victor.flavorDensities[flavor], "flavorDensities.$flavor"))
+            }
+        }
+
+        if (victor.inferDensitiesFromResConfigs) {
+            // Other qualifiers (languages, tvdpi, 420dpi...) don't tell us anything about ours
+            Set<Density> shipped = resourceConfigurations.findResults { BY_QUALIFIER[it.toLowerCase()] } as Set
+            if (!shipped.empty) {
+                densities.retainAll(shipped)
+            }
+        }
+
+        if (densities.empty) {
+            throw new GradleException("No densities left to rasterize SVGs for in variant $variantName; " +
+                    'check excludeDensities, buildTypeDensities, flavorDensities and resConfigs')
+        }
+        return densities.sort()
+    }
+
+    private static Set<Density> parse(List<String> names, String setting) {
+        return names.collect { String name ->
+            Density density = BY_QUALIFIER[name.toLowerCase()]
+            if (density == null) {
+                throw new GradleException("Unknown density '$name' in $setting; " +
+                        "must be one of ${BY_QUALIFIER.keySet().join(', ')}")
+            }
+            return density
+        } as Set
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import com.romainpiel.svgtoandroid.Svg2Vector
+
+/**
+ * Converts SVGs to Android vector drawables.
+ *
+ * Like {@link Converter}, outputs are looked up in (and stored into) the render
+ * cache, and are only written when their content changes. Errors don't stop the
+ * conversion; they are collected so that every broken SVG can be reported at once.
+ */
+class VectorConverter {
+
+    /**
+     * Bump the svgtoandroid version here along with the dependency, so that cached outputs are redone.
+     */
+    static final String ENCODING = 'vector-xml/svgtoandroid-0.1.0'
+
+    private RenderCache cache
+
+    /**
+     * Shrinks converted drawables; null to keep them as svgtoandroid writes them.
+     */
+    VectorDrawableOptimizer optimizer
+
+    /**
+     * The errors of every SVG that could not be converted, in order.
+     */
+    final List<String> errors = []
+
+    /**
+     * How much the optimizer shrank each drawable it converted, as maps of the SVG's
+     * name (`svg`) to the drawable's size before (`originalBytes`) and after
+     * (`optimizedBytes`) optimizing.
+     */
+    final List<Map<String, Object>> savings = []
+
+    /**
+     * @param cache where to look up and store converted drawables; null to always convert
+     */
+    VectorConverter(RenderCache cache = null) {
+        this.cache = cache
+    }
+
+    /**
+     * Describes how drawables are produced, for telling apart cached outputs.
+     */
+    String getEncoding() {
+        return optimizer != null ? "$ENCODING/$optimizer.encoding" : ENCODING
+    }
+
+    /**
+     * Converts an SVG to a vector drawable. On failure, the error is added to
+     * {@link #errors} and any previous output is deleted.
+     *
+     * @return true if the destination changed
+     */
+    boolean convert(File svgFile, File destination) {
+        String key = null
+        String contentHash = cache != null ? RenderCache.contentHash(svgFile) : null
+        if (contentHash != null) {
+            key = cache.key(contentHash, encoding)
+            RenderCache.Restored restored = cache.restore(key, destination)
+            if (restored != RenderCache.Restored.MISS) {
+                return restored == RenderCache.Restored.WRITTEN
+            }
+        }
+
+        ByteArrayOutputStream outStream = new ByteArrayOutputStream()
+        String error
+        try {
+            error = Svg2Vector.parseSvgToXml(svgFile, outStream)
+        }
+        catch (Exception e) {
+            error = e.toString()
+        }
+
+        if (error) {
+            errors.add "$svgFile.name: $error".toString()
+            destination.delete()
+            return false
+        }
+
+        byte[] xml = outStream.toByteArray()
+        if (optimizer != null) {
+            byte[] optimized = optimizer.optimize(xml)
+            savings.add([svg: svgFile.name, originalBytes: xml.length, optimizedBytes: optimized.length])
+            xml = optimized
+        }
+
+        boolean changed = StableOutput.write(destination, xml)
+        if (key != null) {
+            cache.store(key, destination)
+        }
+        return changed
+    }
+}
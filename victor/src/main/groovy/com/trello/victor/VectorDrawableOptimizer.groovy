@@ -0,0 +1,328 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.w3c.dom.Attr
+import org.w3c.dom.Document
+import org.w3c.dom.Element
+import org.w3c.dom.NamedNodeMap
+import org.w3c.dom.Node
+
+import javax.xml.XMLConstants
+import javax.xml.parsers.DocumentBuilder
+import javax.xml.parsers.DocumentBuilderFactory
+import java.awt.geom.Rectangle2D
+
+/**
+ * Shrinks vector drawables without changing how they look, which makes them
+ * smaller in the APK and quicker to inflate and parse on devices.
+ *
+ * - Path data is rounded and rewritten compactly (see {@link PathData}).
+ * - Groups without transforms, names or clip paths are replaced by their children.
+ * - Consecutive paths with the same style are merged, but only when they don't
+ *   overlap: overlapping paths could render differently as one (where their
+ *   windings cancel out, or where translucent fills would have been drawn twice).
+ */
+class VectorDrawableOptimizer {
+
+    static final String ANDROID_NAMESPACE = 'http://schemas.android.com/apk/res/android'
+
+    // Group attributes and the values for which they leave the group's children untouched
+    private static final Map<String, Double> IDENTITY_TRANSFORM = [
+            rotation: 0d, scaleX: 1d, scaleY: 1d, translateX: 0d, translateY: 0d
+    ]
+
+    // Attributes that make a path unsafe to merge with another
+    private static final Set<String> UNMERGEABLE_ATTRIBUTES = ['name', 'trimPathStart', 'trimPathEnd', 'trimPathOffset'] as Set
+
+    private static final int INDENT = 4
+
+    /** How many decimal places to keep in path data. */
+    final int precision
+
+    VectorDrawableOptimizer(int precision) {
+        this.precision = precision
+    }
+
+    /**
+     * Describes the optimization, for telling apart cached outputs.
+     */
+    String getEncoding() {
+        return "optimized-p$precision"
+    }
+
+    /**
+     * @return the optimized drawable, or the original if it couldn't be made any smaller
+     */
+    byte[] optimize(byte[] xml) {
+        Document document
+        try {
+            document = createBuilder().parse(new ByteArrayInputStream(xml))
+        }
+        catch (Exception ignored) {
+            return xml
+        }
+
+        Element root = document.documentElement
+        if (root.localName != 'vector') {
+            return xml
+        }
+
+        removeWhitespace(root)
+        optimizeChildren(root)
+
+        byte[] optimized = serialize(root).getBytes('UTF-8')
+        return optimized.length < xml.length ? optimized : xml
+    }
+
+    private void optimizeChildren(Element parent) {
+        // Collapse groups first, so that paths that were in separate groups can be merged
+        childElements(parent).each { Element child ->
+            if (child.localName == 'group') {
+                optimizeChildren(child)
+                if (isCollapsible(child)) {
+                    childElements(child).each { Element grandchild ->
+                        parent.insertBefore(grandchild, child)
+                    }
+                    parent.removeChild(child)
+                }
+            }
+        }
+
+        Map<Element, Rectangle2D> bounds = [:]
+        childElements(parent).each { Element child ->
+            if (child.localName == 'path' && child.hasAttributeNS(ANDROID_NAMESPACE, 'pathData')) {
+                PathData pathData = PathData.rewrite(child.getAttributeNS(ANDROID_NAMESPACE, 'pathData'), precision)
+                if (pathData != null) {
+                    child.setAttributeNS(ANDROID_NAMESPACE, 'android:pathData', pathData.data)
+                    Rectangle2D drawn = drawnBounds(child, pathData.bounds)
+                    if (drawn != null) {
+                        bounds[child] = drawn
+                    }
+                }
+            }
+        }
+
+        mergePaths(parent, bounds)
+    }
+
+    private void mergePaths(Element parent, Map<Element, Rectangle2D> bounds) {
+        Element merged = null
+        Rectangle2D mergedBounds = null
+        childElements(parent).each { Element child ->
+            Rectangle2D childBounds = bounds[child]
+            boolean canMerge = childBounds != null && !child.hasChildNodes() &&
+                    !UNMERGEABLE_ATTRIBUTES.any { child.hasAttributeNS(ANDROID_NAMESPACE, it) }
+            if (merged != null && canMerge && sameStyle(merged, child) && !overlaps(mergedBounds, childBounds)) {
+                String pathData = merged.getAttributeNS(ANDROID_NAMESPACE, 'pathData') +
+                        child.getAttributeNS(ANDROID_NAMESPACE, 'pathData')
+                // Rewriting again lets the second path start with a relative move
+                merged.setAttributeNS(ANDROID_NAMESPACE, 'android:pathData',
+                        PathData.rewrite(pathData, precision)?.data ?: pathData)
+                mergedBounds.add(childBounds)
+                parent.removeChild(child)
+                return
+            }
+
+            merged = canMerge ? child : null
+            mergedBounds = canMerge ? (Rectangle2D) childBounds.clone() : null
+        }
+    }
+
+    /**
+     * Widens the path's bounds by however far its stroke can reach.
+     *
+     * @return the area the path can draw into, or null if that isn't known
+     */
+    private static Rectangle2D drawnBounds(Element path, Rectangle2D bounds) {
+        if (bounds == null) {
+            return null
+        }
+
+        double strokeWidth = 0
+        double miterLimit = 4
+        try {
+            if (path.hasAttributeNS(ANDROID_NAMESPACE, 'strokeWidth')) {
+                strokeWidth = Double.parseDouble(path.getAttributeNS(ANDROID_NAMESPACE, 'strokeWidth'))
+            }
+            if (path.hasAttributeNS(ANDROID_NAMESPACE, 'strokeMiterLimit')) {
+                miterLimit = Double.parseDouble(path.getAttributeNS(ANDROID_NAMESPACE, 'strokeMiterLimit'))
+            }
+        }
+        catch (NumberFormatException ignored) {
+            // A resource reference; can't tell how wide it is
+            return null
+        }
+
+        // Miter joins reach furthest, square caps up to sqrt(2) half-widths
+        double reach = strokeWidth / 2 * Math.max(miterLimit, Math.sqrt(2))
+        return new Rectangle2D.Double(bounds.x - reach, bounds.y - reach,
+                bounds.width + reach * 2, bounds.height + reach * 2)
+    }
+
+    private static boolean overlaps(Rectangle2D a, Rectangle2D b) {
+        // Touching counts too, since antialiasing along a shared edge would differ
+        return a.minX <= b.maxX && b.minX <= a.maxX && a.minY <= b.maxY && b.minY <= a.maxY
+    }
+
+    private static boolean sameStyle(Element a, Element b) {
+        return styleOf(a) == styleOf(b)
+    }
+
+    private static Map<String, String> styleOf(Element path) {
+        Map<String, String> style = [:]
+        NamedNodeMap attributes = path.attributes
+        for (int i = 0; i < attributes.length; i++) {
+            Attr attribute = (Attr) attributes.item(i)
+            if (!(attribute.namespaceURI == ANDROID_NAMESPACE && attribute.localName == 'pathData')) {
+                style["{$attribute.namespaceURI}$attribute.localName".toString()] = attribute.value
+            }
+        }
+        return style
+    }
+
+    private static boolean isCollapsible(Element group) {
+        if (childElements(group).any { it.localName == 'clip-path' }) {
+            return false
+        }
+
+        NamedNodeMap attributes = group.attributes
+        for (int i = 0; i < attributes.length; i++) {
+            Attr attribute = (Attr) attributes.item(i)
+            if (attribute.namespaceURI == XMLConstants.XMLNS_ATTRIBUTE_NS_URI) {
+                continue
+            }
+            if (attribute.namespaceURI != ANDROID_NAMESPACE) {
+                return false
+            }
+
+            // Without rotation or scaling, the pivot doesn't matter
+            if (attribute.localName in ['pivotX', 'pivotY']) {
+                continue
+            }
+
+            Double identity = IDENTITY_TRANSFORM[attribute.localName]
+            if (identity == null) {
+                return false
+            }
+            try {
+                if (Double.parseDouble(attribute.value) != identity) {
+                    return false
+                }
+            }
+            catch (NumberFormatException ignored) {
+                return false
+            }
+        }
+        return true
+    }
+
+    private static List<Element> childElements(Element parent) {
+        List<Element> elements = []
+        for (Node node = parent.firstChild; node != null; node = node.nextSibling) {
+            if (node.nodeType == Node.ELEMENT_NODE) {
+                elements.add((Element) node)
+            }
+        }
+        return elements
+    }
+
+    private static void removeWhitespace(Node node) {
+        Node child = node.firstChild
+        while (child != null) {
+            Node next = child.nextSibling
+            if (child.nodeType == Node.TEXT_NODE && child.nodeValue.trim().isEmpty()) {
+                node.removeChild(child)
+            }
+            else if (child.nodeType == Node.COMMENT_NODE) {
+                node.removeChild(child)
+            }
+            else if (child.nodeType == Node.ELEMENT_NODE) {
+                removeWhitespace(child)
+            }
+            child = next
+        }
+    }
+
+    /**
+     * Writes the drawable the way Android Studio formats XML: the first attribute
+     * on the element's line, and every other one on a line of its own.
+     */
+    private static String serialize(Element root) {
+        StringBuilder out = new StringBuilder('<?xml version="1.0" encoding="utf-8"?>\n')
+        serialize(root, 0, out)
+        return out.toString()
+    }
+
+    private static void serialize(Element element, int depth, StringBuilder out) {
+        String indent = ' ' * (depth * INDENT)
+        out.append(indent).append('<').append(element.tagName)
+
+        // Namespace declarations first, then everything else (which the DOM keeps in name order)
+        List<Attr> attributes = []
+        NamedNodeMap attributeMap = element.attributes
+        for (int i = 0; i < attributeMap.length; i++) {
+            attributes.add((Attr) attributeMap.item(i))
+        }
+        attributes = attributes.findAll { it.namespaceURI == XMLConstants.XMLNS_ATTRIBUTE_NS_URI } +
+                attributes.findAll { it.namespaceURI != XMLConstants.XMLNS_ATTRIBUTE_NS_URI }
+
+        attributes.eachWithIndex { Attr attribute, int index ->
+            if (index > 0) {
+                out.append('\n').append(indent).append(' ' * INDENT)
+            }
+            else {
+                out.append(' ')
+            }
+            out.append(attribute.name).append('="').append(escape(attribute.value)).append('"')
+        }
+
+        List<Element> children = childElements(element)
+        String text = element.textContent
+        if (children.empty && text.isEmpty()) {
+            out.append('/>\n')
+            return
+        }
+
+        out.append('>')
+        if (children.empty) {
+            out.append(escapeText(text))
+        }
+        else {
+            out.append('\n')
+            children.each { Element child -> serialize(child, depth + 1, out) }
+            out.append(indent)
+        }
+        out.append('</').append(element.tagName).append('>\n')
+    }
+
+    private static String escape(String value) {
+        return escapeText(value).replace('"', '&quot;')
+    }
+
+    private static String escapeText(String text) {
+        return text.replace('&', '&amp;').replace('<', '&lt;').replace('>', '&gt;')
+    }
+
+    private static DocumentBuilder createBuilder() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance()
+        factory.namespaceAware = true
+        factory.expandEntityReferences = false
+        factory.setFeature('http://apache.org/xml/features/disallow-doctype-decl', true)
+        return factory.newDocumentBuilder()
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import groovy.json.JsonOutput
+import org.gradle.api.logging.Logging
+import org.gradle.workers.WorkAction
+
+/**
+ * Converts a batch of SVGs to vector drawables on a Gradle worker.
+ */
+abstract class VectorizeWorkAction implements WorkAction<VectorizeWorkParameters> {
+
+    @Override
+    void execute() {
+        File cacheDir = parameters.cacheDir.getOrNull()
+        RenderCache cache = cacheDir != null ? new RenderCache(cacheDir, parameters.cacheMaxSize.get()) : null
+        VectorConverter converter = new VectorConverter(cache)
+        Integer vectorPrecision = parameters.vectorPrecision.getOrNull()
+        if (vectorPrecision != null) {
+            converter.optimizer = new VectorDrawableOptimizer(vectorPrecision)
+        }
+
+        int changed = 0
+        parameters.destinations.get().each { File source, File destination ->
+            if (converter.convert(source, destination)) {
+                changed++
+            }
+            Logging.getLogger(this.class).info("Converted $source to $destination")
+        }
+
+        parameters.resultFile.get().setText(JsonOutput.toJson([changed: changed, errors: converter.errors, savings: converter.savings]), 'UTF-8')
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.gradle.api.provider.MapProperty
+import org.gradle.api.provider.Property
+import org.gradle.workers.WorkParameters
+
+/**
+ * Parameters for a single batch of vector drawable conversions.
+ */
+interface VectorizeWorkParameters extends WorkParameters {
+
+    /**
+     * The SVGs to convert in this batch, and where to write each one.
+     */
+    MapProperty<File, File> getDestinations()
+
+    /**
+     * How many decimal places to round path data to; unset to leave drawables unoptimized.
+     */
+    Property<Integer> getVectorPrecision()
+
+    /**
+     * Where to cache converted drawables; unset to disable the cache.
+     */
+    Property<File> getCacheDir()
+
+    /**
+     * The size, in bytes, of the cache.
+     */
+    Property<Long> getCacheMaxSize()
+
+    /**
+     * Where to write the number of outputs this batch changed, its errors and its savings, as JSON.
+     */
+    Property<File> getResultFile()
+}
@@ -18,69 +18,130 @@ package com.trello.victor
 
 import org.gradle.api.Plugin
 import org.gradle.api.Project
-import org.gradle.api.Task
 import org.gradle.api.file.FileCollection
 import org.gradle.api.file.SourceDirectorySet
+import org.gradle.api.provider.Provider
+import org.gradle.api.tasks.TaskProvider
 
+/**
+ * Rasterizes each variant's SVGs into generated resources.
+ *
+ * Nothing is configured until it is needed: tasks are registered rather than created, and no
+ * SVG directory is looked at until a task runs. Variants without SVGs still get tasks, which
+ * are skipped as having no source.
+ */
 class VictorPlugin implements Plugin<Project> {
 
     void apply(Project project) {
-        project.extensions.create('victor', VictorPluginExtension)
+        VictorPluginExtension extension = project.extensions.create('victor', VictorPluginExtension)
 
         // Add 'svg' as a source set extension
         project.android.sourceSets.all { sourceSet ->
             SourceDirectorySet sds = project.objects.sourceDirectorySet(sourceSet.name, "${sourceSet.name} svgs")
+            sds.include '**/*.svg'
             sourceSet.extensions.add('svg', sds)
         }
 
-        project.afterEvaluate {
-            List<Density> densities = Density.values()
-            project.victor.excludeDensities.each { String density ->
-                densities.remove(Density.valueOf(density.toUpperCase()))
-            }
+        // One warm rendering engine for every variant (and every project) in the build
+        Provider<RenderEngineService> renderEngine = RenderEngineService.register(project)
 
-            // Keep order consistent
-            densities = densities.sort()
+        def variants = null
+        if (project.android.hasProperty('applicationVariants')) {
+            variants = project.android.applicationVariants
+        }
+        else if (project.android.hasProperty('libraryVariants')) {
+            variants = project.android.libraryVariants
+        }
+        else {
+            throw new IllegalStateException('Android project must have applicationVariants or libraryVariants!')
+        }
 
-            def variants = null
-            if (project.android.hasProperty('applicationVariants')) {
-                variants = project.android.applicationVariants
-            }
-            else if (project.android.hasProperty('libraryVariants')) {
-                variants = project.android.libraryVariants
-            }
-            else {
-                throw new IllegalStateException('Android project must have applicationVariants or libraryVariants!')
-            }
+        // Variants are only created once the project has been evaluated, so `victor` is configured by then
+        variants.all { variant ->
+            registerTasks(project, extension, variant, renderEngine)
+        }
+    }
 
-            // Register our task with the variant's resources
-            variants.all { variant ->
-                // TODO: Use lazier evaluation for files by sticking this in a prep task?
-                FileCollection svgFiles = project.files()
-                variant.sourceSets.each { sourceSet ->
-                    FileCollection filteredCollection = sourceSet.svg.filter { File file ->
-                        file.name.endsWith '.svg'
-                    }
-                    svgFiles.from filteredCollection
-                }
+    private static void registerTasks(Project project, VictorPluginExtension extension, variant,
+                                      Provider<RenderEngineService> renderEngine) {
+        String taskSuffix = variant.name.capitalize()
+        FileCollection svgFiles = project.files(variant.sourceSets.collect { it.svg })
 
-                if (svgFiles.empty) {
-                    return
-                }
+        TaskProvider<NormalizeSvgsTask> normalizeTask = project.tasks.register("normalizeSvgsFor$taskSuffix",
+                NormalizeSvgsTask) { NormalizeSvgsTask task ->
+            task.sources.from svgFiles
+            task.outputDir = project.file("$project.buildDir/intermediates/victor/normalized/$variant.dirName/")
+        }
 
+        File conversionOutputDir =
+                project.file("$project.buildDir/generated/res/$variant.flavorName/$variant.buildType.name/svg/")
+        TaskProvider<RasterizeTask> conversionTask = project.tasks.register("rasterizeSvgsFor$taskSuffix",
+                RasterizeTask) { RasterizeTask task ->
+            List<Density> densities = VariantDensities.select(extension, variant.name, variant.buildType.name,
+                    variant.productFlavors*.name, variant.mergedFlavor.resourceConfigurations)
+            if (!extension.generateVectorDrawables) {
+                project.logger.info("Rasterizing SVGs for $variant.name at ${densities*.name()*.toLowerCase().join(', ')}")
+            }
 
-                File conversionOutputDir = project.file("$project.buildDir/generated/res/$flavorName/$buildType.name/svg/")
-                Task conversionTask = project.task("rasterizeSvgsFor${variant.name.capitalize()}", type: RasterizeTask) {
-                    sources = svgFiles
-                    outputDir = conversionOutputDir
-                    includeDensities = densities
-                    baseDpi = project.victor.svgDpi
-                    generateVectorDrawables = project.victor.generateVectorDrawables
-                }
+            task.sources.from svgFiles
+            task.normalizedSources.from normalizeTask
+            task.outputDir = conversionOutputDir
+            task.renderDir = project.file("$project.buildDir/intermediates/victor/state/$variant.dirName/res/")
+            task.manifestFile = project.file("$project.buildDir/intermediates/victor/state/$variant.dirName/manifest.json")
+            task.includeDensities = densities
+            task.baseDpi = extension.svgDpi
+            task.generateVectorDrawables = extension.generateVectorDrawables
+            task.vectorPrecision = extension.optimizeVectorDrawables ? extension.vectorDrawablePrecision : null
+            task.outputFormat = extension.outputFormat
+            task.webpQuality = extension.webpQuality
+            task.pngCompressionLevel = variant.buildType.debuggable && extension.debugPngCompressionLevel != null ?
+                    extension.debugPngCompressionLevel : extension.pngCompressionLevel
+            task.optimizePngs = extension.optimizePngs
+            task.pngQuantizationMaxError = extension.pngQuantizationMaxError
+            task.downscaleFromDensity = extension.downscaleFromDensity
+            task.fullRenderPatterns = extension.fullRenderSvgs
+            task.maxParallelism = extension.maxParallelism
+            task.workerIsolation = extension.workerIsolation
+            task.cacheDir = renderCacheDir(project, extension)
+            task.cacheMaxSize = extension.cacheMaxSizeMb * 1024L * 1024L
+            task.reportDir = project.file("$project.buildDir/reports/victor")
+            task.logSlowestSvgs = extension.logSlowestSvgs
+            task.renderEngineService.set renderEngine
+            task.usesService renderEngine
+        }
 
-                // Makes the magic happen (inserts resources so devs can use it)
-                variant.registerResGeneratingTask(conversionTask, conversionTask.outputDir)
-            }
+        // Makes the magic happen (inserts resources so devs can use it)
+        variant.registerGeneratedResFolders(project.files(conversionOutputDir).builtBy(conversionTask))
+
+        // Converts SVGs again as they're saved, starting from up-to-date outputs
+        project.tasks.register("watchSvgsFor$taskSuffix", WatchSvgsTask) { WatchSvgsTask task ->
+            RasterizeTask rasterizeTask = conversionTask.get()
+            task.description = "Converts $variant.name SVGs again as soon as they change, until stopped."
+            task.dependsOn conversionTask
+            task.svgDirs = variant.sourceSets.collectMany { it.svg.srcDirs as List<File> }
+            task.outputDir = conversionOutputDir
+            task.includeDensities = rasterizeTask.includeDensities
+            task.baseDpi = rasterizeTask.baseDpi
+            task.generateVectorDrawables = rasterizeTask.generateVectorDrawables
+            task.vectorPrecision = rasterizeTask.vectorPrecision
+            task.outputFormat = rasterizeTask.outputFormat
+            task.webpQuality = rasterizeTask.webpQuality
+            task.pngCompressionLevel = rasterizeTask.pngCompressionLevel
+            task.optimizePngs = rasterizeTask.optimizePngs
+            task.pngQuantizationMaxError = rasterizeTask.pngQuantizationMaxError
+            task.downscaleFromDensity = rasterizeTask.downscaleFromDensity
+            task.fullRenderPatterns = rasterizeTask.fullRenderPatterns
+            task.cacheDir = rasterizeTask.cacheDir
+            task.cacheMaxSize = rasterizeTask.cacheMaxSize
+            task.renderEngineService.set renderEngine
+            task.usesService renderEngine
+        }
+    }
+
+    private static File renderCacheDir(Project project, VictorPluginExtension extension) {
+        if (!extension.cacheEnabled) {
+            return null
         }
+        return extension.cacheDir ?: new File(project.gradle.gradleUserHomeDir, 'caches/victor')
     }
-}
\ No newline at end of file
+}
@@ -42,6 +42,39 @@ class VictorPluginExtension {
      */
     List<String> excludeDensities = []
 
+    /**
+     * Densities to generate for particular build types, by build type name.
+     * For example, [debug: ['xxhdpi']] only rasterizes one density for debug
+     * builds, which is all a developer's own device needs.
+     *
+     * Each variant only gets the densities allowed by every setting that
+     * applies to it: excludeDensities, buildTypeDensities, flavorDensities
+     * and its resConfigs.
+     *
+     * If not set, every build type gets every density.
+     */
+    Map<String, List<String>> buildTypeDensities = [:]
+
+    /**
+     * Densities to generate for particular product flavors, by flavor name,
+     * in the same way as buildTypeDensities.
+     *
+     * If not set, every flavor gets every density.
+     */
+    Map<String, List<String>> flavorDensities = [:]
+
+    /**
+     * If set to true, variants whose resConfigs include densities (for
+     * example resConfigs 'xxhdpi') only get those densities, since the
+     * Android plugin would strip out the others.
+     *
+     * Density splits don't narrow anything down: the APK for devices that
+     * don't match any split still needs every density.
+     *
+     * The default value is true
+     */
+    boolean inferDensitiesFromResConfigs = true
+
     /**
      * [Experimental]
      *
@@ -55,4 +88,154 @@ class VictorPluginExtension {
      */
     boolean generateVectorDrawables = false
 
+    /**
+     * If set to true, generated vector drawables are optimized: path data is
+     * rounded and rewritten compactly, redundant groups are removed and paths
+     * that share a style are merged. Only used with generateVectorDrawables.
+     *
+     * The default value is false
+     */
+    boolean optimizeVectorDrawables = false
+
+    /**
+     * How many decimal places to round vector drawable path data to, when
+     * optimizeVectorDrawables is set.
+     *
+     * The default value is 3.
+     */
+    int vectorDrawablePrecision = 3
+
+    /**
+     * The format to rasterize SVGs to: 'png' or 'webp'. WebPs are usually a
+     * good deal smaller than PNGs, but need a minSdkVersion of 18 for
+     * lossless or translucent images (14 for lossy, opaque ones).
+     *
+     * The default value is 'png'.
+     */
+    String outputFormat = 'png'
+
+    /**
+     * The quality, from 0 (smallest) to 100 (best), to encode lossy WebPs
+     * at when outputFormat is 'webp'.
+     *
+     * If not set, WebPs are lossless.
+     */
+    Integer webpQuality = null
+
+    /**
+     * The deflater level, from 0 (fastest) to 9 (smallest), to encode PNGs
+     * with. Setting this switches to a pooled Image I/O PNG encoder, which
+     * needs Java 9 or later to choose its level; the build fails on Java 8.
+     *
+     * If not set, the default Batik encoder is used.
+     */
+    Integer pngCompressionLevel = null
+
+    /**
+     * The deflater level to encode PNGs with for debuggable build types,
+     * so that debug builds can trade size for speed.
+     *
+     * If not set, pngCompressionLevel is used for every build type.
+     */
+    Integer debugPngCompressionLevel = null
+
+    /**
+     * If set to true, PNGs with 256 colors or fewer (counting alpha) are
+     * written as indexed PNGs with a palette whenever that comes out smaller,
+     * which it usually does for flat-colored icons. The pixels stay exactly
+     * the same. How many bytes this saved at each density is logged after
+     * rasterizing. Has no effect on WebPs.
+     *
+     * The default value is false
+     */
+    boolean optimizePngs = false
+
+    /**
+     * When optimizePngs is set, PNGs with more than 256 colors are quantized
+     * down to a palette too, as long as the colors are off by no more than
+     * this: the root-mean-square error of each channel, from 0 to 255. Around
+     * 1 is hard to see in icons; gradients and photos usually go over it and
+     * are left alone.
+     *
+     * If not set, PNGs are never quantized.
+     */
+    Double pngQuantizationMaxError = null
+
+    /**
+     * [Experimental]
+     *
+     * If set, each SVG is only rendered at this density (and any larger ones);
+     * smaller densities are downscaled from that render instead of being
+     * rendered from scratch. This is much faster for SVGs with expensive
+     * filters and gradients, at the cost of slightly softer edges.
+     *
+     * Possible values: ldpi, mdpi, hdpi, xhdpi, xxhdpi, xxxhdpi
+     *
+     * If not set, every density is rendered directly.
+     */
+    String downscaleFromDensity = null
+
+    /**
+     * Glob patterns (e.g. 'ic_hairline_*.svg') of SVGs to always render directly
+     * at every density, even when downscaleFromDensity is set. Use this for
+     * icons with thin lines that need to snap to the pixel grid.
+     */
+    List<String> fullRenderSvgs = []
+
+    /**
+     * The maximum number of SVG/density pairs to rasterize (or SVGs to
+     * convert to vector drawables) at once.
+     *
+     * When greater than 1, conversion is handed off to Gradle workers.
+     * Gradle's own --max-workers limit still applies on top of this.
+     *
+     * The default value is 1 (rasterize serially).
+     */
+    int maxParallelism = 1
+
+    /**
+     * How parallel rasterization workers are isolated from the build. Only
+     * used when maxParallelism is greater than 1.
+     *
+     * Possible values: none (run inside the Gradle daemon), process (run in
+     * separate worker processes)
+     *
+     * The default value is none.
+     */
+    String workerIsolation = 'none'
+
+    /**
+     * If set to true, rasterized PNGs are cached on disk by the content of
+     * their SVG, so that the same SVG is only rasterized once no matter how
+     * many variants (or branches, or projects) use it.
+     *
+     * The default value is true
+     */
+    boolean cacheEnabled = true
+
+    /**
+     * Where to keep the PNG cache.
+     *
+     * The default value is caches/victor in the Gradle user home, so that
+     * it is shared by every project on the machine.
+     */
+    File cacheDir = null
+
+    /**
+     * The size, in megabytes, the PNG cache is allowed to grow to; the least
+     * recently used PNGs are removed once it grows past this.
+     *
+     * The default value is 512.
+     */
+    int cacheMaxSizeMb = 512
+
+    /**
+     * How many of the slowest SVGs to list at the end of each rasterize task.
+     * Timings for every SVG and density are always written to
+     * build/reports/victor/, as JSON and CSV.
+     *
+     * The default value is 10; set it to 0 to list none.
+     */
+    int logSlowestSvgs = 10
+
 }
@@ -0,0 +1,316 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trello.victor
+
+import org.gradle.api.DefaultTask
+import org.gradle.api.GradleException
+import org.gradle.api.provider.Property
+import org.gradle.api.tasks.Internal
+import org.gradle.api.tasks.TaskAction
+
+import javax.annotation.Nullable
+import java.util.concurrent.TimeUnit
+
+/**
+ * Task that watches a variant's SVG folders and converts SVGs again as soon as they are
+ * saved, into the rasterize task's output directory, until the build is stopped.
+ *
+ * This skips everything a build would do for an edit (configuring the project, checking
+ * every task, normalizing and fingerprinting every SVG) and only converts the SVG that
+ * changed, with a converter that stays warm for the whole session. Outputs also go into the
+ * render cache, so the next build finds them there instead of converting them again.
+ *
+ * Gradle sees the outputs change behind its back, so the next build of the rasterize task
+ * isn't incremental. That build still only converts the SVGs edited here: the rasterize task
+ * keeps its own copy of the outputs and a manifest of what they were rendered from (see
+ * {@link RasterizeTask#renderDir}), and takes everything else from there.
+ *
+ * The settings are copied from the variant's {@link RasterizeTask}, so that outputs are
+ * exactly what the build would produce. When a sprite sheet is saved, only the icons in it
+ * that changed are converted again.
+ */
+abstract class WatchSvgsTask extends DefaultTask {
+
+    /**
+     * The folders to watch, in source set order; where two hold an SVG of the same name,
+     * the last one wins, as it does for the rasterize task.
+     */
+    @Internal
+    List<File> svgDirs = []
+
+    @Internal
+    File outputDir
+
+    @Internal
+    List<Density> includeDensities
+
+    @Internal
+    int baseDpi
+
+    @Internal
+    boolean generateVectorDrawables
+
+    @Internal
+    @Nullable
+    Integer vectorPrecision
+
+    @Internal
+    String outputFormat = 'png'
+
+    @Internal
+    @Nullable
+    Integer webpQuality
+
+    @Internal
+    @Nullable
+    Integer pngCompressionLevel
+
+    @Internal
+    boolean optimizePngs
+
+    @Internal
+    @Nullable
+    Double pngQuantizationMaxError
+
+    @Internal
+    @Nullable
+    String downscaleFromDensity
+
+    @Internal
+    List<String> fullRenderPatterns = []
+
+    @Internal
+    @Nullable
+    File cacheDir
+
+    @Internal
+    long cacheMaxSize
+
+    /**
+     * The warm rendering engine shared with the rest of the build.
+     */
+    @Internal
+    abstract Property<RenderEngineService> getRenderEngineService()
+
+    private RenderEngine engine
+
+    private RenderCache cache
+
+    private Converter converter
+
+    private VectorConverter vectorConverter
+
+    // The icons last split out of each sprite sheet, by the sheet's name
+    private final Map<String, Set<String>> spriteIcons = [:]
+
+    @TaskAction
+    def watch() {
+        createConverters()
+
+        // The build just converted every icon, so only later edits to sprite sheets need telling apart
+        svgDirs.findAll { it.isDirectory() }.each { File svgDir ->
+            svgDir.eachFileRecurse { File file ->
+                if (file.isFile() && SvgSprite.isSprite(file)) {
+                    splitSprite(file.name)
+                }
+            }
+        }
+
+        SvgWatcher watcher = new SvgWatcher(svgDirs, { File file -> file.name.endsWith('.svg') } as FileFilter,
+                new SvgWatcher.Listener() {
+                    @Override
+                    void onChanged(File file) {
+                        update(file.name)
+                    }
+
+                    @Override
+                    void onDeleted(File file) {
+                        update(file.name)
+                    }
+                })
+        try {
+            logger.lifecycle("Watching ${watcher.watchedDirectoryCount} SVG folders for changes; press Ctrl-C to stop")
+            watcher.run()
+        }
+        finally {
+            watcher.close()
+        }
+    }
+
+    /**
+     * Sets up the converters every SVG is converted with.
+     */
+    void createConverters() {
+        try {
+            Converter.checkSupported(OutputFormat.forName(outputFormat), pngCompressionLevel)
+        }
+        catch (UnsupportedOperationException e) {
+            throw new GradleException(e.message, e)
+        }
+
+        engine = renderEngineService.present ? renderEngineService.get().engine : RenderEngine.shared
+        cache = cacheDir != null ? new RenderCache(cacheDir, cacheMaxSize) : null
+
+        // Everything is converted on this thread, so this converter and its transcoder stay warm
+        converter = engine.createConverter(cache)
+        converter.outputFormat = OutputFormat.forName(outputFormat)
+        converter.webpQuality = webpQuality
+        converter.pngCompressionLevel = pngCompressionLevel
+        converter.optimizePngs = optimizePngs
+        converter.pngQuantizationMaxError = pngQuantizationMaxError
+        vectorConverter = new VectorConverter(cache)
+        if (vectorPrecision != null) {
+            vectorConverter.optimizer = new VectorDrawableOptimizer(vectorPrecision)
+        }
+    }
+
+    /**
+     * Converts the SVG with the given name again, or deletes its outputs if there's
+     * no longer any SVG by that name.
+     */
+    void update(String svgName) {
+        if (SvgSprite.isSprite(svgName)) {
+            updateSprite(svgName)
+            return
+        }
+
+        File svgFile = findSvg(svgName)
+        if (svgFile == null) {
+            delete(svgName)
+        } else {
+            convert(svgName, svgFile)
+        }
+    }
+
+    /**
+     * Converts the icons of a sprite sheet that changed since it was last split, and deletes the
+     * outputs of those that are no longer in it.
+     */
+    void updateSprite(String spriteName) {
+        Set<String> previous = spriteIcons[spriteName] ?: [] as Set<String>
+        Map<String, File> changed = splitSprite(spriteName)
+        if (changed == null) {
+            return
+        }
+
+        changed.each { String name, File iconFile -> convert(name, iconFile) }
+        (previous - spriteIcons[spriteName]).each { String name ->
+            new File(spriteDir(spriteName), name).delete()
+            delete(name)
+        }
+        if (changed.isEmpty() && previous == spriteIcons[spriteName]) {
+            logger.lifecycle("No icons changed in $spriteName")
+        }
+    }
+
+    /**
+     * Splits a sprite sheet into standalone SVGs, leaving those that didn't change untouched.
+     *
+     * @return the icons that changed, or null if the sheet couldn't be split
+     */
+    @Nullable
+    Map<String, File> splitSprite(String spriteName) {
+        File spriteFile = findSvg(spriteName)
+        Map<String, byte[]> icons = [:]
+        if (spriteFile != null) {
+            try {
+                icons = SvgSprite.split(spriteFile)
+            }
+            catch (IOException e) {
+                logger.error("Could not split sprite sheet $spriteName: $e.message")
+                return null
+            }
+        }
+
+        File spriteDir = spriteDir(spriteName)
+        spriteDir.mkdirs()
+        Map<String, File> changed = [:]
+        icons.each { String name, byte[] svg ->
+            File iconFile = new File(spriteDir, name)
+            if (StableOutput.write(iconFile, svg)) {
+                changed[name] = iconFile
+            }
+        }
+        spriteIcons[spriteName] = icons.keySet()
+        return changed
+    }
+
+    private File spriteDir(String spriteName) {
+        return new File(temporaryDir, "sprites/$spriteName")
+    }
+
+    /**
+     * Deletes the outputs of an SVG.
+     */
+    void delete(String svgName) {
+        outputFiles(svgName).values().each { File output -> output.delete() }
+        logger.lifecycle("Deleted the outputs of $svgName")
+    }
+
+    /**
+     * Converts an SVG into the outputs for the given name.
+     */
+    void convert(String svgName, File svgFile) {
+        long start = System.nanoTime()
+        Map<Density, File> destinations = outputFiles(svgName)
+        destinations.values().each { File destination -> destination.parentFile.mkdirs() }
+
+        if (generateVectorDrawables) {
+            vectorConverter.convert(svgFile, destinations[null])
+            vectorConverter.errors.each { String error -> logger.error(error) }
+            vectorConverter.errors.clear()
+            vectorConverter.savings.clear()
+        } else {
+            converter.transcode(engine.createResource(svgFile, baseDpi), destinations,
+                    RasterizeTask.downscaleFor(svgFile, downscaleFromDensity, fullRenderPatterns))
+            converter.metrics.clear()
+        }
+
+        logger.lifecycle("Converted $svgName in ${TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)} ms")
+    }
+
+    /**
+     * @return the SVG the rasterize task would convert for this name, or null if there isn't one
+     */
+    @Nullable
+    File findSvg(String svgName) {
+        File found = null
+        svgDirs.findAll { it.isDirectory() }.each { File svgDir ->
+            svgDir.eachFileRecurse { File file ->
+                if (file.isFile() && file.name == svgName) {
+                    found = file
+                }
+            }
+        }
+        return found
+    }
+
+    /**
+     * @return where each density of an SVG goes; a single null density for vector drawables
+     */
+    Map<Density, File> outputFiles(String svgName) {
+        String baseName = svgName.substring(0, svgName.lastIndexOf('.'))
+        if (generateVectorDrawables) {
+            return [(null): new File(outputDir, "drawable/${baseName}.xml")]
+        }
+        String extension = OutputFormat.forName(outputFormat).extension
+        return includeDensities.collectEntries { Density density ->
+            [(density): new File(outputDir, "drawable-${density.name().toLowerCase()}/${baseName}.$extension")]
+        }
+    }
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trello.victor;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Turns images into indexed images, which Image I/O writes as palette PNGs: a byte (or less)
+ * per pixel instead of four, which is a fraction of the size for flat-colored icons.
+ *
+ * Images with 256 colors or fewer, counting alpha, keep exactly the same pixels. Images with
+ * more can be quantized down to 256 colors with a median cut, as long as the error that
+ * introduces stays within a limit; gradients and photos usually don't, and are left alone.
+ *
+ * Colors are counted in non-premultiplied ARGB, with every fully transparent pixel treated
+ * as the same color, since what's under it can't be seen.
+ *
+ * This is written in Java because it loops over every pixel, which dynamic Groovy is slow at.
+ */
+public final class PngPalette {
+
+    /**
+     * The most colors there can be before quantizing isn't tried at all; images with
+     * this many colors are photographic and would never come close enough.
+     */
+    static final int MAX_QUANTIZED_COLORS = 1 << 18;
+
+    private static final int PALETTE_SIZE = 256;
+
+    private PngPalette() {
+    }
+
+    /**
+     * @param image the image to convert
+     * @param maxError how far quantized colors may be off, as the root-mean-square error of
+     *                 each channel from 0 to 255; 0 only converts images that fit as they are
+     * @return an indexed image with the fewest bits per pixel that fit its palette, or null if
+     *         the image doesn't fit in a palette within maxError
+     */
+    public static BufferedImage toIndexed(BufferedImage image, double maxError) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] row = new int[width];
+
+        int limit = maxError > 0 ? MAX_QUANTIZED_COLORS : PALETTE_SIZE;
+        ColorCounts counts = new ColorCounts();
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                counts.add(normalize(row[x]));
+            }
+            if (counts.size() > limit) {
+                return null;
+            }
+        }
+
+        int[] colors = counts.colors();
+        int[] palette;
+        if (colors.length <= PALETTE_SIZE) {
+            palette = colors;
+            for (int i = 0; i < palette.length; i++) {
+                counts.setIndex(palette[i], i);
+            }
+        } else {
+            palette = quantize(colors, counts, (long) width * height, maxError);
+            if (palette == null) {
+                return null;
+            }
+        }
+
+        // Translucent colors first, so that the PNG's transparency chunk can stop at the last of them
+        Integer[] order = new Integer[palette.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final int[] unsorted = palette;
+        Arrays.sort(order, (a, b) -> Integer.compare(unsorted[a] >>> 24, unsorted[b] >>> 24));
+        int[] remap = new int[palette.length];
+        byte[] r = new byte[palette.length];
+        byte[] g = new byte[palette.length];
+        byte[] b = new byte[palette.length];
+        byte[] a = new byte[palette.length];
+        for (int i = 0; i < order.length; i++) {
+            int color = palette[order[i]];
+            remap[order[i]] = i;
+            a[i] = (byte) (color >>> 24);
+            r[i] = (byte) (color >> 16);
+            g[i] = (byte) (color >> 8);
+            b[i] = (byte) color;
+        }
+
+        int bits = palette.length <= 2 ? 1 : palette.length <= 4 ? 2 : palette.length <= 16 ? 4 : 8;
+        IndexColorModel colorModel = new IndexColorModel(bits, palette.length, r, g, b, a);
+        BufferedImage indexed = new BufferedImage(width, height,
+                bits < 8 ? BufferedImage.TYPE_BYTE_BINARY : BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+
+        WritableRaster raster = indexed.getRaster();
+        int[] indices = new int[width];
+        for (int y = 0; y < height; y++) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            for (int x = 0; x < width; x++) {
+                indices[x] = remap[counts.index(normalize(row[x]))];
+            }
+            raster.setSamples(0, y, width, 1, 0, indices);
+        }
+        return indexed;
+    }
+
+    private static int normalize(int argb) {
+        return (argb >>> 24) == 0 ? 0 : argb;
+    }
+
+    /**
+     * Splits the colors into boxes with a median cut and averages each box into a palette entry,
+     * recording every color's palette index in the counts.
+     *
+     * @return the palette, or null if it can't represent the colors within maxError
+     */
+    private static int[] quantize(int[] colors, ColorCounts counts, long pixels, double maxError) {
+        // Each box is a range of this array, which is reordered as boxes are split
+        int[] sorted = colors.clone();
+        int[] starts = new int[PALETTE_SIZE];
+        int[] ends = new int[PALETTE_SIZE];
+        int[] splitChannels = new int[PALETTE_SIZE];
+        double[] scores = new double[PALETTE_SIZE];
+        int boxes = 1;
+        ends[0] = sorted.length;
+        measure(sorted, 0, starts, ends, splitChannels, scores, counts);
+
+        while (boxes < PALETTE_SIZE) {
+            // Split whichever box spans the widest range of a channel, weighted by how many pixels it has
+            int widest = -1;
+            for (int box = 0; box < boxes; box++) {
+                if (scores[box] > 0 && (widest == -1 || scores[box] > scores[widest])) {
+                    widest = box;
+                }
+            }
+            if (widest == -1) {
+                break;
+            }
+
+            int middle = splitAtMedian(sorted, starts[widest], ends[widest], splitChannels[widest], counts);
+            starts[boxes] = middle;
+            ends[boxes] = ends[widest];
+            ends[widest] = middle;
+            measure(sorted, widest, starts, ends, splitChannels, scores, counts);
+            measure(sorted, boxes, starts, ends, splitChannels, scores, counts);
+            boxes++;
+        }
+
+        int[] palette = new int[boxes];
+        double squaredError = 0;
+        for (int box = 0; box < boxes; box++) {
+            long[] sums = new long[4];
+            long population = 0;
+            for (int i = starts[box]; i < ends[box]; i++) {
+                int count = counts.count(sorted[i]);
+                for (int channel = 0; channel < 4; channel++) {
+                    sums[channel] += (long) channel(sorted[i], channel) * count;
+                }
+                population += count;
+            }
+
+            int average = 0;
+            for (int channel = 0; channel < 4; channel++) {
+                average |= (int) ((sums[channel] + population / 2) / population) << (24 - channel * 8);
+            }
+            palette[box] = average;
+
+            for (int i = starts[box]; i < ends[box]; i++) {
+                counts.setIndex(sorted[i], box);
+                int count = counts.count(sorted[i]);
+                for (int channel = 0; channel < 4; channel++) {
+                    int difference = channel(sorted[i], channel) - channel(average, channel);
+                    squaredError += (double) difference * difference * count;
+                }
+            }
+        }
+
+        double rmsError = Math.sqrt(squaredError / (pixels * 4));
+        return rmsError <= maxError ? palette : null;
+    }
+
+    /**
+     * @param channel 0 for alpha, then red, green and blue
+     */
+    private static int channel(int argb, int channel) {
+        return (argb >>> (24 - channel * 8)) & 0xff;
+    }
+
+    /**
+     * Works out which channel a box would be split along, and how much splitting it is worth;
+     * boxes of a single color can't be split, and are worth nothing.
+     */
+    private static void measure(int[] colors, int box, int[] starts, int[] ends, int[] splitChannels,
+                                double[] scores, ColorCounts counts) {
+        int[] min = {255, 255, 255, 255};
+        int[] max = {0, 0, 0, 0};
+        for (int i = starts[box]; i < ends[box]; i++) {
+            for (int channel = 0; channel < 4; channel++) {
+                int value = channel(colors[i], channel);
+                min[channel] = Math.min(min[channel], value);
+                max[channel] = Math.max(max[channel], value);
+            }
+        }
+
+        int widest = 0;
+        for (int channel = 1; channel < 4; channel++) {
+            if (max[channel] - min[channel] > max[widest] - min[widest]) {
+                widest = channel;
+            }
+        }
+        splitChannels[box] = widest;
+        scores[box] = ends[box] - starts[box] < 2 ? 0 :
+                (double) (max[widest] - min[widest]) * population(colors, starts[box], ends[box], counts);
+    }
+
+    private static long population(int[] colors, int start, int end, ColorCounts counts) {
+        long population = 0;
+        for (int i = start; i < end; i++) {
+            population += counts.count(colors[i]);
+        }
+        return population;
+    }
+
+    /**
+     * Sorts a box's colors along a channel and finds where half of its pixels are on either side.
+     *
+     * @return where the second half starts, always leaving at least one color on each side
+     */
+    private static int splitAtMedian(int[] colors, int start, int end, int channel, ColorCounts counts) {
+        long[] keyed = new long[end - start];
+        for (int i = start; i < end; i++) {
+            keyed[i - start] = ((long) channel(colors[i], channel) << 32) | (colors[i] & 0xffffffffL);
+        }
+        Arrays.sort(keyed);
+        for (int i = start; i < end; i++) {
+            colors[i] = (int) keyed[i - start];
+        }
+
+        long half = population(colors, start, end, counts) / 2;
+        long seen = 0;
+        for (int i = start; i < end - 1; i++) {
+            seen += counts.count(colors[i]);
+            if (seen >= half) {
+                return i + 1;
+            }
+        }
+        return end - 1;
+    }
+
+    /**
+     * How many pixels have each color, and which palette entry each color ended up with.
+     * An open-addressing hash map, since boxing every pixel into a HashMap is far slower.
+     */
+    private static final class ColorCounts {
+
+        private int[] keys = new int[1024];
+
+        private int[] counts = new int[1024];
+
+        private int[] indices = new int[1024];
+
+        private boolean[] used = new boolean[1024];
+
+        // 32 minus the log2 of the table size, to take the hash's top bits
+        private int shift = 22;
+
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void add(int color) {
+            int slot = find(color);
+            if (!used[slot]) {
+                used[slot] = true;
+                keys[slot] = color;
+                size++;
+                if (size * 2 > keys.length) {
+                    grow();
+                    slot = find(color);
+                }
+            }
+            counts[slot]++;
+        }
+
+        int count(int color) {
+            return counts[find(color)];
+        }
+
+        int index(int color) {
+            return indices[find(color)];
+        }
+
+        void setIndex(int color, int index) {
+            indices[find(color)] = index;
+        }
+
+        int[] colors() {
+            int[] colors = new int[size];
+            int next = 0;
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (used[slot]) {
+                    colors[next++] = keys[slot];
+                }
+            }
+            return colors;
+        }
+
+        private int find(int color) {
+            int mask = keys.length - 1;
+            int slot = (color * 0x9E3779B9) >>> shift;
+            while (used[slot] && keys[slot] != color) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldCounts = counts;
+            boolean[] oldUsed = used;
+            keys = new int[oldKeys.length * 2];
+            counts = new int[oldKeys.length * 2];
+            indices = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            shift--;
+            for (int slot = 0; slot < oldKeys.length; slot++) {
+                if (oldUsed[slot]) {
+                    int newSlot = find(oldKeys[slot]);
+                    used[newSlot] = true;
+                    keys[newSlot] = oldKeys[slot];
+                    counts[newSlot] = oldCounts[slot];
+                }
+            }
+        }
+    }
+}
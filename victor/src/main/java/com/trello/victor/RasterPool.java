@@ -0,0 +1,220 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Hands out TYPE_INT_ARGB images whose pixel arrays are reused from one render to the next,
+ * instead of allocating (and later collecting) a new array for every image.
+ *
+ * Arrays come in power-of-two size classes, and an image can take an array from its own
+ * class or the one above, so an image of any size can reuse an array released by one up to
+ * about four times larger (the next density up, for instance). Images are cleared to
+ * transparent before they are handed out again. Only so many bytes of released arrays
+ * are kept. Images too large to keep are allocated at their exact size and simply
+ * dropped when released.
+ *
+ * The images also let encoders read them a row at a time without copying the row, which
+ * is how Image I/O's and Batik's PNG encoders read.
+ *
+ * A pool isn't thread-safe; each rendering thread has its own (see {@link RenderEngine}).
+ */
+public final class RasterPool {
+
+    /**
+     * How many bytes of released arrays a pool keeps by default: enough for a strip of
+     * a tiled render, or hundreds of icons.
+     */
+    public static final long DEFAULT_MAX_RETAINED_BYTES = 16L << 20;
+
+    // The smallest size class, in pixels, so tiny images don't each get a class of their own
+    private static final int MIN_CLASS = 10;
+
+    // How many released arrays of one size class to keep; more are never in use at once
+    private static final int MAX_PER_CLASS = 4;
+
+    private static final DirectColorModel COLOR_MODEL = (DirectColorModel) ColorModel.getRGBdefault();
+
+    private static final int[] MASKS = COLOR_MODEL.getMasks();
+
+    private final long maxRetainedBytes;
+
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<int[]>[] free = new ArrayDeque[32];
+
+    private long retainedBytes;
+
+    private long allocatedBytes;
+
+    private int reused;
+
+    /**
+     * @param maxRetainedBytes how many bytes of released arrays to keep; 0 keeps none,
+     *                         which allocates every image as it always was
+     */
+    public RasterPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    public RasterPool() {
+        this(DEFAULT_MAX_RETAINED_BYTES);
+    }
+
+    /**
+     * @return how many bytes of released arrays the pool keeps at most
+     */
+    public long getMaxRetainedBytes() {
+        return maxRetainedBytes;
+    }
+
+    /**
+     * @return how many bytes of pixel arrays this pool has had to allocate
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    /**
+     * @return how many images were handed out with a reused array
+     */
+    public int getReused() {
+        return reused;
+    }
+
+    /**
+     * @return whether an image of this many pixels fits in the pool once released
+     */
+    public boolean canRetain(long pixels) {
+        return pixels * 4 <= maxRetainedBytes;
+    }
+
+    /**
+     * @return a transparent TYPE_INT_ARGB image of the given size; release it once nothing reads it anymore
+     */
+    public BufferedImage acquire(int width, int height) {
+        long pixels = (long) width * height;
+        if (pixels > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image too large: " + width + "x" + height);
+        }
+
+        int sizeClass = sizeClass((int) pixels);
+        int[] data;
+        if (canRetain(1L << sizeClass)) {
+            data = poll(sizeClass);
+            if (data == null && sizeClass + 1 < free.length) {
+                data = poll(sizeClass + 1);
+            }
+            if (data != null) {
+                retainedBytes -= data.length * 4L;
+                Arrays.fill(data, 0, (int) pixels, 0);
+                reused++;
+            }
+            else {
+                data = allocate(1 << sizeClass);
+            }
+        }
+        else {
+            data = allocate(Math.max(1, (int) pixels));
+        }
+        return new PooledImage(this, data, width, height);
+    }
+
+    /**
+     * Returns an image's array to the pool. Images that didn't come from this pool,
+     * or were already released, are ignored.
+     */
+    public void release(BufferedImage image) {
+        if (!(image instanceof PooledImage)) {
+            return;
+        }
+
+        PooledImage pooled = (PooledImage) image;
+        if (pooled.pool != this || pooled.released) {
+            return;
+        }
+        pooled.released = true;
+
+        int[] data = pooled.data;
+        int sizeClass = Integer.numberOfTrailingZeros(data.length);
+        if (data.length != 1 << sizeClass || sizeClass < MIN_CLASS
+                || retainedBytes + data.length * 4L > maxRetainedBytes) {
+            return;
+        }
+
+        ArrayDeque<int[]> arrays = free[sizeClass];
+        if (arrays == null) {
+            arrays = free[sizeClass] = new ArrayDeque<>(MAX_PER_CLASS);
+        }
+        if (arrays.size() < MAX_PER_CLASS) {
+            arrays.push(data);
+            retainedBytes += data.length * 4L;
+        }
+    }
+
+    private int[] poll(int sizeClass) {
+        ArrayDeque<int[]> arrays = free[sizeClass];
+        return arrays != null ? arrays.poll() : null;
+    }
+
+    private int[] allocate(int length) {
+        allocatedBytes += length * 4L;
+        return new int[length];
+    }
+
+    private static int sizeClass(int pixels) {
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(1, pixels) - 1);
+        return Math.max(MIN_CLASS, sizeClass);
+    }
+
+    /**
+     * An image backed by a pooled array, possibly larger than the image.
+     */
+    private static final class PooledImage extends BufferedImage {
+
+        private final RasterPool pool;
+
+        private final int[] data;
+
+        private boolean released;
+
+        private PooledImage(RasterPool pool, int[] data, int width, int height) {
+            super(COLOR_MODEL, Raster.createPackedRaster(new DataBufferInt(data, width * height),
+                    width, height, width, MASKS, null), false, null);
+            this.pool = pool;
+            this.data = data;
+        }
+
+        /**
+         * Shares the requested rows rather than copying them; nothing writes to an image while it is encoded.
+         */
+        @Override
+        public Raster getData(Rectangle rect) {
+            if (!getRaster().getBounds().contains(rect)) {
+                return super.getData(rect);
+            }
+            return getRaster().createChild(rect.x, rect.y, rect.width, rect.height, rect.x, rect.y, null);
+        }
+    }
+}
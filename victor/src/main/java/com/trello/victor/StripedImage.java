@@ -0,0 +1,226 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor;
+
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Vector;
+
+/**
+ * An image that is painted one horizontal strip at a time, as it is read.
+ *
+ * Image I/O's PNG writer reads its image a row at a time, so writing one of
+ * these encodes a large image without ever holding more than a single strip
+ * of it in memory. Only the most recently painted strip is kept; reading the
+ * image in any order other than top to bottom repaints strips.
+ *
+ * Rows that lie within one strip are shared with it rather than copied, so
+ * they are only valid until the next strip is painted (which may reuse the
+ * same pixels; see {@link RasterPool}). Encoders are done with each row
+ * before they read the next.
+ *
+ * This is written in Java because a Groovy class can't implement
+ * {@link RenderedImage#getProperty(String)} without breaking its own properties.
+ */
+public class StripedImage implements RenderedImage {
+
+    /**
+     * Paints a strip of the image.
+     */
+    public interface StripPainter {
+        /**
+         * @param y the first row of the strip
+         * @param height how many rows the strip has
+         * @return the strip, as a TYPE_INT_ARGB image of the full width and the given height
+         */
+        BufferedImage paint(int y, int height) throws Exception;
+    }
+
+    private final int width;
+
+    private final int height;
+
+    private final int stripHeight;
+
+    private final StripPainter painter;
+
+    private final ColorModel colorModel = ColorModel.getRGBdefault();
+
+    private final SampleModel sampleModel;
+
+    private int paintedStrip = -1;
+
+    private Raster paintedRaster;
+
+    private int paintCount = 0;
+
+    public StripedImage(int width, int height, int stripHeight, StripPainter painter) {
+        this.width = width;
+        this.height = height;
+        this.stripHeight = Math.max(1, Math.min(stripHeight, height));
+        this.painter = painter;
+        this.sampleModel = colorModel.createCompatibleSampleModel(width, this.stripHeight);
+    }
+
+    /**
+     * @return how many rows to paint at a time to keep each strip to about the given number of pixels
+     */
+    public static int stripHeightFor(int width, long stripPixels) {
+        return (int) Math.max(1L, Math.min(Integer.MAX_VALUE, stripPixels / Math.max(1, width)));
+    }
+
+    /**
+     * @return how many strips have been painted so far, counting repaints
+     */
+    public synchronized int getPaintCount() {
+        return paintCount;
+    }
+
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getMinX() {
+        return 0;
+    }
+
+    public int getMinY() {
+        return 0;
+    }
+
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    public int getNumYTiles() {
+        return (height + stripHeight - 1) / stripHeight;
+    }
+
+    public int getMinTileX() {
+        return 0;
+    }
+
+    public int getMinTileY() {
+        return 0;
+    }
+
+    public int getTileWidth() {
+        return width;
+    }
+
+    public int getTileHeight() {
+        return stripHeight;
+    }
+
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    public synchronized Raster getTile(int tileX, int tileY) {
+        if (tileY != paintedStrip) {
+            // Drop the previous strip before painting the next, so that only one is ever held
+            paintedRaster = null;
+            int y = tileY * stripHeight;
+            BufferedImage strip;
+            try {
+                strip = painter.paint(y, Math.min(stripHeight, height - y));
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException("Could not paint rows " + y + " onwards", e);
+            }
+            paintedRaster = strip.getRaster().createTranslatedChild(0, y);
+            paintedStrip = tileY;
+            paintCount++;
+        }
+        return paintedRaster;
+    }
+
+    /**
+     * Paints the whole image at once; avoid this, it defeats the point of striping.
+     */
+    public Raster getData() {
+        return copyData(null);
+    }
+
+    public Raster getData(Rectangle region) {
+        int strip = region.y / stripHeight;
+        if (region.height > 0 && (region.y + region.height - 1) / stripHeight == strip
+                && new Rectangle(0, 0, width, height).contains(region)) {
+            return getTile(0, strip).createChild(region.x, region.y, region.width, region.height,
+                    region.x, region.y, null);
+        }
+
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(region.width, region.height);
+        return copyData(raster.createWritableTranslatedChild(region.x, region.y));
+    }
+
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            raster = colorModel.createCompatibleWritableRaster(width, height);
+        }
+
+        Rectangle region = raster.getBounds().intersection(new Rectangle(0, 0, width, height));
+        if (region.isEmpty()) {
+            return raster;
+        }
+
+        int firstStrip = region.y / stripHeight;
+        int lastStrip = (region.y + region.height - 1) / stripHeight;
+        for (int strip = firstStrip; strip <= lastStrip; strip++) {
+            Raster tile = getTile(0, strip);
+            Rectangle overlap = tile.getBounds().intersection(region);
+            raster.setRect(tile.createChild(overlap.x, overlap.y, overlap.width, overlap.height,
+                    overlap.x, overlap.y, null));
+        }
+        return raster;
+    }
+}
@@ -18,13 +18,23 @@
  */
 package org.apache.batik.ext.awt.image.codec.imageio;
 
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Iterator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.imageio.ImageIO;
 import javax.imageio.ImageReader;
@@ -46,11 +56,49 @@ import org.apache.batik.util.ParsedURL;
  * have a slightly lower priority than the RegistryEntry implementations using the
  * internal codecs, so these take precedence if they are available.
  *
+ * Images are decoded on a small pool of daemon threads (instead of a new thread
+ * per image), and decoded images are cached by content, so a bitmap that is
+ * embedded again and again is only decoded once.
+ *
  * @version $Id$
  */
 public abstract class AbstractImageIORegistryEntry
     extends MagicNumberRegistryEntry {
 
+    /** How much decoded pixel data to keep around for reuse. */
+    private static final long DECODED_CACHE_BYTES = 64L * 1024 * 1024;
+
+    private static final ExecutorService DECODER = createDecoder();
+
+    private static final DecodedImageCache DECODED_IMAGES =
+            new DecodedImageCache(DECODED_CACHE_BYTES);
+
+    /**
+     * @return the cache of decoded images every entry shares
+     */
+    static DecodedImageCache getDecodedImages() {
+        return DECODED_IMAGES;
+    }
+
+    private static ExecutorService createDecoder() {
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ImageIO decoder " + count.incrementAndGet());
+                        // Never keep the JVM (or the Gradle daemon) alive just for these
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     /**
      * Constructor
      * @param name Format Name
@@ -104,41 +152,21 @@ public abstract class AbstractImageIORegistryEntry
             errParam = new Object[] {getFormatName()};
         }
 
-        Thread t = new Thread() {
-                @Override
+        DECODER.execute(new Runnable() {
                 public void run() {
                     Filter filt;
                     try{
-                        Iterator<ImageReader> iter = ImageIO.getImageReadersByMIMEType(
-                                getMimeTypes().get(0).toString());
-                        if (!iter.hasNext()) {
-                            throw new UnsupportedOperationException(
-                                    "No image reader for "
-                                        + getFormatName() + " available!");
+                        byte[] data = readFully(is);
+                        String key = DecodedImageCache.keyFor(getFormatName(), data);
+                        BufferedImage image = DECODED_IMAGES.get(key);
+                        if (image == null) {
+                            image = decode(data);
+                            DECODED_IMAGES.put(key, image);
                         }
-                        ImageReader reader = iter.next();
-                        ImageInputStream imageIn = ImageIO.createImageInputStream(is);
-                        reader.setInput(imageIn, true);
 
-                        int imageIndex = 0;
                         dr.setBounds(new Rectangle2D.Double
-                                     (0, 0,
-                                      reader.getWidth(imageIndex),
-                                      reader.getHeight(imageIndex)));
-                        CachableRed cr;
-                        //Naive approach possibly wasting lots of memory
-                        //and ignoring the gamma correction done by PNGRed :-(
-                        //Matches the code used by the former JPEGRegistryEntry, though.
-                        BufferedImage bi = reader.read(imageIndex);
-                        cr = GraphicsUtil.wrap(bi);
-                        cr = new Any2sRGBRed(cr);
-                        cr = new FormatRed(cr, GraphicsUtil.sRGB_Unpre);
-                        WritableRaster wr = (WritableRaster)cr.getData();
-                        ColorModel cm = cr.getColorModel();
-                        BufferedImage image = new BufferedImage
-                            (cm, wr, cm.isAlphaPremultiplied(), null);
-                        cr = GraphicsUtil.wrap(image);
-                        filt = new RedRable(cr);
+                                     (0, 0, image.getWidth(), image.getHeight()));
+                        filt = new RedRable(GraphicsUtil.wrap(image));
                     } catch (IOException ioe) {
                         // Something bad happened here...
                         filt = ImageTagRegistry.getBrokenLinkImage
@@ -158,9 +186,80 @@ public abstract class AbstractImageIORegistryEntry
 
                     dr.setSource(filt);
                 }
-            };
-        t.start();
+            });
         return dr;
     }
 
+    /**
+     * Decodes an image into the non-premultiplied sRGB format the rest of Batik expects.
+     */
+    private BufferedImage decode(byte[] data) throws IOException {
+        Iterator<ImageReader> iter = ImageIO.getImageReadersByMIMEType(
+                getMimeTypes().get(0).toString());
+        if (!iter.hasNext()) {
+            throw new UnsupportedOperationException(
+                    "No image reader for "
+                        + getFormatName() + " available!");
+        }
+        ImageReader reader = iter.next();
+        try {
+            ImageInputStream imageIn = ImageIO.createImageInputStream(
+                    new ByteArrayInputStream(data));
+            reader.setInput(imageIn, true);
+
+            //Ignores the gamma correction done by PNGRed :-(
+            //Matches the code used by the former JPEGRegistryEntry, though.
+            BufferedImage bi = reader.read(0);
+            if (bi.getType() == BufferedImage.TYPE_INT_ARGB) {
+                // Already exactly sRGB_Unpre; nothing to convert
+                return bi;
+            }
+
+            if (isPlain8BitSRGB(bi)) {
+                // A single blit converts these exactly, without intermediate rasters
+                BufferedImage image = new BufferedImage(
+                        bi.getWidth(), bi.getHeight(), BufferedImage.TYPE_INT_ARGB);
+                Graphics2D g2d = image.createGraphics();
+                g2d.setComposite(AlphaComposite.Src);
+                g2d.drawImage(bi, 0, 0, null);
+                g2d.dispose();
+                return image;
+            }
+
+            // Other color spaces need Batik's conversion
+            CachableRed cr = GraphicsUtil.wrap(bi);
+            cr = new Any2sRGBRed(cr);
+            cr = new FormatRed(cr, GraphicsUtil.sRGB_Unpre);
+            ColorModel destCM = cr.getColorModel();
+            WritableRaster wr = destCM.createCompatibleWritableRaster(
+                    bi.getWidth(), bi.getHeight());
+            cr.copyData(wr);
+            return new BufferedImage(destCM, wr, destCM.isAlphaPremultiplied(), null);
+        } finally {
+            reader.dispose();
+        }
+    }
+
+    private static boolean isPlain8BitSRGB(BufferedImage bi) {
+        switch (bi.getType()) {
+        case BufferedImage.TYPE_4BYTE_ABGR:
+        case BufferedImage.TYPE_3BYTE_BGR:
+        case BufferedImage.TYPE_INT_RGB:
+        case BufferedImage.TYPE_BYTE_INDEXED:
+            return bi.getColorModel().getColorSpace().isCS_sRGB();
+        default:
+            return false;
+        }
+    }
+
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
 }
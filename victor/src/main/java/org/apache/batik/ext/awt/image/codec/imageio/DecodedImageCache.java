@@ -0,0 +1,129 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.imageio;
+
+import java.awt.image.BufferedImage;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded, least-recently-used cache of decoded images.
+ *
+ * Images are keyed by a hash of their encoded bytes rather than by URL, so the
+ * same bitmap embedded in several SVGs (or rendered again later in the same
+ * JVM) is only decoded once, and an edited file is never served stale.
+ *
+ * Cached images are shared, so they must never be modified.
+ *
+ * @version $Id$
+ */
+class DecodedImageCache {
+
+    private final long maxBytes;
+
+    private long bytes;
+
+    private int hits;
+
+    private int misses;
+
+    private final LinkedHashMap<String, BufferedImage> images =
+            new LinkedHashMap<String, BufferedImage>(16, 0.75f, true);
+
+    /**
+     * @param maxBytes the approximate amount of pixel data to hold on to
+     */
+    DecodedImageCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Builds the cache key for an encoded image.
+     * @param format the image format name
+     * @param data the encoded image
+     */
+    static String keyFor(String format, byte[] data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(data);
+        StringBuilder key = new StringBuilder(format).append(':');
+        for (int i = 0; i < hash.length; i++) {
+            key.append(Character.forDigit((hash[i] >> 4) & 0xF, 16));
+            key.append(Character.forDigit(hash[i] & 0xF, 16));
+        }
+        return key.toString();
+    }
+
+    synchronized BufferedImage get(String key) {
+        BufferedImage image = images.get(key);
+        if (image != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return image;
+    }
+
+    /**
+     * @return how many lookups found a decoded image
+     */
+    synchronized int getHits() {
+        return hits;
+    }
+
+    /**
+     * @return how many lookups found nothing, so the image had to be decoded
+     */
+    synchronized int getMisses() {
+        return misses;
+    }
+
+    synchronized void put(String key, BufferedImage image) {
+        long size = sizeOf(image);
+        if (size > maxBytes) {
+            // Would evict everything else just to hold on to this one
+            return;
+        }
+
+        BufferedImage previous = images.put(key, image);
+        if (previous != null) {
+            bytes -= sizeOf(previous);
+        }
+        bytes += size;
+
+        Iterator<Map.Entry<String, BufferedImage>> iter = images.entrySet().iterator();
+        while (bytes > maxBytes && iter.hasNext()) {
+            Map.Entry<String, BufferedImage> eldest = iter.next();
+            bytes -= sizeOf(eldest.getValue());
+            iter.remove();
+        }
+    }
+
+    private static long sizeOf(BufferedImage image) {
+        return (long)image.getWidth() * image.getHeight()
+                * image.getColorModel().getPixelSize() / 8;
+    }
+}
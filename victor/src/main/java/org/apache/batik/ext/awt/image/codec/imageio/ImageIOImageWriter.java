@@ -21,7 +21,9 @@ package org.apache.batik.ext.awt.image.codec.imageio;
 import java.awt.image.RenderedImage;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageIO;
@@ -32,6 +34,7 @@ import javax.imageio.metadata.IIOInvalidTreeException;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.metadata.IIOMetadataNode;
 import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
@@ -42,10 +45,23 @@ import org.apache.batik.ext.awt.image.spi.ImageWriterParams;
 /**
  * ImageWriter implementation that uses Image I/O to write images.
  *
+ * Looking up and setting up an Image I/O writer costs more than encoding a
+ * small image, so each thread keeps one writer per MIME type and reuses it
+ * for every image it writes. Output is buffered in memory rather than in a
+ * temporary file.
+ *
  * @version $Id$
  */
 public class ImageIOImageWriter implements ImageWriter, IIOWriteWarningListener {
 
+    private static final ThreadLocal<Map<String, javax.imageio.ImageWriter>> WRITER_POOL =
+            new ThreadLocal<Map<String, javax.imageio.ImageWriter>>() {
+                @Override
+                protected Map<String, javax.imageio.ImageWriter> initialValue() {
+                    return new HashMap<String, javax.imageio.ImageWriter>();
+                }
+            };
+
     private String targetMIME;
     
     /**
@@ -69,54 +85,79 @@ public class ImageIOImageWriter implements ImageWriter, IIOWriteWarningListener
     public void writeImage(RenderedImage image, OutputStream out, 
             ImageWriterParams params) 
                 throws IOException {
-        Iterator iter;
-        iter = ImageIO.getImageWritersByMIMEType(getMIMEType());
-        javax.imageio.ImageWriter iiowriter = null;
+        javax.imageio.ImageWriter iiowriter = acquireWriter();
+        boolean reusable = false;
         try {
-            iiowriter = (javax.imageio.ImageWriter)iter.next();
-            if (iiowriter != null) {
-                iiowriter.addIIOWriteWarningListener(this);
-
-                ImageOutputStream imgout = null;
-                try {
-                    imgout = ImageIO.createImageOutputStream(out);
-                    ImageWriteParam iwParam = getDefaultWriteParam(iiowriter, image, params);
-
-                    ImageTypeSpecifier type;
-                    if (iwParam.getDestinationType() != null) {
-                        type = iwParam.getDestinationType();
-                    } else {
-                        type = ImageTypeSpecifier.createFromRenderedImage(image);
-                    }
-
-                    //Handle metadata
-                    IIOMetadata meta = iiowriter.getDefaultImageMetadata(
-                            type, iwParam);
-                    //meta might be null for some JAI codecs as they don't support metadata
-                    if (params != null && meta != null) {
-                        meta = updateMetadata(meta, params); 
-                    }
-
-                    //Write image
-                    iiowriter.setOutput(imgout);
-                    IIOImage iioimg = new IIOImage(image, null, meta);
-                    iiowriter.write(null, iioimg, iwParam);
-                } finally {
-                    if (imgout != null) {
-                        imgout.close();
-                    }
+            iiowriter.addIIOWriteWarningListener(this);
+
+            ImageOutputStream imgout = null;
+            try {
+                imgout = new MemoryCacheImageOutputStream(out);
+                ImageWriteParam iwParam = getDefaultWriteParam(iiowriter, image, params);
+
+                ImageTypeSpecifier type;
+                if (iwParam.getDestinationType() != null) {
+                    type = iwParam.getDestinationType();
+                } else {
+                    type = ImageTypeSpecifier.createFromRenderedImage(image);
+                }
+
+                //Handle metadata
+                IIOMetadata meta = iiowriter.getDefaultImageMetadata(
+                        type, iwParam);
+                //meta might be null for some JAI codecs as they don't support metadata
+                if (params != null && meta != null) {
+                    meta = updateMetadata(meta, params); 
+                }
+
+                //Write image
+                iiowriter.setOutput(imgout);
+                IIOImage iioimg = new IIOImage(image, null, meta);
+                iiowriter.write(null, iioimg, iwParam);
+                reusable = true;
+            } finally {
+                if (imgout != null) {
+                    imgout.close();
                 }
-            } else {
-                throw new UnsupportedOperationException("No ImageIO codec for writing " 
-                        + getMIMEType() + " is available!");
             }
         } finally {
-            if (iiowriter != null) {
-                iiowriter.dispose();
-            }
+            releaseWriter(iiowriter, reusable);
         }
     }
-    
+
+    /**
+     * Takes this thread's pooled Image I/O writer for the target MIME type,
+     * or creates one if there is none.
+     */
+    private javax.imageio.ImageWriter acquireWriter() {
+        javax.imageio.ImageWriter iiowriter = WRITER_POOL.get().remove(getMIMEType());
+        if (iiowriter != null) {
+            return iiowriter;
+        }
+
+        Iterator iter = ImageIO.getImageWritersByMIMEType(getMIMEType());
+        if (!iter.hasNext()) {
+            throw new UnsupportedOperationException("No ImageIO codec for writing " 
+                    + getMIMEType() + " is available!");
+        }
+        return (javax.imageio.ImageWriter)iter.next();
+    }
+
+    /**
+     * Returns a writer to this thread's pool. Writers that failed part way
+     * through are disposed instead, since their state is unknown.
+     */
+    private void releaseWriter(javax.imageio.ImageWriter iiowriter, boolean reusable) {
+        if (!reusable) {
+            iiowriter.dispose();
+            return;
+        }
+
+        // Drops the output, listeners and locale, so the next image starts clean
+        iiowriter.reset();
+        WRITER_POOL.get().put(getMIMEType(), iiowriter);
+    }
+
     /**
      * Returns the default write parameters for encoding the image.
      * @param iiowriter The IIO ImageWriter that will be used
@@ -18,18 +18,71 @@
  */
 package org.apache.batik.ext.awt.image.codec.imageio;
 
+import java.awt.image.RenderedImage;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+
+import org.apache.batik.ext.awt.image.spi.ImageWriterParams;
+
 /**
  * ImageWriter that encodes PNG images using Image I/O.
  *
+ * Pass {@link PNGImageWriterParams} to control the deflater level, where
+ * {@link #canSetCompressionLevel()}.
+ *
  * @version $Id$
  */
 public class ImageIOPNGImageWriter extends ImageIOImageWriter {
 
+    private static Boolean compressionLevelSupported;
+
     /**
      * Main constructor.
      */
     public ImageIOPNGImageWriter() {
         super("image/png");
     }
-    
+
+    /**
+     * @return whether Image I/O's PNG writer lets the deflater level be chosen; the
+     *         one in Java 8 doesn't, and always uses its default level
+     */
+    public static synchronized boolean canSetCompressionLevel() {
+        if (compressionLevelSupported == null) {
+            Iterator<ImageWriter> writers = ImageIO.getImageWritersByMIMEType("image/png");
+            if (writers.hasNext()) {
+                ImageWriter writer = writers.next();
+                compressionLevelSupported = writer.getDefaultWriteParam().canWriteCompressed();
+                writer.dispose();
+            }
+            else {
+                compressionLevelSupported = false;
+            }
+        }
+        return compressionLevelSupported;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected ImageWriteParam getDefaultWriteParam(
+            ImageWriter iiowriter, RenderedImage image,
+            ImageWriterParams params) {
+        ImageWriteParam param = super.getDefaultWriteParam(iiowriter, image, params);
+        if (params instanceof PNGImageWriterParams && param.canWriteCompressed()) {
+            int level = ((PNGImageWriterParams)params).getCompressionLevel();
+            if (level != PNGImageWriterParams.DEFAULT_COMPRESSION) {
+                // Image I/O's PNG writer maps quality 1.0 to level 0 and 0.0 to level 9
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                if (param.getCompressionType() == null) {
+                    param.setCompressionType(param.getCompressionTypes()[0]);
+                }
+                param.setCompressionQuality(1.0f - level / 9.0f);
+            }
+        }
+        return param;
+    }
+
 }
@@ -0,0 +1,147 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.imageio;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+
+import org.apache.batik.ext.awt.image.spi.ImageWriterParams;
+
+/**
+ * ImageWriter that encodes WebP images using Image I/O.
+ *
+ * Image I/O has no WebP codec of its own; this relies on one being registered
+ * for the "image/webp" MIME type, such as webp-imageio's, whose compression
+ * types are "Lossless" and "Lossy". See {@link #checkSupported()}.
+ *
+ * @version $Id$
+ */
+public class ImageIOWebPImageWriter extends ImageIOImageWriter {
+
+    /** WebP can't hold images any wider or taller than this. */
+    public static final int MAX_DIMENSION = 16383;
+
+    private static boolean checked;
+
+    private static String unsupportedReason;
+
+    /**
+     * Main constructor.
+     */
+    public ImageIOWebPImageWriter() {
+        super("image/webp");
+    }
+
+    /**
+     * Makes sure a WebP codec is registered with Image I/O, and that it works here.
+     *
+     * Image I/O only finds codecs through the context class loader of whoever first
+     * uses it, which in a Gradle daemon is unlikely to be the class loader of the
+     * plugin that bundles the codec; so the codec is looked for again through this
+     * class's own class loader. The codec also bundles libwebp for some platforms
+     * only, so a tiny image is encoded to find out whether it loads.
+     *
+     * @throws UnsupportedOperationException if WebPs can't be written
+     */
+    public static synchronized void checkSupported() {
+        if (!checked) {
+            unsupportedReason = findUnsupportedReason();
+            checked = true;
+        }
+        if (unsupportedReason != null) {
+            throw new UnsupportedOperationException(unsupportedReason);
+        }
+    }
+
+    private static String findUnsupportedReason() {
+        try {
+            if (!ImageIO.getImageWritersByMIMEType("image/webp").hasNext()) {
+                Thread thread = Thread.currentThread();
+                ClassLoader contextClassLoader = thread.getContextClassLoader();
+                thread.setContextClassLoader(ImageIOWebPImageWriter.class.getClassLoader());
+                try {
+                    ImageIO.scanForPlugins();
+                }
+                finally {
+                    thread.setContextClassLoader(contextClassLoader);
+                }
+            }
+
+            BufferedImage pixel = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+            new ImageIOWebPImageWriter().writeImage(pixel, new ByteArrayOutputStream(), new WebPImageWriterParams());
+            return null;
+        }
+        catch (IOException | RuntimeException | LinkageError e) {
+            return "WebP output isn't supported on " + System.getProperty("os.name") + " ("
+                    + System.getProperty("os.arch") + "): " + e;
+        }
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected IIOMetadata updateMetadata(IIOMetadata meta, ImageWriterParams params) {
+        // WebP has no resolution to set
+        return meta;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    protected ImageWriteParam getDefaultWriteParam(
+            ImageWriter iiowriter, RenderedImage image,
+            ImageWriterParams params) {
+        if (image.getWidth() > MAX_DIMENSION || image.getHeight() > MAX_DIMENSION) {
+            throw new IllegalArgumentException("WebP images can be at most " + MAX_DIMENSION
+                    + " pixels on a side, not " + image.getWidth() + "x" + image.getHeight());
+        }
+
+        boolean lossless = true;
+        float quality = WebPImageWriterParams.DEFAULT_QUALITY;
+        if (params instanceof WebPImageWriterParams) {
+            lossless = ((WebPImageWriterParams) params).isLossless();
+            quality = ((WebPImageWriterParams) params).getQuality();
+        }
+
+        ImageWriteParam param = iiowriter.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionType(findCompressionType(param, lossless ? "Lossless" : "Lossy"));
+        param.setCompressionQuality(quality);
+        return param;
+    }
+
+    private static String findCompressionType(ImageWriteParam param, String name) {
+        String[] types = param.getCompressionTypes();
+        if (types != null) {
+            for (String type : types) {
+                if (name.equalsIgnoreCase(type)) {
+                    return type;
+                }
+            }
+        }
+        throw new UnsupportedOperationException(
+                "The Image I/O WebP codec does not support " + name + " compression");
+    }
+
+}
@@ -0,0 +1,62 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.imageio;
+
+import org.apache.batik.ext.awt.image.spi.ImageWriterParams;
+
+/**
+ * Parameters for PNG writers, adding control over how hard the deflater works.
+ *
+ * @version $Id$
+ */
+public class PNGImageWriterParams extends ImageWriterParams {
+
+    /** Use the codec's own default compression level. */
+    public static final int DEFAULT_COMPRESSION = -1;
+
+    private int compressionLevel = DEFAULT_COMPRESSION;
+
+    /**
+     * Default constructor.
+     */
+    public PNGImageWriterParams() {
+        super();
+    }
+
+    /**
+     * @return the deflater level, from 0 (fastest) to 9 (smallest), or
+     *         {@link #DEFAULT_COMPRESSION}
+     */
+    public int getCompressionLevel() {
+        return this.compressionLevel;
+    }
+
+    /**
+     * Sets the deflater level.
+     * @param level from 0 (fastest) to 9 (smallest), or {@link #DEFAULT_COMPRESSION}
+     */
+    public void setCompressionLevel(int level) {
+        if (level != DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+            throw new IllegalArgumentException(
+                    "PNG compression level must be between 0 and 9, was " + level);
+        }
+        this.compressionLevel = level;
+    }
+
+}
@@ -0,0 +1,79 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.codec.imageio;
+
+import org.apache.batik.ext.awt.image.spi.ImageWriterParams;
+
+/**
+ * Parameters for WebP writers, choosing between lossless and lossy encoding.
+ *
+ * @version $Id$
+ */
+public class WebPImageWriterParams extends ImageWriterParams {
+
+    /** The quality lossy images are encoded at, unless set otherwise. */
+    public static final float DEFAULT_QUALITY = 0.75f;
+
+    private boolean lossless = true;
+
+    private float quality = DEFAULT_QUALITY;
+
+    /**
+     * Default constructor.
+     */
+    public WebPImageWriterParams() {
+        super();
+    }
+
+    /**
+     * @return true if images are encoded losslessly
+     */
+    public boolean isLossless() {
+        return this.lossless;
+    }
+
+    /**
+     * Sets whether images are encoded losslessly.
+     * @param lossless true for lossless, false for lossy
+     */
+    public void setLossless(boolean lossless) {
+        this.lossless = lossless;
+    }
+
+    /**
+     * @return the quality, from 0 (smallest) to 1 (best); for lossless images,
+     *         how hard the encoder works to make them smaller
+     */
+    public float getQuality() {
+        return this.quality;
+    }
+
+    /**
+     * Sets the quality.
+     * @param quality from 0 (smallest) to 1 (best)
+     */
+    public void setQuality(float quality) {
+        if (quality < 0 || quality > 1) {
+            throw new IllegalArgumentException(
+                    "WebP quality must be between 0 and 1, was " + quality);
+        }
+        this.quality = quality;
+    }
+
+}
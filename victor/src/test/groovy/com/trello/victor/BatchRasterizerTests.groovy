@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trello.victor
+
+import org.apache.commons.io.FileUtils
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class BatchRasterizerTests {
+
+    private final static RESOURCE_PATH = './src/test/resources/'
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder()
+
+    private File inputDir
+
+    private File outputDir
+
+    @Before
+    void setup() {
+        inputDir = temp.newFolder('in')
+        outputDir = new File(temp.root, 'out')
+        new File(inputDir, 'nested').mkdirs()
+        FileUtils.copyFile(new File(RESOURCE_PATH, 'pixel.svg'), new File(inputDir, 'pixel.svg'))
+        FileUtils.copyFile(new File(RESOURCE_PATH, 'relative.svg'), new File(inputDir, 'nested/relative.svg'))
+        new File(inputDir, 'nested/notes.txt').text = 'not an SVG'
+    }
+
+    @Test
+    void findsMatchingSvgsAtAnyDepth() {
+        BatchRasterizer rasterizer = new BatchRasterizer(inputDirs: [inputDir])
+        assertEquals(['relative.svg', 'pixel.svg'], rasterizer.findSvgs()*.name)
+
+        rasterizer.includes = ['nested/*.svg']
+        assertEquals(['relative.svg'], rasterizer.findSvgs()*.name)
+    }
+
+    @Test
+    void rasterizesEveryDensity() {
+        BatchRasterizer rasterizer = new BatchRasterizer(inputDirs: [inputDir], outputDir: outputDir,
+                densities: [Density.MDPI, Density.HDPI], parallelism: 2)
+        BatchRasterizer.Result result = rasterizer.run()
+
+        assertEquals(2, result.svgs)
+        assertEquals(4, result.changed)
+        assertTrue(result.failed.empty)
+        assertTrue FileUtils.contentEquals(new File(outputDir, 'drawable-mdpi/pixel.png'),
+                new File(RESOURCE_PATH, 'pixel-mdpi-expected.png'))
+        assertTrue FileUtils.contentEquals(new File(outputDir, 'drawable-hdpi/pixel.png'),
+                new File(RESOURCE_PATH, 'pixel-hdpi-expected.png'))
+        assertTrue new File(outputDir, 'drawable-hdpi/relative.png').isFile()
+
+        // Nothing to write the second time around
+        assertEquals(0, rasterizer.run().changed)
+    }
+
+    @Test
+    void reusesCachedOutputs() {
+        File cacheDir = new File(temp.root, 'cache')
+        new BatchRasterizer(inputDirs: [inputDir], outputDir: outputDir, densities: [Density.MDPI],
+                cacheDir: cacheDir).run()
+
+        FileUtils.deleteDirectory(outputDir)
+        BatchRasterizer.Result result = new BatchRasterizer(inputDirs: [inputDir], outputDir: outputDir,
+                densities: [Density.MDPI], cacheDir: cacheDir).run()
+
+        assertEquals(2, result.cacheHits)
+        assertEquals(2, result.changed)
+        assertTrue result.report.metrics.every { it.cached }
+    }
+
+    @Test
+    void mirrorLayoutKeepsDirectories() {
+        BatchRasterizer rasterizer = new BatchRasterizer(inputDirs: [inputDir], outputDir: outputDir,
+                layout: BatchRasterizer.Layout.MIRROR)
+        File svg = new File(inputDir, 'nested/relative.svg')
+
+        assertEquals('xhdpi/nested/relative.png', rasterizer.outputPath(svg, Density.XHDPI))
+    }
+
+    @Test(expected = IllegalArgumentException)
+    void refusesSvgsWithTheSameOutput() {
+        FileUtils.copyFile(new File(RESOURCE_PATH, 'pixel.svg'), new File(inputDir, 'nested/pixel.svg'))
+        new BatchRasterizer(inputDirs: [inputDir]).findSvgs()
+    }
+
+    @Test
+    void listsSvgsThatFail() {
+        FileUtils.copyFile(new File(RESOURCE_PATH, 'invalid.svg'), new File(inputDir, 'invalid.svg'))
+        List<String> progress = []
+        BatchRasterizer.Result result = new BatchRasterizer(inputDirs: [inputDir], outputDir: outputDir,
+                densities: [Density.MDPI], parallelism: 1,
+                listener: { File svg, boolean failed, int completed, int total ->
+                    progress.add "$completed/$total".toString()
+                } as BatchRasterizer.Listener).run()
+
+        assertEquals(['invalid.svg'], result.failed*.name)
+        assertEquals(['1/3', '2/3', '3/3'], progress)
+    }
+}
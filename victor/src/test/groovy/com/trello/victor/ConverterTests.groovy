@@ -16,9 +16,16 @@
 
 package com.trello.victor
 
+import org.apache.batik.ext.awt.image.codec.imageio.ImageIOPNGImageWriter
 import org.apache.commons.io.FileUtils
+import org.junit.Assume
 import org.junit.BeforeClass
 import org.junit.Test
+
+import javax.imageio.ImageIO
+import javax.imageio.metadata.IIOMetadataNode
+import java.awt.image.BufferedImage
+
 import static org.junit.Assert.*
 
 class ConverterTests {
@@ -119,6 +126,131 @@ class ConverterTests {
         assertTrue FileUtils.contentEquals(destinationXhdpi, expectedXhdpi)
     }
 
+    @Test
+    void canResizePngForAllDensitiesFromOneParse() {
+        Converter converter = new Converter()
+
+        File svgFile = new File(RESOURCE_PATH, 'relative.svg')
+        SVGResource svgResource = new SVGResource(svgFile, 72)
+
+        Map<Density, File> destinations = [
+                (Density.LDPI): new File(OUT_PATH, 'relative-all-ldpi.png'),
+                (Density.MDPI): new File(OUT_PATH, 'relative-all-mdpi.png'),
+                (Density.HDPI): new File(OUT_PATH, 'relative-all-hdpi.png'),
+                (Density.XHDPI): new File(OUT_PATH, 'relative-all-xhdpi.png'),
+        ]
+        converter.transcode(svgResource, destinations)
+
+        destinations.each { Density density, File destination ->
+            File expected = new File(RESOURCE_PATH, "relative-${density.name().toLowerCase()}-expected.png")
+            assertTrue destination.exists()
+            assertTrue FileUtils.contentEquals(destination, expected)
+        }
+    }
+
+    @Test
+    void rasterizingIsDeterministic() {
+        // Byte-for-byte identical output is what lets the build cache reuse outputs
+        File svgFile = new File(RESOURCE_PATH, 'problematic.svg')
+
+        File first = new File(OUT_PATH, 'deterministic-1.png')
+        new Converter().transcode(new SVGResource(svgFile, 72), Density.XHDPI, first)
+
+        File second = new File(OUT_PATH, 'deterministic-2.png')
+        new Converter().transcode(new SVGResource(svgFile, 72), Density.XHDPI, second)
+
+        assertTrue FileUtils.contentEquals(first, second)
+    }
+
+    @Test
+    void reusedConverterRendersTheSameAsFreshOnes() {
+        // A big render first, so that what follows reuses (and must clear) its renderer and pixels
+        List<String> svgNames = ['problematic.svg', 'rasterize.svg', 'pixel.svg', 'relative.svg']
+        Converter reused = new Converter()
+        svgNames.each { String svgName ->
+            File svgFile = new File(RESOURCE_PATH, svgName)
+            [Density.XXXHDPI, Density.MDPI].each { Density density ->
+                File expected = new File(OUT_PATH, "fresh-${density}-${svgName}.png")
+                new Converter().transcode(new SVGResource(svgFile, 72), density, expected)
+
+                File actual = new File(OUT_PATH, "reused-${density}-${svgName}.png")
+                reused.transcode(new SVGResource(svgFile, 72), density, actual)
+
+                assertTrue("$svgName at $density", FileUtils.contentEquals(expected, actual))
+            }
+        }
+    }
+
+    @Test
+    void compressionLevelDoesNotChangePixels() {
+        Assume.assumeTrue(ImageIOPNGImageWriter.canSetCompressionLevel())
+
+        File svgFile = new File(RESOURCE_PATH, 'rasterize.svg')
+        BufferedImage expected = ImageIO.read(new File(RESOURCE_PATH, 'rasterize-expected.png'))
+        File defaultEncoded = new File(OUT_PATH, 'rasterize-level-default.png')
+        new Converter().transcode(new SVGResource(svgFile, 72), Density.MDPI, defaultEncoded)
+
+        [0, 1, 9].each { int level ->
+            Converter converter = new Converter()
+            converter.pngCompressionLevel = level
+
+            File destination = new File(OUT_PATH, "rasterize-level-${level}.png")
+            converter.transcode(new SVGResource(svgFile, 72), Density.MDPI, destination)
+
+            BufferedImage actual = ImageIO.read(destination)
+            assertEquals(expected.width, actual.width)
+            assertEquals(expected.height, actual.height)
+            for (int y = 0; y < expected.height; y++) {
+                for (int x = 0; x < expected.width; x++) {
+                    assertEquals(expected.getRGB(x, y), actual.getRGB(x, y))
+                }
+            }
+
+            // The resolution is written too, as the default encoder writes it
+            assertEquals(pixelSize(defaultEncoded), pixelSize(destination))
+        }
+    }
+
+    @Test
+    void refusesACompressionLevelThePngWriterIgnores() {
+        Assume.assumeFalse(ImageIOPNGImageWriter.canSetCompressionLevel())
+
+        Converter converter = new Converter()
+        converter.pngCompressionLevel = 9
+        try {
+            converter.transcode(new SVGResource(new File(RESOURCE_PATH, 'pixel.svg'), 72), Density.MDPI,
+                    new File(OUT_PATH, 'pixel-level-9.png'))
+            fail()
+        }
+        catch (UnsupportedOperationException e) {
+            assertTrue(e.message.contains('Java 9'))
+        }
+    }
+
+    private static String pixelSize(File png) {
+        def reader = ImageIO.getImageReadersByFormatName('png').next()
+        ImageIO.createImageInputStream(png).withCloseable { stream ->
+            reader.input = stream
+            IIOMetadataNode root = (IIOMetadataNode) reader.getImageMetadata(0).getAsTree('javax_imageio_1.0')
+            IIOMetadataNode size = (IIOMetadataNode) root.getElementsByTagName('HorizontalPixelSize').item(0)
+            reader.dispose()
+            return size?.getAttribute('value')
+        }
+    }
+
+    @Test
+    void leavesUnchangedOutputsAlone() {
+        File svgFile = new File(RESOURCE_PATH, 'pixel.svg')
+        File destination = new File(OUT_PATH, 'pixel-unchanged.png')
+        destination.delete()
+
+        assertTrue new Converter().transcode(new SVGResource(svgFile, 72), Density.MDPI, destination)
+
+        destination.setLastModified(0)
+        assertFalse new Converter().transcode(new SVGResource(svgFile, 72), Density.MDPI, destination)
+        assertEquals(0, destination.lastModified())
+    }
+
     @Test
     void canRasterizeImageTag() {
         Converter converter = new Converter()
@@ -193,4 +325,128 @@ class ConverterTests {
         // Assert that we *didn't* create a file for this!
         assertFalse destination.exists()
     }
+
+    @Test
+    void sharedEngineCanBeReused() {
+        RenderEngine engine = RenderEngine.shared
+
+        // Two rounds on the same thread reuse the same parser and transcoder
+        (1..2).each { int round ->
+            File destination = new File(OUT_PATH, "engine-${round}.png")
+            destination.delete()
+            engine.createConverter().transcode(engine.createResource(new File(RESOURCE_PATH, 'rasterize.svg'), 72),
+                    Density.MDPI, destination)
+
+            assertTrue FileUtils.contentEquals(destination, new File(RESOURCE_PATH, 'rasterize-expected.png'))
+        }
+    }
+
+    @Test
+    void canDownscaleSmallerDensities() {
+        File svgFile = new File(RESOURCE_PATH, 'relative.svg')
+        Map<Density, File> direct = [(Density.MDPI): new File(OUT_PATH, 'direct-mdpi.png'),
+                                     (Density.XHDPI): new File(OUT_PATH, 'direct-xhdpi.png')]
+        Map<Density, File> downscaled = [(Density.MDPI): new File(OUT_PATH, 'downscaled-mdpi.png'),
+                                         (Density.XHDPI): new File(OUT_PATH, 'downscaled-xhdpi.png')]
+
+        new Converter().transcode(new SVGResource(svgFile, 72), direct)
+        new Converter().transcode(new SVGResource(svgFile, 72), downscaled, Density.XHDPI)
+
+        // The density it was downscaled from is rendered directly, the others are close to it
+        assertTrue FileUtils.contentEquals(direct[Density.XHDPI], downscaled[Density.XHDPI])
+
+        BufferedImage expected = ImageIO.read(direct[Density.MDPI])
+        BufferedImage actual = ImageIO.read(downscaled[Density.MDPI])
+        assertEquals(expected.width, actual.width)
+        assertEquals(expected.height, actual.height)
+
+        long totalDifference = 0
+        for (int y = 0; y < expected.height; y++) {
+            for (int x = 0; x < expected.width; x++) {
+                int a = expected.getRGB(x, y)
+                int b = actual.getRGB(x, y)
+                for (int shift = 0; shift < 32; shift += 8) {
+                    totalDifference += Math.abs(((a >>> shift) & 0xFF) - ((b >>> shift) & 0xFF))
+                }
+            }
+        }
+        double meanDifference = totalDifference / (expected.width * expected.height * 4d)
+        assertTrue("Mean channel difference was $meanDifference", meanDifference < 8)
+    }
+
+    @Test
+    void tiledRenderingMatchesFullRender() {
+        File svgFile = new File(RESOURCE_PATH, 'rasterize.svg')
+        File full = new File(OUT_PATH, 'rasterize-full.png')
+        File tiled = new File(OUT_PATH, 'rasterize-tiled.png')
+
+        new Converter().transcode(new SVGResource(svgFile, 72), Density.XXXHDPI, full)
+
+        Converter converter = new Converter()
+        converter.tiledRenderingPixels = 0
+        converter.memoryBudget = new MemoryBudget(1)
+        converter.transcode(new SVGResource(svgFile, 72), Density.XXXHDPI, tiled)
+        assertEquals(0, converter.memoryBudget.reservedBytes)
+
+        // Antialiasing may differ by a shade along the edges of strips, but no more
+        BufferedImage expected = ImageIO.read(full)
+        BufferedImage actual = ImageIO.read(tiled)
+        assertEquals(expected.width, actual.width)
+        assertEquals(expected.height, actual.height)
+        for (int y = 0; y < expected.height; y++) {
+            for (int x = 0; x < expected.width; x++) {
+                int a = expected.getRGB(x, y)
+                int b = actual.getRGB(x, y)
+                for (int shift = 0; shift < 32; shift += 8) {
+                    assertTrue(Math.abs(((a >>> shift) & 0xFF) - ((b >>> shift) & 0xFF)) <= 2)
+                }
+            }
+        }
+    }
+
+    @Test
+    void losslessWebpHasTheSamePixelsAsPng() {
+        File svgFile = new File(RESOURCE_PATH, 'rasterize.svg')
+        File png = new File(OUT_PATH, 'rasterize-webp.png')
+        File webp = new File(OUT_PATH, 'rasterize-webp.webp')
+        new Converter().transcode(new SVGResource(svgFile, 72), Density.XHDPI, png)
+
+        Converter converter = new Converter()
+        converter.outputFormat = OutputFormat.WEBP
+        converter.transcode(new SVGResource(svgFile, 72), Density.XHDPI, webp)
+
+        // RIFF....WEBP
+        byte[] header = webp.bytes
+        assertEquals('RIFF', new String(header, 0, 4, 'US-ASCII'))
+        assertEquals('WEBP', new String(header, 8, 4, 'US-ASCII'))
+        assertEquals('webp-lossless', converter.encoding)
+
+        BufferedImage expected = ImageIO.read(png)
+        BufferedImage actual = ImageIO.read(webp)
+        assertEquals(expected.width, actual.width)
+        assertEquals(expected.height, actual.height)
+        for (int y = 0; y < expected.height; y++) {
+            for (int x = 0; x < expected.width; x++) {
+                int a = expected.getRGB(x, y)
+                // Fully transparent pixels may lose their color
+                if ((a >>> 24) != 0) {
+                    assertEquals(a, actual.getRGB(x, y))
+                }
+            }
+        }
+    }
+
+    @Test
+    void downscalerAveragesPremultipliedPixels() {
+        BufferedImage source = new BufferedImage(2, 2, BufferedImage.TYPE_INT_ARGB)
+        source.setRGB(0, 0, (int) 0xFFFF0000L)
+        source.setRGB(1, 0, 0x0000FF00) // Transparent; its green must not bleed in
+        source.setRGB(0, 1, (int) 0xFFFF0000L)
+        source.setRGB(1, 1, 0x00000000)
+
+        BufferedImage destination = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB)
+        Downscaler.downscale(source, destination)
+
+        assertEquals((int) 0x80FF0000L, destination.getRGB(0, 0))
+    }
 }
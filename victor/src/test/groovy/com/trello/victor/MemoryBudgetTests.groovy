@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.junit.Test
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+import static org.junit.Assert.*
+
+class MemoryBudgetTests {
+
+    @Test
+    void waitsUntilThereIsRoom() {
+        MemoryBudget budget = new MemoryBudget(100)
+        long first = budget.acquire(60)
+
+        CountDownLatch admitted = new CountDownLatch(1)
+        Thread second = Thread.start {
+            budget.withReservation(60) {
+                admitted.countDown()
+            }
+        }
+
+        assertFalse admitted.await(200, TimeUnit.MILLISECONDS)
+
+        budget.release(first)
+        assertTrue admitted.await(5, TimeUnit.SECONDS)
+        second.join()
+        assertEquals(0, budget.reservedBytes)
+    }
+
+    @Test
+    void oversizedRequestsRunAlone() {
+        MemoryBudget budget = new MemoryBudget(100)
+
+        long reserved = budget.acquire(500)
+        assertEquals(100, reserved)
+        assertEquals(100, budget.reservedBytes)
+
+        budget.release(reserved)
+        assertEquals(0, budget.reservedBytes)
+    }
+
+    @Test
+    void estimatesImagesAsFourBytesPerPixel() {
+        assertEquals(4096L * 4096L * 4L, MemoryBudget.imageBytes(4096, 4096))
+    }
+}
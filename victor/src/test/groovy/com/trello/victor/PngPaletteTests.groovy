@@ -0,0 +1,127 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trello.victor
+
+import org.junit.Test
+
+import javax.imageio.ImageIO
+import java.awt.Color
+import java.awt.Graphics2D
+import java.awt.RenderingHints
+import java.awt.image.BufferedImage
+import java.awt.image.IndexColorModel
+
+import static org.junit.Assert.*
+
+class PngPaletteTests {
+
+    private static final int SIZE = 96
+
+    @Test
+    void keepsThePixelsOfFewColorImages() {
+        BufferedImage icon = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB)
+        Graphics2D g2d = icon.createGraphics()
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON)
+        g2d.color = new Color(33, 150, 243)
+        g2d.fillOval(8, 8, 80, 80)
+        g2d.color = new Color(255, 255, 255, 200)
+        g2d.fillRect(40, 20, 16, 56)
+        g2d.dispose()
+
+        BufferedImage indexed = PngPalette.toIndexed(icon, 0)
+        assertNotNull(indexed)
+        assertTrue(indexed.colorModel instanceof IndexColorModel)
+        assertSamePixels(icon, indexed)
+
+        // And Image I/O writes it as a palette PNG that reads back the same, at a fraction of the size
+        ByteArrayOutputStream rgba = new ByteArrayOutputStream()
+        ImageIO.write(icon, 'png', rgba)
+        ByteArrayOutputStream palette = new ByteArrayOutputStream()
+        ImageIO.write(indexed, 'png', palette)
+        assertTrue(palette.size() < rgba.size())
+        assertSamePixels(icon, ImageIO.read(new ByteArrayInputStream(palette.toByteArray())))
+    }
+
+    @Test
+    void usesFewerBitsForSmallPalettes() {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB)
+        Graphics2D g2d = image.createGraphics()
+        g2d.color = Color.RED
+        g2d.fillRect(0, 0, SIZE / 2 as int, SIZE)
+        g2d.dispose()
+
+        BufferedImage indexed = PngPalette.toIndexed(image, 0)
+        assertEquals(1, indexed.colorModel.pixelSize)
+        assertSamePixels(image, indexed)
+    }
+
+    @Test
+    void treatsEveryTransparentPixelAsOneColor() {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB)
+        (0..<SIZE).each { int y ->
+            (0..<SIZE).each { int x -> image.setRGB(x, y, (x * SIZE + y) & 0x00ffffff) }
+        }
+
+        BufferedImage indexed = PngPalette.toIndexed(image, 0)
+        assertEquals(1, (indexed.colorModel as IndexColorModel).mapSize)
+        assertEquals(0, indexed.getRGB(5, 7) >>> 24)
+    }
+
+    @Test
+    void quantizesOnlyWithinTheError() {
+        // A smooth ramp of 512 colors quantizes well...
+        BufferedImage ramp = new BufferedImage(512, 4, BufferedImage.TYPE_INT_ARGB)
+        (0..<512).each { int x ->
+            (0..<4).each { int y -> ramp.setRGB(x, y, new Color(x.intdiv(2), x.intdiv(3), 128).getRGB()) }
+        }
+        assertNull(PngPalette.toIndexed(ramp, 0))
+        BufferedImage quantized = PngPalette.toIndexed(ramp, 2)
+        assertNotNull(quantized)
+        assertTrue((quantized.colorModel as IndexColorModel).mapSize <= 256)
+        assertTrue(maxChannelDifference(ramp, quantized) <= 4)
+
+        // ...and noise doesn't
+        Random random = new Random(42)
+        BufferedImage noise = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_ARGB)
+        (0..<SIZE).each { int y ->
+            (0..<SIZE).each { int x -> noise.setRGB(x, y, random.nextInt(0x1000000) | (0xff << 24)) }
+        }
+        assertNull(PngPalette.toIndexed(noise, 2))
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals(0, maxChannelDifference(expected, actual))
+    }
+
+    private static int maxChannelDifference(BufferedImage expected, BufferedImage actual) {
+        int max = 0
+        for (int y = 0; y < expected.height; y++) {
+            for (int x = 0; x < expected.width; x++) {
+                int a = expected.getRGB(x, y)
+                int b = actual.getRGB(x, y)
+                if ((a >>> 24) == 0 && (b >>> 24) == 0) {
+                    continue
+                }
+                for (int shift = 0; shift < 32; shift += 8) {
+                    max = Math.max(max, Math.abs(((a >>> shift) & 0xff) - ((b >>> shift) & 0xff)))
+                }
+            }
+        }
+        return max
+    }
+}
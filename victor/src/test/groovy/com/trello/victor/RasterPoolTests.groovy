@@ -0,0 +1,106 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.junit.Test
+
+import javax.imageio.ImageIO
+import java.awt.Color
+import java.awt.Graphics2D
+import java.awt.image.BufferedImage
+
+import static org.junit.Assert.*
+
+class RasterPoolTests {
+
+    @Test
+    void reusesReleasedPixelsCleared() {
+        RasterPool pool = new RasterPool()
+        BufferedImage first = pool.acquire(100, 100)
+        paint(first)
+        long allocated = pool.allocatedBytes
+        pool.release(first)
+
+        BufferedImage second = pool.acquire(90, 90)
+        assertEquals(BufferedImage.TYPE_INT_ARGB, second.type)
+        assertEquals(1, pool.reused)
+        assertEquals(allocated, pool.allocatedBytes)
+        for (int y = 0; y < second.height; y++) {
+            for (int x = 0; x < second.width; x++) {
+                assertEquals(0, second.getRGB(x, y))
+            }
+        }
+
+        // Released twice, but only pooled once
+        pool.release(second)
+        pool.release(second)
+        pool.acquire(90, 90)
+        assertEquals(2, pool.reused)
+        pool.acquire(90, 90)
+        assertEquals(2, pool.reused)
+    }
+
+    @Test
+    void encodesTheSameAsAnyOtherImage() {
+        RasterPool pool = new RasterPool()
+        BufferedImage larger = pool.acquire(300, 300)
+        paint(larger)
+        pool.release(larger)
+
+        BufferedImage pooled = pool.acquire(201, 157)
+        paint(pooled)
+        BufferedImage plain = new BufferedImage(201, 157, BufferedImage.TYPE_INT_ARGB)
+        paint(plain)
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream()
+        ImageIO.write(plain, 'png', expected)
+        ByteArrayOutputStream actual = new ByteArrayOutputStream()
+        ImageIO.write(pooled, 'png', actual)
+
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray())
+    }
+
+    @Test
+    void onlyKeepsWhatFits() {
+        RasterPool unpooled = new RasterPool(0)
+        unpooled.release(unpooled.acquire(10, 10))
+        unpooled.acquire(10, 10)
+        assertEquals(0, unpooled.reused)
+        assertEquals(800L, unpooled.allocatedBytes)
+
+        RasterPool pool = new RasterPool(1L << 20)
+        pool.release(pool.acquire(1000, 1000))
+        pool.acquire(1000, 1000)
+        assertEquals(0, pool.reused)
+        assertFalse(pool.canRetain(1000 * 1000))
+
+        // Images from other pools are left alone
+        pool.release(unpooled.acquire(10, 10))
+        pool.release(new BufferedImage(10, 10, BufferedImage.TYPE_INT_ARGB))
+        pool.acquire(10, 10)
+        assertEquals(0, pool.reused)
+    }
+
+    private static void paint(BufferedImage image) {
+        Graphics2D g2d = image.createGraphics()
+        g2d.color = new Color(255, 0, 0, 128)
+        g2d.fillRect(10, 10, 150, 130)
+        g2d.color = Color.BLUE
+        g2d.drawLine(0, 0, image.width - 1, image.height - 1)
+        g2d.dispose()
+    }
+}
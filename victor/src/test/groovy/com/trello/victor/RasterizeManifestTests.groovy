@@ -0,0 +1,128 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class RasterizeManifestTests {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder()
+
+    private File outputDir
+
+    private Closure<String> outputPath = { String name, Density density ->
+        "drawable-${density.name().toLowerCase()}/${name.replace('.svg', '.png')}".toString()
+    }
+
+    @Before
+    void setup() {
+        outputDir = temp.newFolder('res')
+    }
+
+    @Test
+    void addingADensityOnlyRendersThatDensity() {
+        RasterizeManifest previous = rendered(['MDPI', 'HDPI'], 72, ['a.svg': '1', 'b.svg': '2'])
+        RasterizeManifest next = manifest(['MDPI', 'HDPI', 'XHDPI'], 72, ['a.svg': '1', 'b.svg': '2'])
+
+        assertEquals(['a.svg': [Density.XHDPI], 'b.svg': [Density.XHDPI]],
+                previous.changesTo(next, outputDir, outputPath, { true }))
+    }
+
+    @Test
+    void removingADensityRendersNothing() {
+        RasterizeManifest previous = rendered(['MDPI', 'HDPI'], 72, ['a.svg': '1'])
+        RasterizeManifest next = manifest(['MDPI'], 72, ['a.svg': '1'])
+
+        assertEquals([:], previous.changesTo(next, outputDir, outputPath, { true }))
+    }
+
+    @Test
+    void changingTheDpiOnlyRendersSvgsThatDependOnIt() {
+        RasterizeManifest previous = rendered(['MDPI', 'HDPI'], 72, ['pixel.svg': '1', 'relative.svg': '2'])
+        RasterizeManifest next = manifest(['MDPI', 'HDPI'], 96, ['pixel.svg': '1', 'relative.svg': '2'])
+
+        assertEquals(['relative.svg': [Density.MDPI, Density.HDPI]],
+                previous.changesTo(next, outputDir, outputPath, { String name -> name == 'relative.svg' }))
+    }
+
+    @Test
+    void changedSvgsAndOutputsAreRenderedAgain() {
+        RasterizeManifest previous = rendered(['MDPI', 'HDPI'], 72, ['a.svg': '1', 'b.svg': '2', 'c.svg': '3'])
+        RasterizeManifest next = manifest(['MDPI', 'HDPI'], 72, ['a.svg': 'changed', 'b.svg': '2', 'c.svg': '3', 'd.svg': '4'])
+
+        new File(outputDir, outputPath('b.svg', Density.HDPI)).delete()
+        File edited = new File(outputDir, outputPath('c.svg', Density.MDPI))
+        edited.text = 'edited behind our back'
+
+        assertEquals(['a.svg': [Density.MDPI, Density.HDPI], 'b.svg': [Density.HDPI], 'c.svg': [Density.MDPI],
+                      'd.svg': [Density.MDPI, Density.HDPI]],
+                previous.changesTo(next, outputDir, outputPath, { true }))
+    }
+
+    @Test
+    void otherSettingsRenderEverything() {
+        RasterizeManifest previous = rendered(['MDPI'], 72, ['a.svg': '1'])
+        RasterizeManifest next = manifest(['MDPI'], 72, ['a.svg': '1'])
+        next.settings.pngCompressionLevel = 9
+
+        assertNull previous.changesTo(next, outputDir, outputPath, { true })
+    }
+
+    @Test
+    void canBeWrittenAndReadBack() {
+        File file = new File(temp.root, 'manifest.json')
+        rendered(['MDPI', 'XXHDPI'], 72, ['a.svg': '1']).write(file)
+
+        RasterizeManifest read = RasterizeManifest.read(file)
+        assertEquals(72, read.baseDpi)
+        assertEquals(['MDPI', 'XXHDPI'], read.densities)
+        assertEquals(['a.svg': '1'], read.svgHashes)
+        assertEquals(2, read.outputStamps.size())
+        assertEquals([:], read.changesTo(manifest(['MDPI', 'XXHDPI'], 72, ['a.svg': '1']), outputDir, outputPath, { true }))
+
+        file.text = '{"truncated'
+        assertNull RasterizeManifest.read(file)
+    }
+
+    private static RasterizeManifest manifest(List<String> densities, int baseDpi, Map<String, String> svgHashes) {
+        return new RasterizeManifest(baseDpi: baseDpi, densities: densities, svgHashes: svgHashes,
+                settings: [pngCompressionLevel: null])
+    }
+
+    /**
+     * @return a manifest for outputs that have just been written
+     */
+    private RasterizeManifest rendered(List<String> densities, int baseDpi, Map<String, String> svgHashes) {
+        svgHashes.keySet().each { String name ->
+            densities.each { String density ->
+                File output = new File(outputDir, outputPath(name, Density.valueOf(density)))
+                output.parentFile.mkdirs()
+                output.text = "$name at $density"
+            }
+        }
+
+        RasterizeManifest manifest = manifest(densities, baseDpi, svgHashes)
+        manifest.stampOutputs(outputDir)
+        return manifest
+    }
+}
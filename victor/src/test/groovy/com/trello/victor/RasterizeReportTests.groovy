@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class RasterizeReportTests {
+
+    private final static RESOURCE_PATH = './src/test/resources/'
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder()
+
+    @Test
+    void converterRecordsMetricsForEachDensity() {
+        Converter converter = new Converter()
+        SVGResource svgResource = new SVGResource(new File(RESOURCE_PATH, 'relative.svg'), 72)
+        converter.transcode(svgResource, [
+                (Density.MDPI): new File(temp.root, 'relative-mdpi.png'),
+                (Density.XHDPI): new File(temp.root, 'relative-xhdpi.png')
+        ])
+
+        assertEquals(2, converter.metrics.size())
+        RasterizeMetric mdpi = converter.metrics.find { it.density == Density.MDPI }
+        RasterizeMetric xhdpi = converter.metrics.find { it.density == Density.XHDPI }
+        assertEquals(mdpi.width * 2, xhdpi.width)
+        assertEquals(new File(temp.root, 'relative-mdpi.png').length(), mdpi.bytes)
+        assertTrue(mdpi.renderNanos > 0)
+        assertFalse(mdpi.cached)
+    }
+
+    @Test
+    void reportSurvivesJsonRoundTrip() {
+        RasterizeReport report = new RasterizeReport()
+        report.addAll([new RasterizeMetric(svg: 'a.svg', density: Density.HDPI, parseNanos: 1, renderNanos: 2,
+                encodeNanos: 3, bytes: 4, width: 5, height: 6)])
+
+        File json = new File(temp.root, 'report.json')
+        report.writeJson(json)
+        RasterizeMetric metric = RasterizeReport.readJson(json).metrics[0]
+
+        assertEquals('a.svg', metric.svg)
+        assertEquals(Density.HDPI, metric.density)
+        assertEquals(3L, metric.encodeNanos)
+        assertEquals(6, metric.height)
+    }
+
+    @Test
+    void slowestCountsSharedParseOnce() {
+        RasterizeReport report = new RasterizeReport()
+        report.addAll([
+                new RasterizeMetric(svg: 'many.svg', density: Density.MDPI, parseNanos: 100, renderNanos: 10),
+                new RasterizeMetric(svg: 'many.svg', density: Density.HDPI, parseNanos: 100, renderNanos: 10),
+                new RasterizeMetric(svg: 'slow.svg', density: Density.MDPI, parseNanos: 50, renderNanos: 100)
+        ])
+
+        List<Map.Entry<String, Long>> slowest = report.slowest(2)
+        assertEquals('slow.svg', slowest[0].key)
+        assertEquals(150L, slowest[0].value)
+        assertEquals('many.svg', slowest[1].key)
+        assertEquals(120L, slowest[1].value)
+
+        report.writeTo(temp.root, 'report')
+        List<String> csv = new File(temp.root, 'report.csv').readLines()
+        assertEquals(4, csv.size())
+        assertTrue(csv[1].startsWith('many.svg,MDPI,false,0.000,0.000'))
+    }
+
+    @Test
+    void savingsOnlyCountOptimizedPngs() {
+        RasterizeReport report = new RasterizeReport()
+        report.addAll([
+                new RasterizeMetric(svg: 'a.svg', density: Density.MDPI, bytes: 100, unoptimizedBytes: 300),
+                new RasterizeMetric(svg: 'b.svg', density: Density.MDPI, bytes: 50, unoptimizedBytes: 50),
+                new RasterizeMetric(svg: 'a.svg', density: Density.XHDPI, bytes: 400, unoptimizedBytes: 1000),
+                new RasterizeMetric(svg: 'c.svg', density: Density.XHDPI, bytes: 999, cached: true)
+        ])
+
+        Map<Density, List<Long>> totals = report.optimizedBytesByDensity()
+        assertEquals([150L, 350L], totals[Density.MDPI])
+        assertEquals([400L, 1000L], totals[Density.XHDPI])
+
+        List<String> lines = report.describeSavings()
+        assertEquals('Optimizing PNGs saved 800 of 1350 bytes:', lines[0])
+        assertEquals('  mdpi: 200 of 350 bytes', lines[1])
+        assertEquals('  xhdpi: 600 of 1000 bytes', lines[2])
+        assertTrue(new RasterizeReport().describeSavings().isEmpty())
+    }
+}
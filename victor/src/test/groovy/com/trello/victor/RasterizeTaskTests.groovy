@@ -0,0 +1,275 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import groovy.io.FileType
+import org.apache.commons.io.FileUtils
+import org.gradle.api.Project
+import org.gradle.testkit.runner.BuildResult
+import org.gradle.testkit.runner.GradleRunner
+import org.gradle.testfixtures.ProjectBuilder
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+/**
+ * Runs the normalize and rasterize tasks in a real build, wired up the way the plugin wires them.
+ */
+class RasterizeTaskTests {
+
+    private final static RESOURCE_PATH = './src/test/resources/'
+
+    private final static String SPRITE = '''<svg xmlns="http://www.w3.org/2000/svg">
+  <symbol id="add" viewBox="0 0 24 24"><path d="M11 5h2v14h-2z"/></symbol>
+  <symbol id="remove" viewBox="0 0 24 24"><path d="M5 11h14v2H5z"/></symbol>
+</svg>'''
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder()
+
+    private File svgDir
+
+    private File outputDir
+
+    @Before
+    void setup() {
+        svgDir = temp.newFolder('svg')
+        outputDir = new File(temp.root, 'build/res')
+        FileUtils.copyFile(new File(RESOURCE_PATH, 'pixel.svg'), new File(svgDir, 'pixel.svg'))
+        FileUtils.copyFile(new File(RESOURCE_PATH, 'relative.svg'), new File(svgDir, 'relative.svg'))
+    }
+
+    @Test
+    void writesAManifestOfEverySvg() {
+        writeBuild()
+        build('rasterizeSvgs')
+
+        File manifestFile = new File(temp.root, 'build/state/manifest.json')
+        RasterizeManifest manifest = RasterizeManifest.read(manifestFile)
+        assertNotNull(manifest)
+        assertEquals(['pixel.svg', 'relative.svg'] as Set, manifest.svgHashes.keySet())
+        assertEquals(RenderCache.hash(new File(temp.root, 'build/normalized/pixel.svg')), manifest.svgHashes['pixel.svg'])
+        assertEquals(['drawable-hdpi/pixel.png', 'drawable-hdpi/relative.png',
+                      'drawable-mdpi/pixel.png', 'drawable-mdpi/relative.png'] as Set, manifest.outputStamps.keySet())
+    }
+
+    @Test
+    void rendersEachIconOfASpriteSheet() {
+        new File(svgDir, 'icons.sprite.svg').text = SPRITE
+        writeBuild()
+        build('rasterizeSvgs')
+
+        List<String> expected = ['icons_add.png', 'icons_remove.png', 'pixel.png', 'relative.png']
+        assertEquals(expected, new File(outputDir, 'drawable-mdpi').list().sort() as List)
+        assertEquals(expected, new File(outputDir, 'drawable-hdpi').list().sort() as List)
+
+        // A run that isn't incremental only deletes outputs that no SVG makes anymore
+        new File(outputDir, 'drawable-mdpi/stale.png').text = 'stale'
+        build('rasterizeSvgs', '--rerun-tasks')
+
+        assertEquals(expected, new File(outputDir, 'drawable-mdpi').list().sort() as List)
+        assertEquals(expected, new File(outputDir, 'drawable-hdpi').list().sort() as List)
+    }
+
+    @Test
+    void removingAnSvgDeletesItsOutputs() {
+        writeBuild()
+        build('rasterizeSvgs')
+
+        new File(svgDir, 'relative.svg').delete()
+        build('rasterizeSvgs')
+
+        assertEquals(['pixel.png'], new File(outputDir, 'drawable-mdpi').list() as List)
+        assertEquals(['pixel.png'], new File(outputDir, 'drawable-hdpi').list() as List)
+    }
+
+    @Test
+    void addingADensityLeavesTheOthersAlone() {
+        writeBuild()
+        build('rasterizeSvgs')
+        File mdpi = new File(outputDir, 'drawable-mdpi/pixel.png')
+        long rendered = mdpi.lastModified() - 10000
+        mdpi.lastModified = rendered
+
+        // Gradle empties the output directory first, since a setting changed
+        writeBuild('includeDensities = [Density.MDPI, Density.HDPI, Density.XHDPI]')
+        build('rasterizeSvgs')
+
+        assertEquals(rendered, mdpi.lastModified())
+        assertTrue(new File(outputDir, 'drawable-xhdpi/pixel.png').isFile())
+        assertEquals(['pixel.png', 'relative.png'], new File(outputDir, 'drawable-hdpi').list().sort() as List)
+
+        // Densities that were removed are deleted
+        writeBuild('includeDensities = [Density.MDPI]')
+        build('rasterizeSvgs')
+
+        assertEquals(['drawable-mdpi'], outputDir.list() as List)
+        assertEquals(rendered, mdpi.lastModified())
+    }
+
+    @Test
+    void startsFromTheOutputsWhenThereIsNoManifest() {
+        writeBuild()
+        build('rasterizeSvgs')
+
+        // As when the outputs are loaded from the build cache
+        new File(temp.root, 'build/state').deleteDir()
+        new File(svgDir, 'pixel.svg').text = new File(svgDir, 'pixel.svg').text.replace('</svg>', '<rect/></svg>')
+        build('rasterizeSvgs')
+
+        assertEquals(['pixel.png', 'relative.png'], new File(outputDir, 'drawable-mdpi').list().sort() as List)
+        assertEquals(['pixel.png', 'relative.png'], new File(outputDir, 'drawable-hdpi').list().sort() as List)
+    }
+
+    @Test
+    void reusesTheConfigurationCache() {
+        writeBuild()
+        build('rasterizeSvgs', '--configuration-cache')
+
+        File output = new File(outputDir, 'drawable-mdpi/pixel.png')
+        byte[] before = output.bytes
+        new File(svgDir, 'pixel.svg').text = new File(svgDir, 'pixel.svg').text.replace('24px', '48px')
+        BuildResult result = build('rasterizeSvgs', '--configuration-cache')
+
+        assertTrue(result.output.contains('Reusing configuration cache.'))
+        assertFalse(Arrays.equals(before, output.bytes))
+    }
+
+    @Test
+    void aBuildAfterWatchingOnlyRedoesTheEditedSvgs() {
+        writeBuild()
+        build('rasterizeSvgs')
+
+        Project project = ProjectBuilder.builder().withProjectDir(temp.newFolder('watch')).build()
+        WatchSvgsTask watch = project.tasks.create('watchSvgs', WatchSvgsTask)
+        watch.svgDirs = [svgDir]
+        watch.outputDir = outputDir
+        watch.includeDensities = [Density.MDPI, Density.HDPI]
+        watch.baseDpi = 72
+        watch.createConverters()
+        File pixel = new File(outputDir, 'drawable-mdpi/pixel.png')
+        byte[] before = pixel.bytes
+        new File(svgDir, 'pixel.svg').text = new File(svgDir, 'pixel.svg').text.replace('24px', '48px')
+        watch.update('pixel.svg')
+        byte[] watched = pixel.bytes
+        assertFalse(Arrays.equals(before, watched))
+
+        // Gradle sees the outputs changed, so the task doesn't run incrementally
+        BuildResult result = build('rasterizeSvgs', '--info')
+
+        assertTrue(result.output.contains('Only 1 of 2 SVGs need converting again'))
+        assertArrayEquals(watched, pixel.bytes)
+        assertTrue(new File(outputDir, 'drawable-mdpi/relative.png').isFile())
+    }
+
+    @Test
+    void parallelWorkersWriteWhatASerialRunWrites() {
+        ['rasterize.svg', 'problematic.svg'].each { String name ->
+            FileUtils.copyFile(new File(RESOURCE_PATH, name), new File(svgDir, name))
+        }
+        writeBuild()
+        build('rasterizeSvgs')
+        Map<String, byte[]> serial = outputs()
+        assertEquals(8, serial.size())
+
+        ['none', 'process'].each { String isolation ->
+            new File(temp.root, 'build').deleteDir()
+            writeBuild("maxParallelism = 3\nworkerIsolation = '$isolation'")
+            build('rasterizeSvgs')
+
+            Map<String, byte[]> parallel = outputs()
+            assertEquals(isolation, serial.keySet(), parallel.keySet())
+            serial.each { String path, byte[] bytes ->
+                assertArrayEquals("$path with isolation '$isolation'".toString(), bytes, parallel[path])
+            }
+        }
+    }
+
+    @Test
+    void convertsVectorDrawablesInParallel() {
+        writeBuild('generateVectorDrawables = true\nmaxParallelism = 2')
+        build('rasterizeSvgs')
+
+        assertEquals(['pixel.xml', 'relative.xml'], new File(outputDir, 'drawable').list().sort() as List)
+    }
+
+    @Test
+    void sizesTheMemoryBudgetForTheWholeBuild() {
+        writeBuild()
+        BuildResult result = build('printMemoryBudget', '-Pvictor.renderMemoryBudgetMb=64')
+
+        assertTrue(result.output.contains("Memory budget: ${64L * 1024 * 1024}"))
+    }
+
+    private Map<String, byte[]> outputs() {
+        Map<String, byte[]> outputs = [:]
+        outputDir.eachFileRecurse(FileType.FILES) { File file ->
+            outputs[outputDir.toPath().relativize(file.toPath()).toString()] = file.bytes
+        }
+        return outputs
+    }
+
+    private void writeBuild(String rasterizeSettings = '') {
+        new File(temp.root, 'settings.gradle').text = "rootProject.name = 'rasterize'\n"
+        new File(temp.root, 'build.gradle').text = """
+            plugins {
+                id 'com.trello.victor' apply false
+            }
+
+            import com.trello.victor.*
+
+            def renderEngine = RenderEngineService.register(project)
+
+            def normalize = tasks.register('normalizeSvgs', NormalizeSvgsTask) {
+                sources.from fileTree('svg')
+                outputDir = file('build/normalized')
+            }
+
+            tasks.register('rasterizeSvgs', RasterizeTask) {
+                sources.from fileTree('svg')
+                normalizedSources.from normalize
+                outputDir = file('build/res')
+                renderDir = file('build/state/res')
+                manifestFile = file('build/state/manifest.json')
+                includeDensities = [Density.MDPI, Density.HDPI]
+                baseDpi = 72
+                cacheDir = null
+                renderEngineService.set renderEngine
+                usesService renderEngine
+                $rasterizeSettings
+            }
+
+            tasks.register('printMemoryBudget') {
+                dependsOn 'rasterizeSvgs'
+                doLast {
+                    println "Memory budget: \${RenderEngine.shared.memoryBudget.capacityBytes}"
+                }
+            }
+        """.stripIndent()
+    }
+
+    private BuildResult build(String... arguments) {
+        return GradleRunner.create()
+                .withProjectDir(temp.root)
+                .withPluginClasspath()
+                .withArguments((arguments as List<String>) + '--stacktrace')
+                .build()
+    }
+}
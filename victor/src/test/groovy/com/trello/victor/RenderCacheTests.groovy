@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.apache.commons.io.FileUtils
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import javax.imageio.ImageIO
+import java.awt.Color
+import java.awt.image.BufferedImage
+
+import static org.junit.Assert.*
+
+class RenderCacheTests {
+
+    private final static RESOURCE_PATH = './src/test/resources/'
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder()
+
+    private File cacheDir
+
+    @Before
+    void setup() {
+        cacheDir = new File(temp.root, 'cache')
+    }
+
+    @Test
+    void keyDependsOnDensityAndDpi() {
+        RenderCache cache = new RenderCache(cacheDir, Long.MAX_VALUE)
+        String hash = RenderCache.hash(new File(RESOURCE_PATH, 'pixel.svg'))
+
+        assertEquals(cache.key(hash, Density.MDPI, 72, 'png'), cache.key(hash, Density.MDPI, 72, 'png'))
+        assertNotEquals(cache.key(hash, Density.MDPI, 72, 'png'), cache.key(hash, Density.HDPI, 72, 'png'))
+        assertNotEquals(cache.key(hash, Density.MDPI, 72, 'png'), cache.key(hash, Density.MDPI, 96, 'png'))
+    }
+
+    @Test
+    void restoresStoredOutputs() {
+        RenderCache cache = new RenderCache(cacheDir, Long.MAX_VALUE)
+        String key = cache.key(RenderCache.hash(new File(RESOURCE_PATH, 'pixel.svg')), Density.MDPI, 72, 'png')
+        File destination = new File(temp.root, 'restored.png')
+
+        assertEquals(RenderCache.Restored.MISS, cache.restore(key, destination))
+
+        File expected = new File(RESOURCE_PATH, 'pixel-mdpi-expected.png')
+        cache.store(key, expected)
+
+        assertEquals(RenderCache.Restored.WRITTEN, cache.restore(key, destination))
+        assertTrue FileUtils.contentEquals(destination, expected)
+
+        // Restoring again leaves the identical output alone
+        assertEquals(RenderCache.Restored.UNCHANGED, cache.restore(key, destination))
+        assertEquals(2, cache.hits)
+        assertEquals(1, cache.misses)
+    }
+
+    @Test
+    void cacheCanBeSharedWithConverter() {
+        RenderCache cache = new RenderCache(cacheDir, Long.MAX_VALUE)
+        SVGResource svgResource = new SVGResource(new File(RESOURCE_PATH, 'pixel.svg'), 72)
+
+        File first = new File(temp.root, 'first.png')
+        new Converter(cache).transcode(svgResource, Density.MDPI, first)
+        assertEquals(0, cache.hits)
+
+        File second = new File(temp.root, 'second.png')
+        new Converter(cache).transcode(svgResource, Density.MDPI, second)
+        assertEquals(1, cache.hits)
+
+        assertTrue FileUtils.contentEquals(first, second)
+    }
+
+    @Test
+    void onlySelfContainedSvgsHaveAContentHash() {
+        assertNotNull(RenderCache.contentHash(svg('<path d="M0 0h1v1z"/>')))
+        assertNotNull(RenderCache.contentHash(svg('<use xlink:href="#a"/><path id="a" fill="url( #b)" d="M0 0h1v1z"/>')))
+        assertNotNull(RenderCache.contentHash(svg('<image width="1" height="1" xlink:href="data:image/png;base64,AA=="/>')))
+
+        assertNull(RenderCache.contentHash(svg('<image width="1" height="1" xlink:href="photo.png"/>')))
+        assertNull(RenderCache.contentHash(svg('<use href="other.svg#icon"/>')))
+        assertNull(RenderCache.contentHash(svg('<path style="fill: url(\'paint.svg#fade\')" d="M0 0h1v1z"/>')))
+        assertNull(RenderCache.contentHash(svg('<style>@import "icons.css";</style>')))
+    }
+
+    @Test
+    void svgsReferencingOtherFilesAreNotCached() {
+        File image = new File(temp.root, 'photo.png')
+        writeSolidPng(image, Color.RED)
+        File svgFile = svg('<image width="16" height="16" xlink:href="photo.png"/>')
+        RenderCache cache = new RenderCache(cacheDir, Long.MAX_VALUE)
+
+        File first = new File(temp.root, 'first.png')
+        new Converter(cache).transcode(new SVGResource(svgFile, 72), Density.MDPI, first)
+
+        // The SVG stays the same, but the image it shows doesn't
+        writeSolidPng(image, Color.BLUE)
+        File second = new File(temp.root, 'second.png')
+        new Converter(cache).transcode(new SVGResource(svgFile, 72), Density.MDPI, second)
+
+        assertEquals(0, cache.hits)
+        assertEquals(Color.RED.RGB, ImageIO.read(first).getRGB(8, 8))
+        assertEquals(Color.BLUE.RGB, ImageIO.read(second).getRGB(8, 8))
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntries() {
+        File png = new File(RESOURCE_PATH, 'pixel-mdpi-expected.png')
+        RenderCache cache = new RenderCache(cacheDir, png.length())
+        String hash = RenderCache.hash(new File(RESOURCE_PATH, 'pixel.svg'))
+
+        String oldKey = cache.key(hash, Density.MDPI, 72, 'png')
+        cache.store(oldKey, png)
+        new File(cacheDir, "${oldKey.substring(0, 2)}/$oldKey").setLastModified(0)
+
+        String newKey = cache.key(hash, Density.HDPI, 72, 'png')
+        cache.store(newKey, png)
+
+        cache.evict()
+
+        assertEquals(RenderCache.Restored.MISS, cache.restore(oldKey, new File(temp.root, 'old.png')))
+        assertEquals(RenderCache.Restored.WRITTEN, cache.restore(newKey, new File(temp.root, 'new.png')))
+    }
+
+    @Test
+    void restoringKeepsEntriesWithoutTouchingThem() {
+        File png = new File(RESOURCE_PATH, 'pixel-mdpi-expected.png')
+        RenderCache cache = new RenderCache(cacheDir, png.length())
+        String hash = RenderCache.hash(new File(RESOURCE_PATH, 'pixel.svg'))
+
+        String usedKey = cache.key(hash, Density.MDPI, 72, 'png')
+        cache.store(usedKey, png)
+        File usedEntry = new File(cacheDir, "${usedKey.substring(0, 2)}/$usedKey")
+        usedEntry.setLastModified(0)
+
+        String newKey = cache.key(hash, Density.HDPI, 72, 'png')
+        cache.store(newKey, png)
+        new File(cacheDir, "${newKey.substring(0, 2)}/$newKey").setLastModified(1000)
+
+        // Outputs may be hard-linked to the entry, so its modification time stays as it was
+        File restored = new File(temp.root, 'used.png')
+        cache.restore(usedKey, restored)
+        assertEquals(0, usedEntry.lastModified())
+        assertEquals(0, restored.lastModified())
+
+        cache.evict()
+
+        assertEquals(RenderCache.Restored.UNCHANGED, cache.restore(usedKey, restored))
+        assertEquals(RenderCache.Restored.MISS, cache.restore(newKey, new File(temp.root, 'new.png')))
+    }
+
+    @Test
+    void onlyWalksTheCacheWhenItMayHaveOutgrownTheCap() {
+        File png = new File(RESOURCE_PATH, 'pixel-mdpi-expected.png')
+        RenderCache cache = new RenderCache(cacheDir, png.length() * 2 - 1)
+        String hash = RenderCache.hash(new File(RESOURCE_PATH, 'pixel.svg'))
+
+        String firstKey = cache.key(hash, Density.MDPI, 72, 'png')
+        cache.store(firstKey, png)
+        new File(cacheDir, "${firstKey.substring(0, 2)}/$firstKey").setLastModified(0)
+        cache.evict()
+
+        // Not stored through the cache, so it isn't counted until the next walk
+        File unknown = new File(cacheDir, '00/unknown')
+        unknown.parentFile.mkdirs()
+        unknown.bytes = png.bytes
+        unknown.setLastModified(1000)
+        cache.evict()
+        assertTrue(unknown.isFile())
+
+        // Storing another entry takes the cache over its cap
+        String secondKey = cache.key(hash, Density.HDPI, 72, 'png')
+        cache.store(secondKey, png)
+        cache.evict()
+
+        assertFalse(unknown.isFile())
+        assertEquals(RenderCache.Restored.MISS, cache.restore(firstKey, new File(temp.root, 'first.png')))
+        assertEquals(RenderCache.Restored.WRITTEN, cache.restore(secondKey, new File(temp.root, 'second.png')))
+    }
+
+    private File svg(String content) {
+        File file = new File(temp.root, 'referencing.svg')
+        file.text = '<svg xmlns="http://www.w3.org/2000/svg" xmlns:xlink="http://www.w3.org/1999/xlink" ' +
+                "width=\"16\" height=\"16\">$content</svg>"
+        return file
+    }
+
+    private static void writeSolidPng(File file, Color color) {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB)
+        image.graphics.with {
+            it.color = color
+            it.fillRect(0, 0, 16, 16)
+            it.dispose()
+        }
+        ImageIO.write(image, 'png', file)
+    }
+}
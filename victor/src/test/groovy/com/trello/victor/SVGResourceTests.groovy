@@ -18,6 +18,9 @@ package com.trello.victor
 import org.junit.Test
 
 import static org.junit.Assert.assertEquals
+import static org.junit.Assert.assertFalse
+import static org.junit.Assert.assertNull
+import static org.junit.Assert.assertTrue
 
 class SVGResourceTests {
 
@@ -39,6 +42,38 @@ class SVGResourceTests {
         assertEquals(24, svgResource.height)
     }
 
+    @Test
+    void canSniffSizeFromRootElement() {
+        File svgFile = new File(RESOURCE_PATH, 'relative.svg')
+        float[] size = SVGRootSniffer.sniffSize(svgFile, (2.54f / 72) * 10 as float)
+        assertEquals(24, size[0] as int)
+        assertEquals(24, size[1] as int)
+    }
+
+    @Test
+    void sniffingLeavesPercentageSizesToTheDocument() {
+        File svgFile = File.createTempFile('percentage', '.svg')
+        svgFile.deleteOnExit()
+        svgFile.text = '<svg xmlns="http://www.w3.org/2000/svg" width="100%" height="100%" viewBox="0 0 24 24"/>'
+
+        assertNull SVGRootSniffer.sniffSize(svgFile, (2.54f / 72) * 10 as float)
+    }
+
+    @Test
+    void onlyPixelSizesAreDpiIndependent() {
+        assertTrue SVGRootSniffer.isDpiIndependent(new File(RESOURCE_PATH, 'pixel.svg'))
+        assertFalse SVGRootSniffer.isDpiIndependent(new File(RESOURCE_PATH, 'relative.svg'))
+
+        File svgFile = File.createTempFile('unitless', '.svg')
+        svgFile.deleteOnExit()
+        svgFile.text = '<svg xmlns="http://www.w3.org/2000/svg" width="24" height="1.5e1"/>'
+        assertTrue SVGRootSniffer.isDpiIndependent(svgFile)
+
+        // Without a size of its own, it depends on whatever the document works out
+        svgFile.text = '<svg xmlns="http://www.w3.org/2000/svg" viewBox="0 0 24 24"/>'
+        assertFalse SVGRootSniffer.isDpiIndependent(svgFile)
+    }
+
     @Test
     void ignoresNonexistantFiles() {
         // Simply tests that it doesn't crash
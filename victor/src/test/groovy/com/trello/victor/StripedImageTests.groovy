@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.junit.Test
+
+import javax.imageio.ImageIO
+import java.awt.Color
+import java.awt.Graphics2D
+import java.awt.image.BufferedImage
+
+import static org.junit.Assert.*
+
+class StripedImageTests {
+
+    private static final int WIDTH = 300
+
+    private static final int HEIGHT = 257
+
+    @Test
+    void encodesTheSameAsAWholeImage() {
+        BufferedImage whole = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB)
+        paint(whole, 0)
+
+        StripedImage striped = new StripedImage(WIDTH, HEIGHT, 40, { int y, int rows ->
+            BufferedImage strip = new BufferedImage(WIDTH, rows, BufferedImage.TYPE_INT_ARGB)
+            paint(strip, y)
+            return strip
+        } as StripedImage.StripPainter)
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream()
+        ImageIO.write(whole, 'png', expected)
+        ByteArrayOutputStream actual = new ByteArrayOutputStream()
+        ImageIO.write(striped, 'png', actual)
+
+        assertArrayEquals(expected.toByteArray(), actual.toByteArray())
+
+        // Read top to bottom, so each strip was only painted once
+        assertEquals(7, striped.numYTiles)
+        assertEquals(7, striped.paintCount)
+    }
+
+    @Test
+    void stripsAreSizedByPixelCount() {
+        assertEquals(1024, StripedImage.stripHeightFor(4096, 4L << 20))
+        assertEquals(1, StripedImage.stripHeightFor(100000, 10))
+    }
+
+    private static void paint(BufferedImage image, int y) {
+        Graphics2D g2d = image.createGraphics()
+        g2d.translate(0, -y)
+        g2d.color = new Color(255, 0, 0, 128)
+        g2d.fillRect(10, 10, 250, 230)
+        g2d.color = Color.BLUE
+        g2d.drawLine(0, 0, WIDTH - 1, HEIGHT - 1)
+        g2d.dispose()
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class SvgNormalizerTests {
+
+    private final static String ARTWORK = '''<svg xmlns="http://www.w3.org/2000/svg" width="24" height="24">
+  <path fill="#000" d="M0 0h24v24H0z"/>
+  <text x="1" y="20">A <tspan> </tspan>B</text>
+</svg>'''
+
+    private final static String REEXPORTED = '''<?xml version="1.0" encoding="UTF-8"?>
+<!-- Generator: Sketch 52.6 (67491) - http://www.bohemiancoding.com/sketch -->
+<!DOCTYPE svg [ <!ENTITY ns_svg "http://www.w3.org/2000/svg"> ]>
+<svg height="24" width="24" xmlns:sketch="http://www.bohemiancoding.com/sketch/ns"
+     xmlns:inkscape="http://www.inkscape.org/namespaces/inkscape" xmlns="&ns_svg;" sketch:type="MSPage">
+    <title>icon</title>
+    <desc>Created with Sketch.</desc>
+    <metadata><rdf:RDF xmlns:rdf="http://www.w3.org/1999/02/22-rdf-syntax-ns#"/></metadata>
+    <sketch:layer name="Layer 1"/>
+    <path inkscape:label="background" d="M0 0h24v24H0z" fill="#000"/>
+    <text x="1" y="20">A <tspan> </tspan>B</text>
+</svg>'''
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder()
+
+    @Test
+    void ignoresCosmeticChanges() {
+        assertArrayEquals(normalize(ARTWORK), normalize(REEXPORTED))
+    }
+
+    @Test
+    void keepsChangesThatRender() {
+        assertFalse Arrays.equals(normalize(ARTWORK), normalize(ARTWORK.replace('#000', '#001')))
+
+        // Whitespace inside text is rendered
+        assertFalse Arrays.equals(normalize(ARTWORK), normalize(ARTWORK.replace('<tspan> </tspan>', '<tspan></tspan>')))
+    }
+
+    @Test
+    void givesUpOnMalformedSvgs() {
+        assertNull normalize('<svg xmlns="http://www.w3.org/2000/svg"><path></svg>')
+        assertNull normalize('<svg><path/></svg>')
+    }
+
+    @Test
+    void cacheKeysIgnoreCosmeticChanges() {
+        assertEquals(RenderCache.contentHash(write('a.svg', ARTWORK)), RenderCache.contentHash(write('b.svg', REEXPORTED)))
+    }
+
+    private byte[] normalize(String svg) {
+        return SvgNormalizer.normalize(write('normalize.svg', svg))
+    }
+
+    private File write(String name, String svg) {
+        File file = new File(temp.root, name)
+        file.setText(svg, 'UTF-8')
+        return file
+    }
+}
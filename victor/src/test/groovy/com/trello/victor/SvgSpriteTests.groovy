@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class SvgSpriteTests {
+
+    private final static String SPRITE = '''<svg xmlns="http://www.w3.org/2000/svg" xmlns:xlink="http://www.w3.org/1999/xlink">
+  <defs>
+    <linearGradient id="fade"><stop offset="0" stop-color="#000"/></linearGradient>
+    <clipPath id="unused"><rect width="1" height="1"/></clipPath>
+  </defs>
+  <symbol id="ic-add" viewBox="0 0 24 24" fill="#111">
+    <title>Add</title>
+    <path d="M11 5h2v14h-2z"/>
+  </symbol>
+  <symbol id="Fancy.Star" viewBox="0 0 48 48">
+    <path fill="url(#fade)" d="M0 0h48v48H0z"/>
+    <use xlink:href="#ic-add"/>
+  </symbol>
+</svg>'''
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder()
+
+    @Test
+    void splitsEachSymbolIntoItsOwnSvg() {
+        Map<String, byte[]> icons = SvgSprite.split(write('icons.sprite.svg', SPRITE))
+
+        assertEquals(['icons_ic_add.svg', 'icons_fancy_star.svg'], icons.keySet() as List)
+
+        String add = new String(icons['icons_ic_add.svg'], 'UTF-8')
+        assertTrue(add.startsWith('<svg xmlns="http://www.w3.org/2000/svg"'))
+        assertTrue(add.contains('height="24" viewBox="0 0 24 24" width="24"'))
+        assertTrue(add.contains('<g fill="#111"><path d="M11 5h2v14h-2z"></path></g>'))
+        assertFalse(add.contains('fade'))
+        assertFalse(add.contains('Add'))
+
+        // Takes along what it references, and nothing else
+        String star = new String(icons['icons_fancy_star.svg'], 'UTF-8')
+        assertTrue(star.contains('<linearGradient id="fade">'))
+        assertTrue(star.contains('<symbol fill="#111" id="ic-add" viewBox="0 0 24 24">'))
+        assertFalse(star.contains('unused'))
+    }
+
+    @Test
+    void iconsOnlyChangeWhenWhatTheyUseChanges() {
+        Map<String, byte[]> before = SvgSprite.split(write('a.sprite.svg', SPRITE))
+        Map<String, byte[]> after = SvgSprite.split(write('a.sprite.svg', SPRITE.replace('stop-color="#000"', 'stop-color="#fff"')))
+
+        assertArrayEquals(before['a_ic_add.svg'], after['a_ic_add.svg'])
+        assertFalse(Arrays.equals(before['a_fancy_star.svg'], after['a_fancy_star.svg']))
+
+        // Editing the icon it uses changes it too
+        after = SvgSprite.split(write('a.sprite.svg', SPRITE.replace('M11 5', 'M10 5')))
+        assertFalse(Arrays.equals(before['a_ic_add.svg'], after['a_ic_add.svg']))
+        assertFalse(Arrays.equals(before['a_fancy_star.svg'], after['a_fancy_star.svg']))
+    }
+
+    @Test
+    void groupsUseTheSheetsViewBox() {
+        Map<String, byte[]> icons = SvgSprite.split(write('iconset.sprite.svg', '''
+<svg xmlns="http://www.w3.org/2000/svg" width="24px" height="24px">
+  <defs>
+    <g id="menu"><path d="M3 18h18v-2H3z"/></g>
+    <g><g id="nested"/></g>
+  </defs>
+</svg>'''))
+
+        assertEquals(['iconset_menu.svg'], icons.keySet() as List)
+        String menu = new String(icons['iconset_menu.svg'], 'UTF-8')
+        assertTrue(menu.contains('height="24" viewBox="0 0 24 24" width="24"><g><path d="M3 18h18v-2H3z"></path></g>'))
+    }
+
+    @Test
+    void skipsIconsWithMalformedViewBoxes() {
+        Map<String, byte[]> icons = SvgSprite.split(write('odd.sprite.svg', '''
+<svg xmlns="http://www.w3.org/2000/svg">
+  <symbol id="short" viewBox="0 0 24"><path d="M0 0h24v24H0z"/></symbol>
+  <symbol id="none" viewBox="none"><path d="M0 0h24v24H0z"/></symbol>
+  <symbol id="units" viewBox="0 0 24px 24px"><path d="M0 0h24v24H0z"/></symbol>
+  <symbol id="empty" viewBox="0 0 0 24"><path d="M0 0h24v24H0z"/></symbol>
+  <symbol id="fine" viewBox="0,0,24,24"><path d="M0 0h24v24H0z"/></symbol>
+</svg>'''))
+
+        assertEquals(['odd_fine.svg'], icons.keySet() as List)
+    }
+
+    @Test(expected = IOException)
+    void failsOnMalformedSheets() {
+        SvgSprite.split(write('broken.sprite.svg', '<svg xmlns="http://www.w3.org/2000/svg"><symbol></svg>'))
+    }
+
+    private File write(String name, String svg) {
+        File file = new File(temp.root, name)
+        file.setText(svg, 'UTF-8')
+        return file
+    }
+}
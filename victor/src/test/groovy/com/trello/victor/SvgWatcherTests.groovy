@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.trello.victor
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+import static org.junit.Assert.*
+
+class SvgWatcherTests {
+
+    // Generous, since the JDK polls on some platforms
+    private final static long TIMEOUT_SECONDS = 15
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder()
+
+    private File svgDir
+
+    private LinkedBlockingQueue<String> events = new LinkedBlockingQueue<>()
+
+    private SvgWatcher watcher
+
+    private Thread thread
+
+    @Before
+    void setup() {
+        svgDir = temp.newFolder('svg')
+        new File(svgDir, 'existing.svg').text = '<svg/>'
+
+        watcher = new SvgWatcher([svgDir, new File(temp.root, 'missing')], { File file -> file.name.endsWith('.svg') },
+                new SvgWatcher.Listener() {
+                    @Override
+                    void onChanged(File file) {
+                        events.add "changed ${file.name}".toString()
+                    }
+
+                    @Override
+                    void onDeleted(File file) {
+                        events.add "deleted ${file.name}".toString()
+                    }
+                })
+        thread = new Thread({ watcher.run() })
+        thread.start()
+    }
+
+    @After
+    void tearDown() {
+        watcher.close()
+        thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS))
+    }
+
+    @Test
+    void reportsChangedAndDeletedSvgs() {
+        new File(svgDir, 'existing.svg').text = '<svg width="1"/>'
+        awaitEvent('changed existing.svg')
+
+        new File(svgDir, 'notes.txt').text = 'ignored'
+        new File(svgDir, 'existing.svg').delete()
+        awaitEvent('deleted existing.svg')
+        assertFalse(events.any { it.contains('notes.txt') })
+    }
+
+    @Test
+    void watchesNewDirectories() {
+        File nested = new File(svgDir, 'nested')
+        nested.mkdirs()
+        new File(nested, 'first.svg').text = '<svg/>'
+        awaitEvent('changed first.svg')
+
+        new File(nested, 'second.svg').text = '<svg/>'
+        awaitEvent('changed second.svg')
+    }
+
+    @Test
+    void stopsWhenClosed() {
+        watcher.close()
+        thread.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS))
+        assertFalse(thread.alive)
+    }
+
+    /**
+     * Waits for an event, skipping any others; one save may be seen as more than one change.
+     */
+    private void awaitEvent(String expected) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS)
+        while (System.nanoTime() < deadline) {
+            if (events.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) == expected) {
+                return
+            }
+        }
+        fail("Timed out waiting for '$expected'")
+    }
+}
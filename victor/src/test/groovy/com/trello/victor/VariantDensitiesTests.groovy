@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.gradle.api.GradleException
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+class VariantDensitiesTests {
+
+    @Test
+    void everyDensityByDefault() {
+        assertEquals(Density.values().toList(),
+                VariantDensities.select(new VictorPluginExtension(), 'release', 'release', [], []))
+    }
+
+    @Test
+    void buildTypesFlavorsAndExclusionsAllNarrowDown() {
+        VictorPluginExtension victor = new VictorPluginExtension()
+        victor.excludeDensities = ['ldpi']
+        victor.buildTypeDensities = [debug: ['xxhdpi']]
+        victor.flavorDensities = [tablet: ['mdpi', 'xhdpi', 'xxhdpi', 'xxxhdpi']]
+
+        assertEquals([Density.XXHDPI], VariantDensities.select(victor, 'tabletDebug', 'debug', ['tablet'], []))
+        assertEquals([Density.MDPI, Density.XHDPI, Density.XXHDPI, Density.XXXHDPI],
+                VariantDensities.select(victor, 'tabletRelease', 'release', ['tablet'], []))
+        assertEquals([Density.MDPI, Density.HDPI, Density.XHDPI, Density.XXHDPI, Density.XXXHDPI],
+                VariantDensities.select(victor, 'phoneRelease', 'release', ['phone'], []))
+    }
+
+    @Test
+    void infersDensitiesFromResConfigs() {
+        VictorPluginExtension victor = new VictorPluginExtension()
+
+        assertEquals([Density.XHDPI, Density.XXHDPI],
+                VariantDensities.select(victor, 'release', 'release', [], ['en', 'xxhdpi', 'XHDPI', 'nodpi']))
+
+        // Languages alone, or densities we don't render, say nothing about which we need
+        assertEquals(Density.values().toList(), VariantDensities.select(victor, 'release', 'release', [], ['en', 'tvdpi']))
+
+        victor.inferDensitiesFromResConfigs = false
+        assertEquals(Density.values().toList(), VariantDensities.select(victor, 'release', 'release', [], ['xxhdpi']))
+    }
+
+    @Test(expected = GradleException)
+    void failsWhenNothingIsLeft() {
+        VictorPluginExtension victor = new VictorPluginExtension()
+        victor.buildTypeDensities = [debug: ['xxhdpi']]
+        victor.flavorDensities = [small: ['mdpi']]
+
+        VariantDensities.select(victor, 'smallDebug', 'debug', ['small'], [])
+    }
+
+    @Test(expected = GradleException)
+    void rejectsUnknownDensities() {
+        VictorPluginExtension victor = new VictorPluginExtension()
+        victor.buildTypeDensities = [debug: ['xxhdip']]
+
+        VariantDensities.select(victor, 'debug', 'debug', [], [])
+    }
+}
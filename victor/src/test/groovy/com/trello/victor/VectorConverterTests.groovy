@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.apache.commons.io.FileUtils
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+import static org.junit.Assert.*
+
+class VectorConverterTests {
+
+    private final static RESOURCE_PATH = './src/test/resources/'
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder()
+
+    @Test
+    void leavesUnchangedDrawablesAlone() {
+        VectorConverter converter = new VectorConverter()
+        File destination = new File(temp.root, 'rasterize.xml')
+
+        assertTrue converter.convert(new File(RESOURCE_PATH, 'rasterize.svg'), destination)
+        assertTrue destination.exists()
+        assertFalse converter.convert(new File(RESOURCE_PATH, 'rasterize.svg'), destination)
+        assertTrue converter.errors.empty
+    }
+
+    @Test
+    void collectsErrorsInsteadOfStopping() {
+        VectorConverter converter = new VectorConverter()
+        File destination = new File(temp.root, 'invalid.xml')
+        destination.text = 'stale'
+
+        converter.convert(new File(RESOURCE_PATH, 'invalid.svg'), destination)
+        converter.convert(new File(RESOURCE_PATH, 'rasterize.svg'), new File(temp.root, 'rasterize.xml'))
+
+        assertEquals(1, converter.errors.size())
+        assertTrue converter.errors[0].startsWith('invalid.svg: ')
+        assertFalse destination.exists()
+        assertTrue new File(temp.root, 'rasterize.xml').exists()
+    }
+
+    @Test
+    void restoresDrawablesFromCache() {
+        RenderCache cache = new RenderCache(new File(temp.root, 'cache'), Long.MAX_VALUE)
+        File first = new File(temp.root, 'first.xml')
+        File second = new File(temp.root, 'second.xml')
+
+        new VectorConverter(cache).convert(new File(RESOURCE_PATH, 'rasterize.svg'), first)
+        new VectorConverter(cache).convert(new File(RESOURCE_PATH, 'rasterize.svg'), second)
+
+        assertEquals(1, cache.hits)
+        assertTrue FileUtils.contentEquals(first, second)
+    }
+}
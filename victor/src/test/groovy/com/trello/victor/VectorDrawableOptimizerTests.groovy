@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.trello.victor
+
+import org.junit.Test
+
+import static org.junit.Assert.*
+
+class VectorDrawableOptimizerTests {
+
+    // Formatted the way Svg2Vector writes drawables
+    private static final String HEADER = '''<?xml version="1.0" encoding="utf-8"?>
+<vector xmlns:android="http://schemas.android.com/apk/res/android"
+    android:width="24dp"
+    android:height="24dp"
+    android:viewportWidth="24.0"
+    android:viewportHeight="24.0">'''
+
+    @Test
+    void roundsAndPicksShorterCommands() {
+        assertEquals('M10 20.123L30.5 40.25 31 41l69 59z',
+                PathData.rewrite('M 10.000001 20.123456 L 30.5 40.25 L 31 41 L 100 100 Z', 3).data)
+        assertEquals('M.5.5L.25.75', PathData.rewrite('M0.5,0.5 L0.25,0.75', 3).data)
+        assertNull PathData.rewrite('@string/path', 3)
+    }
+
+    @Test
+    void relativeCoordinatesDoNotAccumulateRoundingErrors() {
+        String pathData = PathData.rewrite('M0 0' + ' l0.0004 0' * 100 + ' L1 1', 3).data
+        assertTrue pathData, pathData.endsWith('1 1') || pathData.endsWith('L1 1')
+    }
+
+    @Test
+    void mergesOnlyPathsThatDoNotOverlap() {
+        String optimized = optimize(HEADER + '''
+    <path
+        android:fillColor="#FF000000"
+        android:pathData="M1.0,1.0L3.0,1.0L3.0,3.0Z"/>
+    <path
+        android:fillColor="#FF000000"
+        android:pathData="M10.0,10.0L13.0,10.0L13.0,13.0Z"/>
+    <path
+        android:fillColor="#FF000000"
+        android:pathData="M11.0,11.0L12.0,11.0L12.0,12.0Z"/>
+    <path
+        android:fillColor="#FFFF0000"
+        android:pathData="M20.0,20.0L21.0,20.0Z"/>
+</vector>''')
+
+        assertEquals(3, optimized.count('<path'))
+        assertTrue optimized, optimized.contains('android:pathData="M1 1L3 1 3 3zm9 9l3 0 0 3z"')
+    }
+
+    @Test
+    void collapsesOnlyTransformFreeGroups() {
+        String optimized = optimize(HEADER + '''
+    <group>
+        <path
+            android:fillColor="#FF000000"
+            android:pathData="M1.0,1.0L3.0,1.0L3.0,3.0Z"/>
+    </group>
+    <group
+        android:rotation="0"
+        android:pivotX="12">
+        <path android:pathData="M1.0,1.0L3.0,1.0L3.0,3.0Z"/>
+    </group>
+    <group android:rotation="45">
+        <path android:pathData="M1.0,1.0L3.0,1.0L3.0,3.0Z"/>
+    </group>
+    <group android:name="animated">
+        <path android:pathData="M1.0,1.0L3.0,1.0L3.0,3.0Z"/>
+    </group>
+</vector>''')
+
+        assertEquals(2, optimized.count('<group'))
+        assertTrue optimized.contains('android:rotation="45"')
+        assertTrue optimized.contains('android:name="animated"')
+    }
+
+    @Test
+    void leavesUnparseableDrawablesAlone() {
+        byte[] xml = 'not a drawable'.getBytes('UTF-8')
+        assertArrayEquals(xml, new VectorDrawableOptimizer(3).optimize(xml))
+    }
+
+    private static String optimize(String xml) {
+        return new String(new VectorDrawableOptimizer(3).optimize(xml.getBytes('UTF-8')), 'UTF-8')
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015 Trello, Inc
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.batik.ext.awt.image.codec.imageio
+
+import org.apache.batik.ext.awt.image.renderable.DeferRable
+import org.junit.Test
+
+import javax.imageio.ImageIO
+import java.awt.image.BufferedImage
+import java.awt.image.RenderedImage
+
+import static org.junit.Assert.*
+
+class DecodedImageCacheTests {
+
+    @Test
+    void keysDependOnFormatAndContent() {
+        byte[] data = [1, 2, 3] as byte[]
+
+        assertEquals(DecodedImageCache.keyFor('PNG', data), DecodedImageCache.keyFor('PNG', [1, 2, 3] as byte[]))
+        assertNotEquals(DecodedImageCache.keyFor('PNG', data), DecodedImageCache.keyFor('JPEG', data))
+        assertNotEquals(DecodedImageCache.keyFor('PNG', data), DecodedImageCache.keyFor('PNG', [1, 2, 4] as byte[]))
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedImages() {
+        // Room for two 16x16 ARGB images
+        DecodedImageCache cache = new DecodedImageCache(16 * 16 * 4 * 2)
+        cache.put('a', new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB))
+        cache.put('b', new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB))
+        assertNotNull(cache.get('a'))
+
+        cache.put('c', new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB))
+        assertNotNull(cache.get('a'))
+        assertNull(cache.get('b'))
+        assertNotNull(cache.get('c'))
+
+        // Too large to hold on to at all
+        cache.put('d', new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB))
+        assertNull(cache.get('d'))
+        assertNotNull(cache.get('a'))
+    }
+
+    @Test
+    void decodingTheSameImageAgainHitsTheCache() {
+        // Pixels no other test decodes, since every entry shares one cache
+        BufferedImage image = new BufferedImage(3, 2, BufferedImage.TYPE_INT_ARGB)
+        image.setRGB(0, 0, (int) System.nanoTime() | 0xFF000000)
+        image.setRGB(2, 1, 0x80FF0000)
+        ByteArrayOutputStream png = new ByteArrayOutputStream()
+        ImageIO.write(image, 'png', png)
+
+        DecodedImageCache cache = AbstractImageIORegistryEntry.decodedImages
+        int hits = cache.hits
+        int misses = cache.misses
+
+        RenderedImage first = decode(png.toByteArray())
+        assertEquals(misses + 1, cache.misses)
+        assertEquals(hits, cache.hits)
+
+        RenderedImage second = decode(png.toByteArray())
+        assertEquals(misses + 1, cache.misses)
+        assertEquals(hits + 1, cache.hits)
+
+        assertEquals(3, second.width)
+        assertEquals(2, second.height)
+        for (int y = 0; y < image.height; y++) {
+            for (int x = 0; x < image.width; x++) {
+                assertEquals(image.getRGB(x, y), rgb(first, x, y))
+                assertEquals(image.getRGB(x, y), rgb(second, x, y))
+            }
+        }
+    }
+
+    private static int rgb(RenderedImage image, int x, int y) {
+        return image.colorModel.getRGB(image.data.getDataElements(x, y, null))
+    }
+
+    private static RenderedImage decode(byte[] png) {
+        DeferRable deferred = (DeferRable) new ImageIOPNGRegistryEntry()
+                .handleStream(new ByteArrayInputStream(png), null, false)
+        // Waits for the decoder pool to finish with it
+        return deferred.source.createDefaultRendering()
+    }
+}